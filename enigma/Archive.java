@@ -0,0 +1,482 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** A compact, indexed archive of messages, each stored with its parsed
+ *  settings, from which any message, or any range of characters of one,
+ *  can be decrypted without reading the others.
+ *
+ *  Characters are stored as alphabet indices packed into BITS bits
+ *  each, the fewest that hold the alphabet, so a 26-letter message
+ *  takes 5 bits a character.  Distinct settings are stored once, in a
+ *  table.  Layout (big-endian): int MAGIC, int BITS, int number of
+ *  messages, int number of settings, long offset of the settings
+ *  table, long offset of the index; then the packed characters of all
+ *  messages, one after another from bit 0 and padded with 4 zero
+ *  bytes; the settings, each as four length-prefixed UTF-8 strings
+ *  (rotor names separated by blanks, positions, rings, plugboard
+ *  cycles); and the index, a (long bit offset, int length, int
+ *  settings number) record for each message.  An archive is mapped in
+ *  one buffer, so it is limited to 2 GiB.  An Archive decrypts with
+ *  one machine and is not thread-safe.
+ *
+ *  Decrypting from the middle of a message jumps the machine ahead on
+ *  the orbit of its packed state under stepping.  The first time a
+ *  setting is jumped at least STRIDE keypresses, the tail and period of
+ *  its orbit are found (Brent's method) and the state every STRIDE
+ *  keypresses along them is kept, so a later jump costs fewer than
+ *  STRIDE steps however far into the message it goes.
+ *  @author Andrew Kaplan
+ */
+class Archive {
+
+    /** First int of an archive file ("EARC"). */
+    static final int MAGIC = 0x45415243;
+
+    /** Bytes in the file header. */
+    static final int HEADER = 32;
+
+    /** Bytes in an index record. */
+    static final int RECORD = 16;
+
+    /** Keypresses between the states kept for jumping ahead. */
+    static final int STRIDE = 1 << 10;
+
+    /** An archive whose file is mapped in BUF, holding messages for
+     *  machine M. */
+    private Archive(ByteBuffer buf, Machine m) {
+        _buf = buf;
+        _machine = m;
+        if (buf.getInt(0) != MAGIC) {
+            throw error("not a message archive");
+        }
+        _bits = buf.getInt(4);
+        _count = buf.getInt(8);
+        _settings = new Settings[buf.getInt(12)];
+        _orbits = new Orbit[_settings.length];
+        _index = (int) buf.getLong(24);
+        if (_bits != bits(m.alphabet().size())) {
+            throw error("archive does not match the alphabet");
+        }
+        ByteBuffer table = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+        table.position((int) buf.getLong(16));
+        for (int i = 0; i < _settings.length; i += 1) {
+            String rotors = string(table);
+            _settings[i] = new Settings(rotors.split(" "), string(table),
+                                        string(table), string(table));
+        }
+    }
+
+    /** Write the messages of INPUT, in the format Main reads, to the
+     *  archive FILE, checking their settings and characters with M.
+     *  The message lines under one setting line form one message. */
+    static void write(Path file, Machine m, Scanner input) {
+        Alphabet alpha = m.alphabet();
+        int bits = bits(alpha.size());
+        HashMap<String, Integer> settingIds = new HashMap<>();
+        ArrayList<Settings> settings = new ArrayList<>();
+        ArrayList<long[]> index = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file,
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER);
+            Packer data = new Packer(channel, bits);
+            long[] current = null;
+            while (input.hasNextLine()) {
+                String line = input.nextLine();
+                if (line.startsWith("*")) {
+                    Settings s = Settings.parse(m, line);
+                    s.apply(m);
+                    String key = s.toString();
+                    Integer id = settingIds.get(key);
+                    if (id == null) {
+                        id = settings.size();
+                        settingIds.put(key, id);
+                        settings.add(s);
+                    }
+                    current = new long[] {data.bits(), 0, id};
+                    index.add(current);
+                } else if (current == null) {
+                    if (!line.trim().isEmpty()) {
+                        throw error("Invalid input file");
+                    }
+                } else {
+                    for (int k = 0; k < line.length(); k += 1) {
+                        char c = line.charAt(k);
+                        if (Character.isWhitespace(c)) {
+                            continue;
+                        } else if (!alpha.contains(c)) {
+                            throw error("Character %s not in alphabet", c);
+                        }
+                        data.put(alpha.toInt(c));
+                        current[1] += 1;
+                    }
+                }
+            }
+            long tables = data.finish();
+            ByteBuffer out = ByteBuffer.allocate(1 << 16);
+            for (Settings s : settings) {
+                put(channel, out, String.join(" ", s.rotors()));
+                put(channel, out, s.positions());
+                put(channel, out, s.rings());
+                put(channel, out, s.plugboard());
+            }
+            drain(channel, out, RECORD);
+            long indexStart = channel.position() + out.position();
+            for (long[] entry : index) {
+                if (entry[1] > Integer.MAX_VALUE) {
+                    throw error("message too long to archive");
+                }
+                drain(channel, out, RECORD);
+                out.putLong(entry[0]).putInt((int) entry[1])
+                    .putInt((int) entry[2]);
+            }
+            drain(channel, out, out.capacity());
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(bits).putInt(index.size())
+                .putInt(settings.size()).putLong(tables)
+                .putLong(indexStart).flip();
+            channel.write(header, 0);
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw error("archive too large");
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Return the archive in FILE, whose messages are for machine M,
+     *  which is used to decrypt them. */
+    static Archive open(Path file, Machine m) {
+        try (FileChannel channel =
+                 FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.BIG_ENDIAN);
+            return new Archive(buf, m);
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Run ARGS, which are CONFIG FILE pack INPUT to archive the
+     *  messages of INPUT in FILE, or CONFIG FILE read N [FROM TO] to
+     *  print message N (numbered from 0), or its characters FROM ..
+     *  TO-1, decrypted, with its setting line.  Return true. */
+    static boolean main(String... args) {
+        if (args.length < 4) {
+            throw error("Usage: --archive CONFIG FILE pack INPUT | "
+                        + "--archive CONFIG FILE read N [FROM TO]");
+        }
+        Machine m;
+        try {
+            m = Main.readConfig(new Scanner(new File(args[0])));
+        } catch (IOException excp) {
+            throw error("could not open %s", args[0]);
+        }
+        Path file = Paths.get(args[1]);
+        try {
+            if (args[2].equals("pack") && args.length == 4) {
+                write(file, m, new Scanner(new File(args[3])));
+            } else if (args[2].equals("read")
+                       && (args.length == 4 || args.length == 6)) {
+                Archive archive = open(file, m);
+                int n = Integer.parseInt(args[3]);
+                int from = args.length == 6 ? Integer.parseInt(args[4]) : 0;
+                int to = args.length == 6 ? Integer.parseInt(args[5])
+                    : archive.length(n);
+                System.out.println(archive.settings(n));
+                System.out.println(Main.groups(archive.decrypt(n, from,
+                                                               to)));
+            } else {
+                throw error("unknown archive command %s", args[2]);
+            }
+        } catch (IOException excp) {
+            throw error("could not open %s", args[3]);
+        } catch (NumberFormatException excp) {
+            throw error("bad message number or range");
+        }
+        return true;
+    }
+
+    /** Return the number of messages. */
+    int size() {
+        return _count;
+    }
+
+    /** Return the settings of message N. */
+    Settings settings(int n) {
+        return _settings[settingsId(n)];
+    }
+
+    /** Return the length of message N. */
+    int length(int n) {
+        return _buf.getInt(record(n) + 8);
+    }
+
+    /** Store characters FROM .. TO-1 of message N, as stored, in
+     *  DEST[0 .. TO-FROM-1]. */
+    void ciphertext(int n, int from, int to, int[] dest) {
+        check(n, from, to);
+        long bit = 8L * HEADER + _buf.getLong(record(n))
+            + (long) from * _bits;
+        int mask = (1 << _bits) - 1;
+        for (int i = 0; i < to - from; i += 1, bit += _bits) {
+            int word = _buf.getInt((int) (bit >>> 3));
+            dest[i] = word >>> (32 - (int) (bit & 7) - _bits) & mask;
+        }
+    }
+
+    /** Store the decryption of characters FROM .. TO-1 of message N in
+     *  DEST[0 .. TO-FROM-1].  The machine is set up from the message's
+     *  stored settings and jumped ahead FROM keypresses on its packed
+     *  state, without converting the characters before FROM. */
+    void decrypt(int n, int from, int to, int[] dest) {
+        ciphertext(n, from, to, dest);
+        int id = settingsId(n);
+        _settings[id].apply(_machine);
+        if (from > 0) {
+            _machine.restore(jump(id, from));
+        }
+        _machine.convert(dest, 0, to - from, dest);
+    }
+
+    /** Return the packed state FROM keypresses after the initial state
+     *  of setting ID, to which the machine is set. */
+    private long jump(int id, long from) {
+        long state = _machine.snapshot();
+        if (from >= STRIDE) {
+            if (_orbits[id] == null) {
+                _orbits[id] = new Orbit(_machine, state);
+            }
+            Orbit orbit = _orbits[id];
+            if (from >= orbit._tail + orbit._period) {
+                from = orbit._tail + (from - orbit._tail) % orbit._period;
+            }
+            state = orbit._stops[(int) (from / STRIDE)];
+            from %= STRIDE;
+        }
+        for (long i = 0; i < from; i += 1) {
+            state = _machine.step(state);
+        }
+        return state;
+    }
+
+    /** Return the decryption of characters FROM .. TO-1 of message N. */
+    String decrypt(int n, int from, int to) {
+        int[] text = new int[to - from];
+        decrypt(n, from, to, text);
+        char[] result = new char[text.length];
+        for (int i = 0; i < text.length; i += 1) {
+            result[i] = _machine.alphabet().toChar(text[i]);
+        }
+        return new String(result);
+    }
+
+    /** Return the decryption of message N. */
+    String decrypt(int n) {
+        return decrypt(n, 0, length(n));
+    }
+
+    /** Return the number of message N's settings. */
+    private int settingsId(int n) {
+        return _buf.getInt(record(n) + 12);
+    }
+
+    /** Return the position of message N's index record. */
+    private int record(int n) {
+        if (n < 0 || n >= _count) {
+            throw error("no message %d in archive", n);
+        }
+        return _index + RECORD * n;
+    }
+
+    /** Check that FROM .. TO-1 is a range of characters of message N. */
+    private void check(int n, int from, int to) {
+        if (from < 0 || from > to || to > length(n)) {
+            throw error("no characters %d .. %d in message %d", from,
+                        to - 1, n);
+        }
+    }
+
+    /** Return the number of bits holding an index of an alphabet of
+     *  SIZE characters. */
+    private static int bits(int size) {
+        int result = 32 - Integer.numberOfLeadingZeros(size - 1);
+        if (result > 16) {
+            throw error("alphabet too large to archive");
+        }
+        return Math.max(1, result);
+    }
+
+    /** Return the next length-prefixed UTF-8 string in BUF. */
+    private static String string(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Append S as a length-prefixed UTF-8 string to OUT, which is
+     *  written to CHANNEL as it fills. */
+    private static void put(FileChannel channel, ByteBuffer out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        drain(channel, out, 4);
+        out.putInt(bytes.length);
+        for (int k = 0; k < bytes.length; k += 1) {
+            drain(channel, out, 1);
+            out.put(bytes[k]);
+        }
+    }
+
+    /** Write OUT to CHANNEL if it has less than NEED bytes free. */
+    private static void drain(FileChannel channel, ByteBuffer out, int need)
+        throws IOException {
+        if (out.remaining() < need) {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+    }
+
+    /** Packs characters of BITS bits each into a file. */
+    private static final class Packer {
+
+        /** A packer writing to CHANNEL from its current position with
+         *  BITS bits a character. */
+        Packer(FileChannel channel, int bits) {
+            _channel = channel;
+            _bits = bits;
+        }
+
+        /** Return the number of bits packed so far. */
+        long bits() {
+            return _total;
+        }
+
+        /** Pack C. */
+        void put(int c) throws IOException {
+            _acc = (_acc << _bits) | c;
+            _held += _bits;
+            _total += _bits;
+            while (_held >= 8) {
+                _held -= 8;
+                drain(_channel, _out, 1);
+                _out.put((byte) (_acc >>> _held));
+            }
+        }
+
+        /** Write the last partial byte and the padding, and return the
+         *  file position that follows them. */
+        long finish() throws IOException {
+            if (_held > 0) {
+                drain(_channel, _out, 1);
+                _out.put((byte) (_acc << (8 - _held)));
+                _held = 0;
+            }
+            drain(_channel, _out, 4);
+            _out.putInt(0);
+            drain(_channel, _out, _out.capacity());
+            return _channel.position();
+        }
+
+        /** Destination. */
+        private final FileChannel _channel;
+        /** Bits a character. */
+        private final int _bits;
+        /** Bits not yet written, in the low _held bits. */
+        private long _acc;
+        /** Number of bits held in _acc. */
+        private int _held;
+        /** Number of bits packed. */
+        private long _total;
+        /** Bytes not yet written. */
+        private final ByteBuffer _out = ByteBuffer.allocate(1 << 16);
+    }
+
+    /** The states reached by stepping from one packed state. */
+    private static final class Orbit {
+
+        /** The orbit of START under the stepping of M. */
+        Orbit(Machine m, long start) {
+            long power = 1, period = 1;
+            long slow = start, fast = m.step(start);
+            while (slow != fast) {
+                if (power == period) {
+                    slow = fast;
+                    power *= 2;
+                    period = 0;
+                }
+                fast = m.step(fast);
+                period += 1;
+            }
+            slow = start;
+            fast = start;
+            for (long i = 0; i < period; i += 1) {
+                fast = m.step(fast);
+            }
+            long tail = 0;
+            while (slow != fast) {
+                slow = m.step(slow);
+                fast = m.step(fast);
+                tail += 1;
+            }
+            long visited = tail + period;
+            if (visited / STRIDE >= Integer.MAX_VALUE) {
+                throw error("stepping period too long to index");
+            }
+            _tail = tail;
+            _period = period;
+            _stops = new long[(int) ((visited - 1) / STRIDE + 1)];
+            long state = start;
+            for (long i = 0; i < visited; i += 1) {
+                if (i % STRIDE == 0) {
+                    _stops[(int) (i / STRIDE)] = state;
+                }
+                state = m.step(state);
+            }
+        }
+
+        /** Keypresses before the orbit enters its cycle. */
+        private final long _tail;
+        /** Length of the cycle. */
+        private final long _period;
+        /** The state after each multiple of STRIDE keypresses, over
+         *  the tail and one period. */
+        private final long[] _stops;
+    }
+
+    /** The mapped file. */
+    private final ByteBuffer _buf;
+    /** Machine that decrypts. */
+    private final Machine _machine;
+    /** Bits a character. */
+    private final int _bits;
+    /** Number of messages. */
+    private final int _count;
+    /** Each distinct setting. */
+    private final Settings[] _settings;
+    /** The orbit of the initial state of each setting, or null if not
+     *  yet needed. */
+    private final Orbit[] _orbits;
+    /** Position of the index. */
+    private final int _index;
+}
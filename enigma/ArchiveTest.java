@@ -0,0 +1,118 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Scanner;
+
+import static enigma.TestUtils.*;
+
+/** Tests of Archive.
+ *  @author Andrew Kaplan
+ */
+public class ArchiveTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    @Test
+    public void roundTripTest() throws IOException {
+        Random random = new Random(44);
+        StringBuilder input = new StringBuilder();
+        String[] headers = {
+            "* B Beta I II III AAAA", "* C Gamma IV V VI QRST BCDE (AB)(XY)",
+            "* B Beta I II III AXLE (TD)"
+        };
+        String[] plain = new String[30];
+        for (int k = 0; k < plain.length; k += 1) {
+            StringBuilder message = new StringBuilder();
+            message.append(headers[k % headers.length]).append('\n');
+            for (int line = random.nextInt(4); line >= 0; line -= 1) {
+                for (int i = random.nextInt(40); i >= 0; i -= 1) {
+                    message.append((char) ('A' + random.nextInt(26)));
+                    if (i % 5 == 0) {
+                        message.append(' ');
+                    }
+                }
+                message.append('\n');
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new Main(defaultMachine(), new Scanner(message.toString()),
+                     new PrintStream(out)).processMessages();
+            plain[k] = out.toString().replaceAll("\\s", "");
+            input.append(message);
+        }
+        Path file = Files.createTempFile("archive", ".ear");
+        try {
+            Archive.write(file, defaultMachine(), new Scanner(input.toString()));
+            Archive archive = Archive.open(file, defaultMachine());
+            assertEquals(plain.length, archive.size());
+            for (int k = archive.size() - 1; k >= 0; k -= 1) {
+                String text = plain[k];
+                assertEquals(headers[k % headers.length],
+                             archive.settings(k).toString());
+                assertEquals(text.length(), archive.length(k));
+                assertEquals(text, archive.decrypt(k));
+                int from = text.length() / 3, to = 2 * text.length() / 3;
+                assertEquals(text.substring(from, to),
+                             archive.decrypt(k, from, to));
+            }
+            assertTrue(Files.size(file) < input.length());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void jumpAheadTest() throws IOException {
+        Random random = new Random(45);
+        StringBuilder message = new StringBuilder("* B Beta I II III AXLE\n");
+        for (int line = 0; line < 500; line += 1) {
+            for (int i = 0; i < 100; i += 1) {
+                message.append((char) ('A' + random.nextInt(26)));
+            }
+            message.append('\n');
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Main(defaultMachine(), new Scanner(message.toString()),
+                 new PrintStream(out)).processMessages();
+        String plain = out.toString().replaceAll("\\s", "");
+        Path file = Files.createTempFile("archive", ".ear");
+        try {
+            Archive.write(file, defaultMachine(),
+                          new Scanner(message.toString()));
+            Archive archive = Archive.open(file, defaultMachine());
+            int[] starts = {
+                0, 1, Archive.STRIDE - 1, Archive.STRIDE, 17000, 33850,
+                plain.length() - 7, 3 * Archive.STRIDE + 5
+            };
+            for (int from : starts) {
+                int to = Math.min(plain.length(), from + 50);
+                assertEquals(plain.substring(from, to),
+                             archive.decrypt(0, from, to));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void badCharacterTest() throws IOException {
+        Path file = Files.createTempFile("archive", ".ear");
+        try {
+            Archive.write(file, defaultMachine(),
+                          new Scanner("* B Beta I II III AAAA\nAB1\n"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
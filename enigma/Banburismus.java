@@ -0,0 +1,296 @@
+package enigma;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import java.nio.ByteOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** Banburismus-style scoring of pairs of messages sent on one daily
+ *  key.  Two messages whose keystreams overlap, slid against each
+ *  other by the right offset, repeat letters at aligned positions at
+ *  the plaintext's coincidence rate KAPPA rather than the random rate
+ *  1/n.  Each pair is scored at every offset up to a bound by the
+ *  log-odds of its repeats, in decibans (tenths of a power of ten).
+ *
+ *  Messages are held as byte arrays of alphabet indices and compared
+ *  eight positions at a time: the exclusive or of two longs read at
+ *  any byte offset has a zero byte exactly where the messages repeat,
+ *  and the zero bytes are counted with a carry-free mask and
+ *  Long.bitCount.  Pairs are cut into square blocks of messages, which
+ *  a fork-join pool scores in parallel, each task keeping only its best
+ *  alignments in a TopK.
+ *
+ *  The best alignments can then rank wheel orders (see orders()): an
+ *  alignment of two messages at offset D is consistent with a wheel
+ *  order exactly when, with that order, the second message's start
+ *  position is D keypresses after the first's.
+ *  @author Andrew Kaplan
+ */
+class Banburismus {
+
+    /** Default coincidence rate of plaintext letters. */
+    static final double KAPPA = 0.066;
+
+    /** Default fewest aligned letters scored. */
+    static final int MIN_OVERLAP = 20;
+
+    /** Messages in a block of pairs scored by one task. */
+    static final int BLOCK = 32;
+
+    /** An alignment of two messages. */
+    static final class Alignment {
+
+        /** Messages FIRST < SECOND aligned so that character I of SECOND
+         *  lies under character I + OFFSET of FIRST, with REPEATS equal
+         *  letters in OVERLAP aligned positions, for SCORE decibans. */
+        Alignment(int first, int second, int offset, int repeats,
+                  int overlap, double score) {
+            this.first = first;
+            this.second = second;
+            this.offset = offset;
+            this.repeats = repeats;
+            this.overlap = overlap;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d %d %d %d/%d %.1f", first, second,
+                                 offset, repeats, overlap, score);
+        }
+
+        /** The earlier message. */
+        final int first;
+        /** The later message. */
+        final int second;
+        /** Position in FIRST of SECOND's first character. */
+        final int offset;
+        /** Number of repeated letters. */
+        final int repeats;
+        /** Number of aligned positions. */
+        final int overlap;
+        /** Log-odds that the messages overlap so, in decibans. */
+        final double score;
+    }
+
+    /** A scorer of MESSAGES, strings of characters of ALPHA, at offsets
+     *  up to MAXOFFSET either way, with coincidence rate KAPPA for
+     *  messages in depth, that keeps the K best alignments. */
+    Banburismus(Alphabet alpha, List<String> messages, int maxOffset,
+                double kappa, int k) {
+        if (alpha.size() > 256) {
+            throw error("alphabet too large to score");
+        } else if (messages.size() >= 1 << 20 || maxOffset >= 1 << 19) {
+            throw error("too many messages or offsets to score");
+        }
+        _messages = new byte[messages.size()][];
+        for (int i = 0; i < _messages.length; i += 1) {
+            String msg = messages.get(i);
+            byte[] bytes = new byte[msg.length()];
+            for (int j = 0; j < msg.length(); j += 1) {
+                bytes[j] = (byte) alpha.toInt(msg.charAt(j));
+            }
+            _messages[i] = bytes;
+        }
+        _maxOffset = maxOffset;
+        _k = k;
+        double random = 1.0 / alpha.size();
+        _hit = 10 * Math.log10(kappa / random);
+        _miss = 10 * Math.log10((1 - kappa) / (1 - random));
+    }
+
+    /** A scorer with the default coincidence rate. */
+    Banburismus(Alphabet alpha, List<String> messages, int maxOffset,
+                int k) {
+        this(alpha, messages, maxOffset, KAPPA, k);
+    }
+
+    /** Return the best alignments over all pairs and offsets, best
+     *  first, scored on POOL. */
+    List<Alignment> run(ForkJoinPool pool) {
+        int blocks = (_messages.length + BLOCK - 1) / BLOCK;
+        TopK top = pool.invoke(new Blocks(0, blocks * (blocks + 1) / 2,
+                                          blocks));
+        ArrayList<Alignment> result = new ArrayList<>();
+        for (int i : top.ranking()) {
+            long key = top.key(i);
+            int a = (int) (key >>> 40), b = (int) (key >>> 20) & 0xfffff;
+            int offset = (int) (key & 0xfffff) - (1 << 19);
+            int overlap = overlap(a, b, offset);
+            result.add(new Alignment(a, b, offset,
+                                     repeats(a, b, offset, overlap),
+                                     overlap, top.score(i)));
+        }
+        return result;
+    }
+
+    /** Return the best alignments, best first, scored on the common
+     *  pool. */
+    List<Alignment> run() {
+        return run(ForkJoinPool.commonPool());
+    }
+
+    /** Return the number of letters that repeat when character I of
+     *  message B lies under character I + OFFSET of message A. */
+    int repeats(int a, int b, int offset) {
+        return repeats(a, b, offset, overlap(a, b, offset));
+    }
+
+    /** Return the K wheel orders of KEYS, which must describe
+     *  TEMPLATE's rotors, most consistent with ALIGNMENTS, as keys of
+     *  KEYS with the orders' first positions and plugboards.  STARTS[I]
+     *  is the rotor setting (as for Machine.setRotors) at which message
+     *  I began.  An order scores the total score of the alignments it
+     *  is consistent with. */
+    static TopK orders(KeySpace keys, Machine template, String[] starts,
+                       List<Alignment> alignments, int k) {
+        long perOrder = keys.size() / keys.orders();
+        TopK result = new TopK(k);
+        Machine m = template.copy();
+        long[] states = new long[starts.length];
+        for (long order = 0; order < keys.orders(); order += 1) {
+            long key = order * perOrder;
+            keys.apply(key, m);
+            for (int i = 0; i < starts.length; i += 1) {
+                m.setRotors(starts[i]);
+                states[i] = m.snapshot();
+            }
+            double score = 0;
+            for (Alignment al : alignments) {
+                long from = states[al.first], to = states[al.second];
+                int steps = al.offset;
+                if (steps < 0) {
+                    from = to;
+                    to = states[al.first];
+                    steps = -steps;
+                }
+                for (int s = 0; s < steps; s += 1) {
+                    from = m.step(from);
+                }
+                if (from == to) {
+                    score += al.score;
+                }
+            }
+            result.offer(key, score);
+        }
+        return result;
+    }
+
+    /** The task scoring block pairs LO .. HI-1 of the BLOCKS * (BLOCKS +
+     *  1) / 2 pairs of blocks (I, J), I <= J, numbered row by row. */
+    private final class Blocks extends RecursiveTask<TopK> {
+
+        /** A task for block pairs LO .. HI-1 of BLOCKS blocks. */
+        Blocks(int lo, int hi, int blocks) {
+            _lo = lo;
+            _hi = hi;
+            _blocks = blocks;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                Blocks left = new Blocks(_lo, mid, _blocks);
+                left.fork();
+                TopK top = new Blocks(mid, _hi, _blocks).compute();
+                top.addAll(left.join());
+                return top;
+            }
+            TopK top = new TopK(_k);
+            if (_lo == _hi) {
+                return top;
+            }
+            int i = 0, row = _lo;
+            while (row >= _blocks - i) {
+                row -= _blocks - i;
+                i += 1;
+            }
+            int j = i + row;
+            int aEnd = Math.min(_messages.length, (i + 1) * BLOCK);
+            int bEnd = Math.min(_messages.length, (j + 1) * BLOCK);
+            for (int a = i * BLOCK; a < aEnd; a += 1) {
+                for (int b = Math.max(a + 1, j * BLOCK); b < bEnd; b += 1) {
+                    score(a, b, top);
+                }
+            }
+            return top;
+        }
+
+        /** First block pair. */
+        private final int _lo;
+        /** Block pair after the last. */
+        private final int _hi;
+        /** Number of blocks of messages. */
+        private final int _blocks;
+    }
+
+    /** Offer every alignment of messages A < B to TOP. */
+    private void score(int a, int b, TopK top) {
+        for (int offset = -_maxOffset; offset <= _maxOffset; offset += 1) {
+            int overlap = overlap(a, b, offset);
+            if (overlap < MIN_OVERLAP) {
+                continue;
+            }
+            int repeats = repeats(a, b, offset, overlap);
+            double score = repeats * _hit + (overlap - repeats) * _miss;
+            if (score > top.threshold()) {
+                top.offer((long) a << 40 | (long) b << 20
+                          | (offset + (1 << 19)), score);
+            }
+        }
+    }
+
+    /** Return the number of aligned positions when character I of
+     *  message B lies under character I + OFFSET of message A. */
+    private int overlap(int a, int b, int offset) {
+        int lenA = _messages[a].length, lenB = _messages[b].length;
+        return Math.max(0, Math.min(lenA, lenB + offset)
+                        - Math.max(0, offset));
+    }
+
+    /** Return the number of repeats in the OVERLAP aligned positions
+     *  of messages A and B at OFFSET. */
+    private int repeats(int a, int b, int offset, int overlap) {
+        byte[] x = _messages[a], y = _messages[b];
+        int i = Math.max(0, offset), j = i - offset;
+        int count = 0, n = 0;
+        for (; n + 8 <= overlap; n += 8) {
+            long diff = (long) LONGS.get(x, i + n)
+                ^ (long) LONGS.get(y, j + n);
+            long t = (diff & LOW7) + LOW7;
+            count += Long.bitCount(~(t | diff | LOW7));
+        }
+        for (; n < overlap; n += 1) {
+            if (x[i + n] == y[j + n]) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Reads a long from a byte array at any offset. */
+    private static final VarHandle LONGS =
+        MethodHandles.byteArrayViewVarHandle(long[].class,
+                                             ByteOrder.LITTLE_ENDIAN);
+    /** The low seven bits of every byte. */
+    private static final long LOW7 = 0x7f7f7f7f7f7f7f7fL;
+
+    /** Messages as alphabet indices. */
+    private final byte[][] _messages;
+    /** Largest offset tried either way. */
+    private final int _maxOffset;
+    /** Number of alignments kept. */
+    private final int _k;
+    /** Score of a repeat, in decibans. */
+    private final double _hit;
+    /** Score of an aligned position that does not repeat. */
+    private final double _miss;
+}
@@ -0,0 +1,115 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** Tests of Banburismus.
+ *  @author Andrew Kaplan
+ */
+public class BanburismusTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Words of the plaintexts. */
+    private static final String[] WORDS = {
+        "WETTER", "BERICHT", "KEINE", "BESONDEREN", "EREIGNISSE", "NORD",
+        "OST", "STOP", "FEIND", "IN", "SICHT", "DER", "DIE", "UND"
+    };
+
+    /** Return N letters of plaintext. */
+    private String plaintext(Random random, int n) {
+        StringBuilder result = new StringBuilder();
+        while (result.length() < n) {
+            result.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return result.substring(0, n);
+    }
+
+    @Test
+    public void depthFoundTest() throws IOException {
+        Machine m = defaultMachine();
+        Random random = new Random(46);
+        String[] starts = {"AAAA", "AAAK", "AQRS", "AFUZ", "ALMN", "AWXB"};
+        List<String> messages = new ArrayList<>();
+        for (String start : starts) {
+            Main.setUp(m, "* B Beta I II III " + start + " (AZ)");
+            messages.add(m.convert(plaintext(random, 300)));
+        }
+        Banburismus scorer = new Banburismus(m.alphabet(), messages, 60, 5);
+        List<Banburismus.Alignment> best = scorer.run();
+        assertEquals(5, best.size());
+        Banburismus.Alignment top = best.get(0);
+        assertEquals(0, top.first);
+        assertEquals(1, top.second);
+        assertEquals(10, top.offset);
+        assertEquals(290, top.overlap);
+        assertEquals(scorer.repeats(0, 1, 10), top.repeats);
+        assertTrue(top.score > best.get(1).score);
+
+        KeySpace keys = KeySpace.parse(m, "reflector=B exclude=Gamma,IV,V,"
+                                       + "VI,VII,VIII fix=1:A");
+        TopK orders = Banburismus.orders(keys, m, starts, best.subList(0, 1),
+                                         6);
+        for (int i = 0; i < orders.size(); i += 1) {
+            String order = keys.describe(orders.key(i));
+            boolean crossesNotch = order.startsWith("B Beta I III II")
+                || order.startsWith("B Beta III I II");
+            assertEquals(crossesNotch ? 0 : top.score, orders.score(i),
+                         1e-9);
+        }
+    }
+
+    @Test
+    public void repeatsTest() {
+        List<String> messages = new ArrayList<>();
+        messages.add("ABCDEFGHIJKLMNOPQRSTUVWXYZABCDEFGH");
+        messages.add("XXCDEFGHIJKLMNOPQRSTUVWXYZABCDEFGHXX");
+        Banburismus scorer = new Banburismus(new Alphabet(), messages, 5, 1);
+        assertEquals(32, scorer.repeats(0, 1, 0));
+        assertEquals(0, scorer.repeats(0, 1, 1));
+        assertEquals(6, scorer.repeats(0, 1, 26));
+    }
+
+    @Test
+    public void repeatsRandomTest() {
+        Random random = new Random(47);
+        Alphabet alpha = new Alphabet();
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 6; i += 1) {
+            StringBuilder msg = new StringBuilder();
+            int len = 1 + random.nextInt(60);
+            for (int j = 0; j < len; j += 1) {
+                msg.append(alpha.toChar(random.nextInt(4)));
+            }
+            messages.add(msg.toString());
+        }
+        Banburismus scorer = new Banburismus(alpha, messages, 70, 1);
+        for (int a = 0; a < 6; a += 1) {
+            for (int b = 0; b < 6; b += 1) {
+                String x = messages.get(a), y = messages.get(b);
+                for (int offset = -70; offset <= 70; offset += 1) {
+                    int expected = 0;
+                    for (int i = 0; i < y.length(); i += 1) {
+                        int k = i + offset;
+                        if (k >= 0 && k < x.length()
+                            && x.charAt(k) == y.charAt(i)) {
+                            expected += 1;
+                        }
+                    }
+                    assertEquals(expected, scorer.repeats(a, b, offset));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static enigma.EnigmaException.*;
+
+/** Driver that runs many input files through a single configuration.
+ *  The configuration is parsed once.  Files are converted concurrently
+ *  on a work-stealing pool, each worker thread using its own copy of the
+ *  machine (the copies share the parsed rotor permutations), so at most
+ *  one input file per thread is open at a time.  Every output is
+ *  written to a temporary file and then moved into place, so a reader
+ *  never sees a partially written F.out.  Inputs must have distinct
+ *  names, since F.in is always converted to OUTDIR/F.out.
+ *  @author Andrew Kaplan
+ */
+final class Batch {
+
+    /** A batch converting with copies of TEMPLATE on THREADS worker
+     *  threads. */
+    Batch(Machine template, int threads) {
+        if (threads < 1) {
+            throw error("Batch needs at least one thread");
+        }
+        _template = template;
+        _threads = threads;
+        _machines = ThreadLocal.withInitial(_template::copy);
+    }
+
+    /** Run ARGS, which are CONFIG SOURCE OUTDIR [THREADS].  CONFIG names
+     *  a configuration file, SOURCE is either a directory (every F.in in
+     *  it is converted) or a manifest listing one input file per line,
+     *  and OUTDIR receives F.out for each input.  A summary with timings
+     *  goes to the standard output.  Return true iff every file
+     *  converted without error. */
+    static boolean main(String... args) {
+        if (args.length < 3 || args.length > 4) {
+            throw error("Usage: --batch CONFIG SOURCE OUTDIR [THREADS]");
+        }
+        Machine template;
+        try {
+            template = Main.readConfig(new Scanner(new File(args[0])));
+        } catch (IOException excp) {
+            throw error("could not open %s", args[0]);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length == 4) {
+            try {
+                threads = Integer.parseInt(args[3]);
+            } catch (NumberFormatException excp) {
+                throw error("bad thread count: %s", args[3]);
+            }
+        }
+        Path outDir = Paths.get(args[2]);
+        try {
+            Files.createDirectories(outDir);
+        } catch (IOException excp) {
+            throw error("could not create %s", outDir);
+        }
+        Batch batch = new Batch(template, threads);
+        List<Result> results = batch.run(inputs(Paths.get(args[1])), outDir);
+        return summarize(results, System.out);
+    }
+
+    /** Return the input files named by SOURCE: the F.in files of SOURCE
+     *  in name order if it is a directory, and otherwise the non-blank
+     *  lines of SOURCE, resolved against its directory. */
+    static List<Path> inputs(Path source) {
+        ArrayList<Path> result = new ArrayList<>();
+        try {
+            if (Files.isDirectory(source)) {
+                try (DirectoryStream<Path> dir =
+                         Files.newDirectoryStream(source, "*.in")) {
+                    for (Path p : dir) {
+                        result.add(p);
+                    }
+                }
+                result.sort(null);
+            } else {
+                Path base = source.toAbsolutePath().getParent();
+                for (String line : Files.readAllLines(source)) {
+                    if (!line.trim().isEmpty()) {
+                        result.add(base.resolve(line.trim()));
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", source);
+        }
+        return result;
+    }
+
+    /** Convert each of INPUTS, writing F.out into OUTDIR for each F.in.
+     *  Return one Result per input, in the order of INPUTS.  Two inputs
+     *  with the same output name are an error, found before any is
+     *  converted. */
+    List<Result> run(List<Path> inputs, Path outDir) {
+        HashSet<String> names = new HashSet<>();
+        for (Path in : inputs) {
+            if (!names.add(outputName(in))) {
+                throw error("two inputs would both write %s.out",
+                            outputName(in));
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(_threads);
+        try {
+            ArrayList<ForkJoinTask<Result>> tasks = new ArrayList<>();
+            for (Path in : inputs) {
+                tasks.add(pool.submit(() -> convert(in, outDir)));
+            }
+            ArrayList<Result> results = new ArrayList<>();
+            for (ForkJoinTask<Result> task : tasks) {
+                results.add(task.join());
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Convert IN into OUTDIR on this thread's machine and return the
+     *  outcome. */
+    private Result convert(Path in, Path outDir) {
+        String name = outputName(in);
+        Path target = outDir.resolve(name + ".out");
+        long start = System.nanoTime();
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(outDir, name, ".tmp");
+            try (Scanner input = new Scanner(in.toFile());
+                 PrintStream output = new PrintStream(
+                     new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                new Main(_machines.get(), input, output).processMessages();
+                if (output.checkError()) {
+                    throw new IOException("write failed");
+                }
+            }
+            Files.move(tmp, target, ATOMIC_MOVE, REPLACE_EXISTING);
+            return new Result(in, target, Files.size(in),
+                              System.nanoTime() - start, null);
+        } catch (IOException | EnigmaException excp) {
+            deleteQuietly(tmp);
+            return new Result(in, target, 0, System.nanoTime() - start,
+                              String.valueOf(excp.getMessage()));
+        }
+    }
+
+    /** Return the name of the output of IN, which is F for F.in and
+     *  otherwise IN's file name. */
+    private static String outputName(Path in) {
+        String name = in.getFileName().toString();
+        if (name.endsWith(".in")) {
+            name = name.substring(0, name.length() - ".in".length());
+        }
+        return name;
+    }
+
+    /** Delete FILE if it is non-null and exists, ignoring failures. */
+    private static void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException excp) {
+                /* Nothing more to do with a stray temporary. */
+            }
+        }
+    }
+
+    /** Print one line per element of RESULTS followed by totals on OUT.
+     *  Return true iff no result has an error. */
+    static boolean summarize(List<Result> results, PrintStream out) {
+        boolean ok = true;
+        long bytes = 0, nanos = 0;
+        for (Result r : results) {
+            if (r.error() == null) {
+                out.printf("%-32s OK    %10d bytes %10.3f ms%n",
+                           r.input().getFileName(), r.bytes(),
+                           r.nanos() / 1e6);
+            } else {
+                ok = false;
+                out.printf("%-32s ERROR %s%n",
+                           r.input().getFileName(), r.error());
+            }
+            bytes += r.bytes();
+            nanos += r.nanos();
+        }
+        out.printf("%d files, %d bytes, %.3f ms total worker time%n",
+                   results.size(), bytes, nanos / 1e6);
+        out.flush();
+        return ok;
+    }
+
+    /** The outcome of converting one input file. */
+    static final class Result {
+
+        /** The outcome of converting INPUT to OUTPUT: BYTES bytes of input
+         *  in NANOS nanoseconds, with message ERROR on failure (else
+         *  null). */
+        Result(Path input, Path output, long bytes, long nanos,
+               String error) {
+            _input = input;
+            _output = output;
+            _bytes = bytes;
+            _nanos = nanos;
+            _error = error;
+        }
+
+        /** Return the input file. */
+        Path input() {
+            return _input;
+        }
+
+        /** Return the output file (which exists only on success). */
+        Path output() {
+            return _output;
+        }
+
+        /** Return the size of the input in bytes. */
+        long bytes() {
+            return _bytes;
+        }
+
+        /** Return the wall-clock time spent on this file. */
+        long nanos() {
+            return _nanos;
+        }
+
+        /** Return the error message, or null if the file converted. */
+        String error() {
+            return _error;
+        }
+
+        /** Input file. */
+        private final Path _input;
+        /** Output file. */
+        private final Path _output;
+        /** Input size in bytes. */
+        private final long _bytes;
+        /** Elapsed nanoseconds. */
+        private final long _nanos;
+        /** Error message or null. */
+        private final String _error;
+    }
+
+    /** Machine whose copies do the work. */
+    private final Machine _template;
+
+    /** Number of worker threads. */
+    private final int _threads;
+
+    /** Each worker thread's private machine. */
+    private final ThreadLocal<Machine> _machines;
+}
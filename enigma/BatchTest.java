@@ -0,0 +1,102 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static enigma.TestUtils.*;
+
+/** Tests of Batch.
+ *  @author Andrew Kaplan
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Delete DIR and everything in it. */
+    private void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files
+                     .sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Test
+    public void convertTest() throws IOException {
+        Path dir = Files.createTempDirectory("batch");
+        try {
+            Path src = Files.createDirectory(dir.resolve("src"));
+            Path out = dir.resolve("out");
+            Files.createDirectory(out);
+            Files.copy(testing("correct/trivial.in"), src.resolve("a.in"));
+            Files.copy(testing("correct/trivial1.in"), src.resolve("b.in"));
+            Files.copy(testing("error/trivialerr.in"), src.resolve("c.in"));
+            List<Path> inputs = Batch.inputs(src);
+            assertEquals(3, inputs.size());
+            List<Batch.Result> results =
+                new Batch(defaultMachine(), 2).run(inputs, out);
+            assertNull(results.get(0).error());
+            assertNull(results.get(1).error());
+            assertNotNull(results.get(2).error());
+            assertEquals(Files.readAllLines(testing("correct/trivial.out")),
+                         Files.readAllLines(out.resolve("a.out")));
+            assertEquals(Files.readAllLines(testing("correct/trivial1.out")),
+                         Files.readAllLines(out.resolve("b.out")));
+            assertFalse(Files.exists(out.resolve("c.out")));
+            try (Stream<Path> left = Files.list(out)) {
+                assertEquals(2, left.count());
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PrintStream summary = new PrintStream(bytes, true,
+                                                  StandardCharsets.UTF_8);
+            assertFalse(Batch.summarize(results, summary));
+            String text = bytes.toString(StandardCharsets.UTF_8);
+            assertTrue(text.contains("c.in"));
+            assertTrue(text.contains("ERROR"));
+            assertTrue(Batch.summarize(results.subList(0, 2), summary));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    public void duplicateNamesTest() throws IOException {
+        Path dir = Files.createTempDirectory("batch");
+        try {
+            Path one = Files.createDirectory(dir.resolve("one"));
+            Path two = Files.createDirectory(dir.resolve("two"));
+            Files.copy(testing("correct/trivial.in"), one.resolve("a.in"));
+            Files.copy(testing("correct/trivial1.in"), two.resolve("a.in"));
+            Path manifest = dir.resolve("manifest");
+            Files.write(manifest, Arrays.asList("one/a.in", "two/a.in"));
+            Path out = Files.createDirectory(dir.resolve("out"));
+            try {
+                new Batch(defaultMachine(), 2).run(Batch.inputs(manifest),
+                                                   out);
+                fail("duplicate output names accepted");
+            } catch (EnigmaException excp) {
+                try (Stream<Path> left = Files.list(out)) {
+                    assertEquals(0, left.count());
+                }
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+}
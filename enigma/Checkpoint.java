@@ -0,0 +1,292 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.BitSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** A durable, memory-mapped record of a key search's progress: a bitmap
+ *  of the key-space partitions already searched and a table of the top
+ *  K candidate keys and scores found so far.  A search restarted on the
+ *  same file skips the finished partitions and keeps the candidates.
+ *
+ *  Workers never touch the file.  complete() only queues the finished
+ *  partition and its candidates; a single writer thread merges them in
+ *  memory and, at most every SYNC_MILLIS milliseconds, writes them out.
+ *  The file holds two copies of the top-K table, and a header word
+ *  says which is current.  A sync writes the merged table over the
+ *  other copy, forces it to disk, flips the header word and forces it,
+ *  and only then sets the bitmap bits of the partitions merged, so a
+ *  bit on disk always has its candidates in the current table.  A
+ *  crash part way through a sync leaves the previous table current and
+ *  loses at most the last few partitions, which are simply searched
+ *  again.  Bitmap bits are only ever set, never cleared.
+ *
+ *  A failure on the writer thread stops it and is thrown again by
+ *  close().
+ *
+ *  File layout (big-endian): int MAGIC, int K, long partitions, long
+ *  key-space size, int current table (0 or 1), an unused int, the
+ *  bitmap as ceil(partitions / 64) longs, and two tables of K (long
+ *  key, double score) slots, unused slots having key -1.
+ *  @author Andrew Kaplan
+ */
+class Checkpoint implements AutoCloseable {
+
+    /** First int of a checkpoint file ("ECK2"). */
+    static final int MAGIC = 0x45434b32;
+
+    /** Longest interval between forces of the mapping to disk. */
+    static final long SYNC_MILLIS = 1000;
+
+    /** Offset of the number of the current table. */
+    static final int CURRENT = 24;
+
+    /** Size in bytes of the header. */
+    static final int HEADER = 32;
+
+    /** Open or create the checkpoint FILE for a search of a key space of
+     *  KEYS keys divided into PARTITIONS partitions, keeping the top K
+     *  candidates.  An existing file must describe the same search. */
+    Checkpoint(Path file, long keys, long partitions, int k) {
+        if (partitions < 1 || partitions > Integer.MAX_VALUE || k < 1) {
+            throw error("bad checkpoint dimensions");
+        }
+        _partitions = partitions;
+        _top = new TopK(k);
+        _done = new BitSet();
+        _bitmapWords = (int) ((partitions + 63) / 64);
+        _tableStart = HEADER + 8L * _bitmapWords;
+        long length = _tableStart + 2 * 16L * k;
+        try (FileChannel channel = FileChannel.open(file,
+                 StandardOpenOption.CREATE, StandardOpenOption.READ,
+                 StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining()
+                   && channel.read(header, header.position()) > 0) {
+                continue;
+            }
+            int magic = header.getInt(0);
+            if (magic != 0 && (magic != MAGIC || header.getInt(4) != k
+                               || header.getLong(8) != partitions
+                               || header.getLong(16) != keys
+                               || channel.size() < length)) {
+                throw error("checkpoint %s is for a different search", file);
+            }
+            _map = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } catch (IOException excp) {
+            throw error("could not open checkpoint %s", file);
+        }
+        _map.order(ByteOrder.BIG_ENDIAN);
+        if (_map.getInt(0) == 0) {
+            for (int i = 0; i < k; i += 1) {
+                _map.putLong(slot(0, i), -1L);
+            }
+            _map.putInt(CURRENT, 0);
+            _map.force();
+            _map.putInt(0, MAGIC).putInt(4, k).putLong(8, partitions)
+                .putLong(16, keys);
+            _map.force();
+        } else {
+            for (int w = 0; w < _bitmapWords; w += 1) {
+                long word = _map.getLong(HEADER + 8 * w);
+                for (int b = 0; b < 64; b += 1) {
+                    if ((word & (1L << b)) != 0) {
+                        _done.set(w * 64 + b);
+                    }
+                }
+            }
+            _current = _map.getInt(CURRENT) & 1;
+            for (int i = 0; i < k; i += 1) {
+                long key = _map.getLong(slot(_current, i));
+                if (key >= 0) {
+                    _top.offer(key, _map.getDouble(slot(_current, i) + 8));
+                }
+            }
+        }
+        _writer = new Thread(this::write, "checkpoint-writer");
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    /** Return the number of partitions. */
+    long partitions() {
+        return _partitions;
+    }
+
+    /** Return true iff PARTITION is recorded as searched. */
+    boolean done(long partition) {
+        synchronized (_done) {
+            return _done.get((int) partition);
+        }
+    }
+
+    /** Return the number of partitions recorded as searched. */
+    long completed() {
+        synchronized (_done) {
+            return _done.cardinality();
+        }
+    }
+
+    /** Record that PARTITION has been searched, yielding the candidates
+     *  in FOUND, which is copied.  Never blocks. */
+    void complete(long partition, TopK found) {
+        TopK copy = new TopK(found.capacity());
+        copy.addAll(found);
+        _queue.offer(new Update(partition, copy));
+    }
+
+    /** Return a copy of the best candidates recorded so far. */
+    TopK top() {
+        synchronized (_top) {
+            TopK copy = new TopK(_top.capacity());
+            copy.addAll(_top);
+            return copy;
+        }
+    }
+
+    /** Write all queued updates, force them to disk and stop the
+     *  writer.  If the writer failed, throw what it threw instead. */
+    @Override
+    public void close() {
+        _closing = true;
+        try {
+            _writer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        if (_failure instanceof Error) {
+            throw (Error) _failure;
+        } else if (_failure != null) {
+            throw (RuntimeException) _failure;
+        }
+        _map.force();
+    }
+
+    /** Body of the writer thread. */
+    private void write() {
+        try {
+            long lastSync = System.currentTimeMillis();
+            while (!_closing || !_queue.isEmpty()) {
+                Update u;
+                try {
+                    u = _queue.poll(SYNC_MILLIS / 4, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException excp) {
+                    break;
+                }
+                if (u != null) {
+                    apply(u);
+                }
+                long now = System.currentTimeMillis();
+                if (!_unsynced.isEmpty() && now - lastSync >= SYNC_MILLIS) {
+                    sync();
+                    lastSync = now;
+                }
+            }
+            sync();
+        } catch (RuntimeException | Error excp) {
+            _failure = excp;
+        }
+    }
+
+    /** Merge U into the in-memory table and bitmap. */
+    private void apply(Update u) {
+        synchronized (_top) {
+            for (int i = 0; i < u._found.size(); i += 1) {
+                _changed |= _top.offer(u._found.key(i), u._found.score(i));
+            }
+        }
+        synchronized (_done) {
+            _done.set((int) u._partition);
+        }
+        _unsynced.set((int) u._partition);
+    }
+
+    /** Write the merged table and then the bits of the partitions
+     *  merged since the last sync to the mapping, as described
+     *  above.  The bits reach the disk at the next force. */
+    private void sync() {
+        if (_changed) {
+            int next = 1 - _current;
+            synchronized (_top) {
+                for (int i = 0; i < _top.capacity(); i += 1) {
+                    boolean used = i < _top.size();
+                    _map.putLong(slot(next, i), used ? _top.key(i) : -1L);
+                    _map.putDouble(slot(next, i) + 8,
+                                   used ? _top.score(i) : 0.0);
+                }
+            }
+            _map.force();
+            _map.putInt(CURRENT, next);
+            _map.force();
+            _current = next;
+            _changed = false;
+        }
+        for (int p = _unsynced.nextSetBit(0); p >= 0;
+             p = _unsynced.nextSetBit(p + 1)) {
+            int w = p / 64;
+            long word = _map.getLong(HEADER + 8 * w);
+            _map.putLong(HEADER + 8 * w, word | (1L << (p % 64)));
+        }
+        _unsynced.clear();
+    }
+
+    /** Return the offset of slot I of top-K table TABLE. */
+    private int slot(int table, int i) {
+        return (int) (_tableStart + 16L * (table * _top.capacity() + i));
+    }
+
+    /** A finished partition and its candidates. */
+    private static final class Update {
+        /** Update for PARTITION with candidates FOUND. */
+        Update(long partition, TopK found) {
+            _partition = partition;
+            _found = found;
+        }
+
+        /** Partition searched. */
+        private final long _partition;
+        /** Its candidates. */
+        private final TopK _found;
+    }
+
+    /** Number of partitions. */
+    private final long _partitions;
+    /** Number of longs in the bitmap. */
+    private final int _bitmapWords;
+    /** Offset of the top-K table. */
+    private final long _tableStart;
+    /** The mapped file. */
+    private final MappedByteBuffer _map;
+    /** In-memory copy of the bitmap. */
+    private final BitSet _done;
+    /** In-memory copy of the top-K table. */
+    private final TopK _top;
+    /** Updates not yet written. */
+    private final LinkedBlockingQueue<Update> _queue =
+        new LinkedBlockingQueue<>();
+    /** Thread applying updates. */
+    private final Thread _writer;
+    /** True once close() has been called. */
+    private volatile boolean _closing;
+    /** What stopped the writer, or null. */
+    private volatile Throwable _failure;
+    /** Number of the current top-K table in the file.  Writer only. */
+    private int _current;
+    /** True iff _top has changed since it was last written.  Writer
+     *  only. */
+    private boolean _changed;
+    /** Partitions merged but not yet written to the bitmap.  Writer
+     *  only. */
+    private final BitSet _unsynced = new BitSet();
+}
@@ -0,0 +1,271 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.BitSet;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** The coordinator of a key search spread over worker processes.  The
+ *  key space is cut into partitions (as by Search.partitionStart), which
+ *  are leased to workers one at a time over a line-based socket
+ *  protocol.  Each connection proceeds as follows (C: coordinator, W:
+ *  worker):
+ *
+ *      W: HELLO
+ *      C: SPACE <KeySpace.spec()>
+ *      C: TEXT <ciphertext>
+ *      C: TOP <K>
+ *      W: LEASE                        (repeatedly)
+ *      C: RANGE <partition> <lo> <hi>  or  WAIT <millis>  or  DONE
+ *      W: RESULT <partition> <n> <key> <score> ... (n pairs)
+ *
+ *  A lease not answered within the lease time is handed out again, and
+ *  a result for a partition that is already finished is ignored.
+ *  Results are recorded in a Checkpoint, so a restarted coordinator
+ *  resumes where it stopped.
+ *  @author Andrew Kaplan
+ */
+class Coordinator {
+
+    /** Default time a worker may hold a lease. */
+    static final long LEASE_MILLIS = 60_000;
+
+    /** A coordinator accepting workers on SERVER for the search of KEYS
+     *  for the K best decryptions of CIPHERTEXT, recording progress in
+     *  CHECKPOINT and re-issuing leases held longer than LEASEMILLIS. */
+    Coordinator(ServerSocket server, KeySpace keys, String ciphertext,
+                Checkpoint checkpoint, int k, long leaseMillis) {
+        _server = server;
+        _keys = keys;
+        _ciphertext = ciphertext;
+        _checkpoint = checkpoint;
+        _k = k;
+        _leaseMillis = leaseMillis;
+        _partitions = (int) checkpoint.partitions();
+        _deadlines = new long[_partitions];
+        _finished = new BitSet(_partitions);
+        for (int p = 0; p < _partitions; p += 1) {
+            if (checkpoint.done(p)) {
+                _finished.set(p);
+            }
+        }
+    }
+
+    /** Run ARGS, which are PORT CONFIG CIPHERTEXT CHECKPOINT PARTITIONS K
+     *  followed by optional KeySpace.parse items.  Print the best keys
+     *  when the search finishes.  Return true. */
+    static boolean main(String... args) {
+        if (args.length < 6) {
+            throw error("Usage: --coordinator PORT CONFIG CIPHERTEXT "
+                        + "CHECKPOINT PARTITIONS K [ITEM...]");
+        }
+        Machine m;
+        String text;
+        try {
+            m = Main.readConfig(new Scanner(new File(args[1])));
+            text = new String(Files.readAllBytes(Paths.get(args[2])),
+                              StandardCharsets.UTF_8).replaceAll("\\s", "");
+        } catch (IOException excp) {
+            throw error("could not open %s or %s", args[1], args[2]);
+        }
+        StringBuilder spec = new StringBuilder();
+        for (int i = 6; i < args.length; i += 1) {
+            spec.append(args[i]).append(' ');
+        }
+        KeySpace keys = KeySpace.parse(m, spec.toString());
+        int port, k;
+        long partitions;
+        try {
+            port = Integer.parseInt(args[0]);
+            partitions = Long.parseLong(args[4]);
+            k = Integer.parseInt(args[5]);
+        } catch (NumberFormatException excp) {
+            throw error("bad numeric argument");
+        }
+        Checkpoint checkpoint = new Checkpoint(Paths.get(args[3]),
+                                               keys.size(), partitions, k);
+        try (ServerSocket server = new ServerSocket(port)) {
+            TopK top = new Coordinator(server, keys, text, checkpoint, k,
+                                       LEASE_MILLIS).run();
+            report(top, keys, System.out);
+        } catch (IOException excp) {
+            throw error("could not listen on port %s", args[0]);
+        }
+        return true;
+    }
+
+    /** Print TOP, best first, on OUT as keys of KEYS. */
+    static void report(TopK top, KeySpace keys, PrintStream out) {
+        for (int i : top.ranking()) {
+            out.printf("%.4f %s (key %d)%n", top.score(i),
+                       keys.describe(top.key(i)), top.key(i));
+        }
+        out.flush();
+    }
+
+    /** Serve workers until every partition is finished, then close the
+     *  checkpoint and return the best keys. */
+    TopK run() {
+        while (!finished()) {
+            Socket socket;
+            try {
+                socket = _server.accept();
+            } catch (SocketException excp) {
+                break;
+            } catch (IOException excp) {
+                continue;
+            }
+            Thread t = new Thread(() -> serve(socket), "coordinator-conn");
+            t.setDaemon(true);
+            t.start();
+        }
+        _checkpoint.close();
+        return _checkpoint.top();
+    }
+
+    /** Return true iff every partition is finished. */
+    synchronized boolean finished() {
+        return _finished.cardinality() == _partitions;
+    }
+
+    /** Conduct the protocol with the worker on SOCKET. */
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 s.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(s.getOutputStream(), true,
+                                               StandardCharsets.UTF_8)) {
+            if (!"HELLO".equals(in.readLine())) {
+                return;
+            }
+            out.println("SPACE " + _keys.spec());
+            out.println("TEXT " + _ciphertext);
+            out.println("TOP " + _k);
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] words = line.split(" ");
+                if (words[0].equals("LEASE")) {
+                    out.println(lease());
+                } else if (words[0].equals("RESULT")) {
+                    if (!record(words)) {
+                        return;
+                    }
+                } else {
+                    return;
+                }
+            }
+        } catch (IOException | NumberFormatException excp) {
+            /* The worker went away; its lease will time out. */
+            return;
+        }
+    }
+
+    /** Return the reply to a LEASE request. */
+    private synchronized String lease() {
+        if (finished()) {
+            return "DONE";
+        }
+        long now = System.currentTimeMillis();
+        _fresh = _finished.nextClearBit(_fresh);
+        if (_fresh < _partitions) {
+            _fresh += 1;
+            return range(_fresh - 1, now);
+        }
+        for (int p = _finished.nextClearBit(0); p < _partitions;
+             p = _finished.nextClearBit(p + 1)) {
+            if (_deadlines[p] <= now) {
+                return range(p, now);
+            }
+        }
+        return "WAIT " + Math.max(1, _leaseMillis / 10);
+    }
+
+    /** Lease partition P at time NOW and return the RANGE reply. */
+    private String range(int p, long now) {
+        _deadlines[p] = now + _leaseMillis;
+        long size = _keys.size();
+        return String.format("RANGE %d %d %d", p,
+                             Search.partitionStart(size, p, _partitions),
+                             Search.partitionStart(size, p + 1,
+                                                   _partitions));
+    }
+
+    /** Record the RESULT message WORDS.  Return false if it is
+     *  malformed, in which case nothing is recorded.  The partition is
+     *  queued on the checkpoint under the same lock that marks it
+     *  finished, so the checkpoint cannot be closed between the two. */
+    private boolean record(String[] words) {
+        int p, n;
+        TopK found;
+        try {
+            if (words.length < 3) {
+                return false;
+            }
+            p = Integer.parseInt(words[1]);
+            n = Integer.parseInt(words[2]);
+            if (n < 0 || words.length != 3 + 2L * n) {
+                return false;
+            }
+            found = new TopK(Math.max(1, n));
+            for (int i = 0; i < n; i += 1) {
+                found.offer(Long.parseLong(words[3 + 2 * i]),
+                            Double.parseDouble(words[4 + 2 * i]));
+            }
+        } catch (NumberFormatException excp) {
+            return false;
+        }
+        synchronized (this) {
+            if (p < 0 || p >= _partitions || _finished.get(p)) {
+                return true;
+            }
+            _finished.set(p);
+            _checkpoint.complete(p, found);
+        }
+        if (finished()) {
+            try {
+                _server.close();
+            } catch (IOException excp) {
+                /* Already closed. */
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /** Socket accepting workers. */
+    private final ServerSocket _server;
+    /** Keys searched. */
+    private final KeySpace _keys;
+    /** Ciphertext sent to workers. */
+    private final String _ciphertext;
+    /** Durable record of progress. */
+    private final Checkpoint _checkpoint;
+    /** Number of best keys kept. */
+    private final int _k;
+    /** Lease duration. */
+    private final long _leaseMillis;
+    /** Number of partitions. */
+    private final int _partitions;
+    /** Time at which each partition's lease expires (0 if never
+     *  leased). */
+    private final long[] _deadlines;
+    /** Lowest partition that has never been leased. */
+    private int _fresh;
+    /** Partitions whose results have arrived. */
+    private final BitSet _finished;
+}
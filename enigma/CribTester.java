@@ -0,0 +1,186 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+import static enigma.EnigmaException.*;
+
+/** Tests a crib, a guess at the plaintext of a stretch of ciphertext,
+ *  against every start position of a wheel order at once.  The start
+ *  positions' keystreams all lie along the one sequence of joint
+ *  positions that the moving rotors pass through, each shifted from
+ *  the last by one keypress.  So rather than setting the rotors and
+ *  decrypting afresh for each start, the tester tabulates the
+ *  successor of every joint position and slides the crib along that
+ *  sequence, computing each position's substitution only for the
+ *  ciphertext letters the crib actually reaches there, and at most
+ *  once.  Almost every start is rejected at its first letter, so a
+ *  wheel order costs one linear pass over its joint positions, states
+ *  off the main cycle (such as those the double step skips) included.
+ *  @author Andrew Kaplan
+ */
+class CribTester {
+
+    /** Largest number of joint positions of the moving rotors tested. */
+    static final long STATE_LIMIT = 1 << 22;
+
+    /** A tester for the plaintext CRIB of CIPHER, both arrays of
+     *  alphabet indices of the same length. */
+    CribTester(int[] crib, int[] cipher) {
+        if (crib.length != cipher.length || crib.length == 0) {
+            throw error("crib and ciphertext must have the same length");
+        }
+        _crib = crib.clone();
+        _cipher = cipher.clone();
+        int letters = 0;
+        for (int c : cipher) {
+            letters = Math.max(letters, c + 1);
+        }
+        _column = new int[letters];
+        Arrays.fill(_column, -1);
+        for (int c : cipher) {
+            if (_column[c] < 0) {
+                _column[c] = _distinct;
+                _distinct += 1;
+            }
+        }
+    }
+
+    /** Return the packed states (see Machine.snapshot()) of the start
+     *  positions of M, as now configured apart from its moving rotors'
+     *  positions, from which the ciphertext decrypts to the crib.  The
+     *  states are in increasing order.  M's positions are restored
+     *  afterwards. */
+    long[] test(Machine m) {
+        Stepper stepper = m.stepper();
+        long states = stepper.states();
+        if (states < 0 || states > STATE_LIMIT) {
+            throw error("too many rotor positions to test a crib");
+        }
+        Rotor reflector = m.rotor(m.activeRotorNames()[0]);
+        if (reflector.permutation().derangement()) {
+            for (int i = 0; i < _crib.length; i += 1) {
+                if (_crib[i] == _cipher[i]) {
+                    return new long[0];
+                }
+            }
+        }
+        int n = m.alphabet().size(), count = stepper.count();
+        long saved = m.snapshot();
+        long[] weights = new long[count];
+        long base = saved;
+        for (int i = 0; i < count; i += 1) {
+            long w = 1;
+            for (int s = stepper.slot(i) + 1; s < m.numRotors(); s += 1) {
+                w *= n;
+            }
+            weights[i] = w;
+            base -= saved / w % n * w;
+        }
+        int size = (int) states;
+        int[] next = new int[size];
+        for (int j = 0; j < size; j += 1) {
+            next[j] = (int) stepper.next(j);
+        }
+        char[] memo = new char[size * _distinct];
+        long[] found = new long[16];
+        int matches = 0;
+        for (int j = 0; j < size; j += 1) {
+            int t = next[j], i;
+            for (i = 0; i < _crib.length; i += 1) {
+                int cell = t * _distinct + _column[_cipher[i]];
+                if (memo[cell] == 0) {
+                    m.restore(base + packed(t, weights, n));
+                    memo[cell] = (char) (m.convert(_cipher[i]) + 1);
+                }
+                if (memo[cell] - 1 != _crib[i]) {
+                    break;
+                }
+                t = next[t];
+            }
+            if (i == _crib.length) {
+                if (matches == found.length) {
+                    found = Arrays.copyOf(found, 2 * matches);
+                }
+                found[matches] = base + packed(j, weights, n);
+                matches += 1;
+            }
+        }
+        m.restore(saved);
+        long[] result = Arrays.copyOf(found, matches);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Return the keys of KEYS from which the ciphertext decrypts to the
+     *  crib, in increasing order.  Each wheel order, plugboard and set
+     *  of stationary positions is tested in one pass on a copy of
+     *  TEMPLATE, whose rotors KEYS must describe; the passes run in
+     *  parallel. */
+    long[] search(KeySpace keys, Machine template) {
+        int n = template.alphabet().size();
+        int first = template.numRotors() - template.numPawls();
+        long group = 1;
+        for (int s = first; s < template.numRotors(); s += 1) {
+            if (keys.fixedPosition(s) < 0) {
+                group *= n;
+            }
+        }
+        long perGroup = group;
+        ThreadLocal<Machine> machines =
+            ThreadLocal.withInitial(template::copy);
+        return LongStream.range(0, keys.size() / perGroup).parallel()
+            .flatMap(g -> {
+                Machine m = machines.get();
+                long key0 = g * perGroup;
+                keys.apply(key0, m);
+                return LongStream.of(test(m))
+                    .map(state -> key(keys, m, key0, state))
+                    .filter(key -> key >= 0);
+            })
+            .sorted().toArray();
+    }
+
+    /** Return the key of KEYS, among those following KEY0 that differ
+     *  only in the positions of M's moving rotors, whose positions are
+     *  those of the packed state STATE, or -1 if STATE breaks one of
+     *  KEYS's fixed positions. */
+    private static long key(KeySpace keys, Machine m, long key0,
+                            long state) {
+        int n = m.alphabet().size();
+        int first = m.numRotors() - m.numPawls();
+        long index = 0, scale = 1, w = 1;
+        for (int s = m.numRotors() - 1; s >= first; s -= 1, w *= n) {
+            int digit = (int) (state / w % n);
+            int fixed = keys.fixedPosition(s);
+            if (fixed < 0) {
+                index += digit * scale;
+                scale *= n;
+            } else if (fixed != digit) {
+                return -1;
+            }
+        }
+        return key0 + index;
+    }
+
+    /** Return the packed-state digits of joint position J, in which
+     *  moving rotor I's digit has weight WEIGHTS[I], over N
+     *  characters. */
+    private static long packed(long j, long[] weights, int n) {
+        long result = 0;
+        for (int i = 0; i < weights.length; i += 1) {
+            result += j % n * weights[i];
+            j /= n;
+        }
+        return result;
+    }
+
+    /** The guessed plaintext. */
+    private final int[] _crib;
+    /** The ciphertext it is tested against. */
+    private final int[] _cipher;
+    /** Column of the memo for each ciphertext letter, or -1. */
+    private final int[] _column;
+    /** Number of distinct ciphertext letters. */
+    private int _distinct;
+}
@@ -0,0 +1,77 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static enigma.TestUtils.*;
+
+/** Tests of CribTester.
+ *  @author Andrew Kaplan
+ */
+public class CribTesterTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    @Test
+    public void matchesBruteForceTest() throws IOException {
+        Machine m = defaultMachine();
+        Main.setUp(m, "* B Beta I II III AXLE (TD) (KC)");
+        String crib = "WETTERVORHER";
+        String cipher = m.convert(crib);
+        CribTester tester = new CribTester(indices(crib), indices(cipher));
+        Main.setUp(m, "* B Beta I II III AAAA (TD) (KC)");
+        long[] found = tester.test(m);
+        ArrayList<Long> expected = new ArrayList<>();
+        int n = m.alphabet().size();
+        for (long state = 0; state < n * n * n; state += 1) {
+            m.restore(state);
+            long start = m.snapshot();
+            if (m.convert(cipher).equals(crib)) {
+                expected.add(start);
+            }
+        }
+        assertEquals(expected.size(), found.length);
+        for (int i = 0; i < found.length; i += 1) {
+            assertEquals((long) expected.get(i), found[i]);
+        }
+        m.restore(found[0]);
+        assertEquals(crib, m.convert(cipher));
+        assertTrue(expected.contains(
+            ((0L * n + 23) * n + 11) * n + 4));
+    }
+
+    @Test
+    public void selfEncryptionTest() throws IOException {
+        Machine m = defaultMachine();
+        Main.setUp(m, "* B Beta I II III AAAA");
+        CribTester tester = new CribTester(indices("ABC"), indices("XBZ"));
+        assertEquals(0, tester.test(m).length);
+    }
+
+    @Test
+    public void keySpaceSearchTest() throws IOException {
+        Machine m = defaultMachine();
+        Main.setUp(m, "* B Beta II I III AQEV");
+        String crib = "ANGRIFFUMNULL";
+        String cipher = m.convert(crib);
+        KeySpace keys = KeySpace.parse(m, "reflector=B exclude=Gamma,IV,V,"
+                                       + "VI,VII,VIII fix=1:A");
+        CribTester tester = new CribTester(indices(crib), indices(cipher));
+        long[] found = tester.search(keys, m);
+        boolean seen = false;
+        for (long key : found) {
+            Machine check = m.copy();
+            keys.apply(key, check);
+            assertEquals(crib, check.convert(cipher));
+            seen |= keys.describe(key).equals("B Beta II I III AQEV");
+        }
+        assertTrue(seen);
+    }
+}
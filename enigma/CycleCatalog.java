@@ -0,0 +1,328 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static enigma.EnigmaException.*;
+
+/** A catalog of the "characteristics" of the keys of a KeySpace, for
+ *  Rejewski's attack on doubly enciphered message keys.  With the
+ *  machine at a key's start position, let A .. F be the permutations
+ *  applied at the first six keypresses.  The characteristic is the
+ *  cycle structure of AD, BE and CF (A then D, and so on), which does
+ *  not depend on the plugboard.  It is summarized by a 64-bit
+ *  signature (see signature(int[], int[], int[])).
+ *
+ *  The catalog file holds (signature, key) pairs sorted by signature,
+ *  so a lookup is a binary search of the memory-mapped file.  Layout
+ *  (big-endian): int MAGIC, int length of the key space's spec(), long
+ *  number of records, the spec in UTF-8 padded to a multiple of 8
+ *  bytes, then the records as pairs of longs.
+ *  @author Andrew Kaplan
+ */
+class CycleCatalog {
+
+    /** First int of a catalog file ("ECYC"). */
+    static final int MAGIC = 0x45435943;
+
+    /** Number of keypresses in a doubly enciphered indicator. */
+    static final int INDICATOR = 6;
+
+    /** A catalog whose records are mapped in RECORDS, COUNT of them,
+     *  for keys of KEYS. */
+    private CycleCatalog(KeySpace keys, ByteBuffer records, long count) {
+        _keys = keys;
+        _records = records;
+        _count = count;
+    }
+
+    /** Compute the characteristic of every key of KEYS, which must have
+     *  no plugboard pairs and describe TEMPLATE's rotors, in parallel
+     *  across wheel orders, and write the catalog to FILE. */
+    static void build(KeySpace keys, Machine template, Path file) {
+        if (keys.pairs() != 0) {
+            throw error("catalog keys may not have plugboard pairs");
+        } else if (keys.size() / keys.orders() > Integer.MAX_VALUE) {
+            throw error("too many positions per wheel order");
+        }
+        List<long[]> parts = LongStream.range(0, keys.orders()).parallel()
+            .mapToObj(order -> buildOrder(keys, template.copy(), order))
+            .collect(Collectors.toList());
+        long total = 0;
+        for (long[] part : parts) {
+            total += part.length / 2;
+        }
+        if (total > (Integer.MAX_VALUE - (1 << 16)) / 16) {
+            throw error("catalog too large");
+        }
+        long[] sigs = new long[(int) total], ids = new long[(int) total];
+        int n = 0;
+        for (long[] part : parts) {
+            for (int i = 0; i < part.length; i += 2, n += 1) {
+                sigs[n] = part[i];
+                ids[n] = part[i + 1];
+            }
+        }
+        sort(sigs, ids, 0, n - 1);
+        write(file, keys.spec(), sigs, ids);
+    }
+
+    /** Return (signature, key) pairs, flattened, for the keys of wheel
+     *  order ORDER of KEYS, using machine M. */
+    private static long[] buildOrder(KeySpace keys, Machine m, long order) {
+        int positions = (int) (keys.size() / keys.orders());
+        long first = order * positions;
+        String[] rotors = new String[m.numRotors()];
+        keys.wheelOrder(first, rotors);
+        m.insertRotors(rotors);
+        m.setPlugboard(new Permutation("", m.alphabet()));
+        int size = m.alphabet().size();
+        int[][] perms = new int[INDICATOR][size];
+        int[] posns = new int[m.numRotors() - 1];
+        long[] result = new long[2 * positions];
+        for (int p = 0; p < positions; p += 1) {
+            long key = first + p;
+            keys.positions(key, posns);
+            long state = 0;
+            for (int posn : posns) {
+                state = state * size + posn;
+            }
+            m.restore(state);
+            for (int k = 0; k < INDICATOR; k += 1) {
+                m.step();
+                for (int x = 0; x < size; x += 1) {
+                    perms[k][x] = m.convert(x);
+                }
+            }
+            result[2 * p] = signature(perms);
+            result[2 * p + 1] = key;
+        }
+        return result;
+    }
+
+    /** Return the signature of the six indicator permutations PERMS. */
+    static long signature(int[][] perms) {
+        int size = perms[0].length;
+        int[] ad = new int[size], be = new int[size], cf = new int[size];
+        Permutations.compose(perms[0], perms[3], ad);
+        Permutations.compose(perms[1], perms[4], be);
+        Permutations.compose(perms[2], perms[5], cf);
+        return signature(ad, be, cf);
+    }
+
+    /** Return the signature of the characteristic whose products are
+     *  AD, BE and CF, each given as a table mapping index x to its
+     *  image.  Equal cycle structures give equal signatures; distinct
+     *  ones collide with probability about 2^-64. */
+    static long signature(int[] ad, int[] be, int[] cf) {
+        long h = 0x9e3779b97f4a7c15L;
+        int[] lengths = new int[ad.length];
+        for (int[] perm : new int[][] {ad, be, cf}) {
+            int cycles = Permutations.cycleType(perm, lengths);
+            for (int i = 0; i < cycles; i += 1) {
+                h = Permutations.mix(h ^ lengths[i]);
+            }
+            h = Permutations.mix(h ^ 0xffff);
+        }
+        return h;
+    }
+
+    /** Return the lengths of the cycles of PERM in decreasing order. */
+    static int[] cycleType(int[] perm) {
+        return Permutations.cycleType(perm);
+    }
+
+    /** Sort SIGS[LO .. HI] ascending, permuting IDS alike. */
+    private static void sort(long[] sigs, long[] ids, int lo, int hi) {
+        while (hi - lo > 16) {
+            long pivot = sigs[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (sigs[i] < pivot) {
+                    i += 1;
+                }
+                while (sigs[j] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(sigs, ids, i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (j - lo < hi - i) {
+                sort(sigs, ids, lo, j);
+                lo = i;
+            } else {
+                sort(sigs, ids, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i += 1) {
+            for (int j = i; j > lo && sigs[j - 1] > sigs[j]; j -= 1) {
+                swap(sigs, ids, j - 1, j);
+            }
+        }
+    }
+
+    /** Swap entries I and J of SIGS and of IDS. */
+    private static void swap(long[] sigs, long[] ids, int i, int j) {
+        long t = sigs[i];
+        sigs[i] = sigs[j];
+        sigs[j] = t;
+        t = ids[i];
+        ids[i] = ids[j];
+        ids[j] = t;
+    }
+
+    /** Write a catalog of the key space described by SPEC with records
+     *  (SIGS[i], IDS[i]) to FILE. */
+    private static void write(Path file, String spec, long[] sigs,
+                              long[] ids) {
+        byte[] specBytes = spec.getBytes(StandardCharsets.UTF_8);
+        int header = 16 + (specBytes.length + 7) / 8 * 8;
+        long length = header + 16L * sigs.length;
+        try (FileChannel channel = FileChannel.open(file,
+                 StandardOpenOption.CREATE, StandardOpenOption.READ,
+                 StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buf.order(ByteOrder.BIG_ENDIAN);
+            buf.putInt(MAGIC).putInt(specBytes.length).putLong(sigs.length);
+            buf.put(specBytes);
+            buf.position(header);
+            for (int i = 0; i < sigs.length; i += 1) {
+                buf.putLong(sigs[i]).putLong(ids[i]);
+            }
+            buf.force();
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Return the catalog in FILE, whose keys are for machine M. */
+    static CycleCatalog open(Path file, Machine m) {
+        try (FileChannel channel =
+                 FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.BIG_ENDIAN);
+            if (buf.getInt() != MAGIC) {
+                throw error("%s is not a cycle catalog", file);
+            }
+            byte[] spec = new byte[buf.getInt()];
+            long count = buf.getLong();
+            buf.get(spec);
+            buf.position(16 + (spec.length + 7) / 8 * 8);
+            KeySpace keys = KeySpace.parse(m, new String(
+                spec, StandardCharsets.UTF_8));
+            return new CycleCatalog(keys, buf.slice(), count);
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Run ARGS, which are CONFIG FILE build [ITEM...] to build the
+     *  catalog FILE for the KeySpace.parse items ITEM of the machine in
+     *  CONFIG, or CONFIG FILE lookup AD BE CF to list the keys whose
+     *  characteristic has products AD, BE and CF, given in cycle
+     *  notation.  Return true. */
+    static boolean main(String... args) {
+        if (args.length < 3) {
+            throw error("Usage: --catalog CONFIG FILE build [ITEM...] | "
+                        + "--catalog CONFIG FILE lookup AD BE CF");
+        }
+        Machine m;
+        try {
+            m = Main.readConfig(new Scanner(new File(args[0])));
+        } catch (IOException excp) {
+            throw error("could not open %s", args[0]);
+        }
+        Path file = Paths.get(args[1]);
+        if (args[2].equals("build")) {
+            String spec = String.join(" ",
+                Arrays.copyOfRange(args, 3, args.length));
+            build(KeySpace.parse(m, spec), m, file);
+        } else if (args[2].equals("lookup") && args.length == 6) {
+            int[][] products = new int[3][];
+            for (int i = 0; i < 3; i += 1) {
+                Permutation p = new Permutation(args[3 + i], m.alphabet());
+                products[i] = new int[p.size()];
+                for (int x = 0; x < p.size(); x += 1) {
+                    products[i][x] = p.permute(x);
+                }
+            }
+            CycleCatalog catalog = open(file, m);
+            long sig = signature(products[0], products[1], products[2]);
+            for (long key : catalog.lookup(sig)) {
+                System.out.println(catalog.keys().describe(key));
+            }
+        } else {
+            throw error("unknown catalog command %s", args[2]);
+        }
+        return true;
+    }
+
+    /** Return the key space whose keys I list. */
+    KeySpace keys() {
+        return _keys;
+    }
+
+    /** Return the number of records. */
+    long size() {
+        return _count;
+    }
+
+    /** Return the keys whose characteristic has signature SIG, in
+     *  increasing order. */
+    long[] lookup(long sig) {
+        int lo = lowerBound(sig), hi = lowerBound(sig + 1);
+        if (sig == Long.MAX_VALUE) {
+            hi = (int) _count;
+        }
+        long[] result = new long[hi - lo];
+        for (int i = lo; i < hi; i += 1) {
+            result[i - lo] = _records.getLong(16 * i + 8);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Return the index of the first record whose signature is at least
+     *  SIG. */
+    private int lowerBound(long sig) {
+        int lo = 0, hi = (int) _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_records.getLong(16 * mid) < sig) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Key space of my records. */
+    private final KeySpace _keys;
+    /** Mapped (signature, key) records. */
+    private final ByteBuffer _records;
+    /** Number of records. */
+    private final long _count;
+}
@@ -0,0 +1,54 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CycleCatalog class.
+ *  @author Andrew Kaplan
+ */
+public class CycleCatalogTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    @Test
+    public void checkCycleType() {
+        assertArrayEquals(new int[] {3, 2, 1},
+                          CycleCatalog.cycleType(new int[] {1, 2, 0, 4, 3, 5}));
+    }
+
+    @Test
+    public void checkLookup() throws IOException {
+        KeySpace keys = KeySpace.parse(smallMachine(4), "fix=1:C");
+        File file = File.createTempFile("cycles", ".cat");
+        file.deleteOnExit();
+        CycleCatalog.build(keys, smallMachine(4), file.toPath());
+        CycleCatalog catalog =
+            CycleCatalog.open(file.toPath(), smallMachine(4));
+        assertEquals(keys.size(), catalog.size());
+
+        long secret = 4 * 26 * 26 + 7 * 26 + 19;
+        Machine m = smallMachine(4);
+        keys.apply(secret, m);
+        m.setPlugboard(new Permutation("(AQ) (EP) (TZ)", UPPER));
+        int[][] perms = new int[CycleCatalog.INDICATOR][26];
+        for (int k = 0; k < perms.length; k += 1) {
+            m.step();
+            for (int x = 0; x < 26; x += 1) {
+                perms[k][x] = m.convert(x);
+            }
+        }
+        long[] found = catalog.lookup(CycleCatalog.signature(perms));
+        assertTrue(found.length > 0);
+        assertTrue(java.util.Arrays.binarySearch(found, secret) >= 0);
+        assertTrue(found.length < keys.size() / 10);
+    }
+}
@@ -0,0 +1,448 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static enigma.EnigmaException.*;
+
+/** A resident process that runs Main invocations sent to it over a Unix
+ *  domain socket, so that a warmed JVM and parsed configurations are
+ *  reused.  Configurations are cached by path as LiveConfigs and re-read
+ *  whenever the file's modification time or size changes; each
+ *  invocation runs on its own copy of the current machine.
+ *
+ *  Client and daemon exchange frames: a type byte, a length int and
+ *  that many bytes.  The client sends one ARGS frame (the client's
+ *  working directory followed by Main's arguments, separated by NUL
+ *  characters), then INPUT frames carrying its standard input and an
+ *  empty END frame.  The daemon answers with OUTPUT and ERROR frames
+ *  for the client's standard output and error, and finally an EXIT
+ *  frame holding the exit code as an int.
+ *
+ *  If the environment variable SOCKET_ENV names a socket, plain
+ *  invocations of Main are forwarded to that daemon (see Main.main).
+ *  @author Andrew Kaplan
+ */
+class Daemon {
+
+    /** Environment variable naming the socket of a running daemon. */
+    static final String SOCKET_ENV = "ENIGMA_SOCKET";
+
+    /** Frame types. */
+    static final byte ARGS = 'A', INPUT = 'I', END = 'C', OUTPUT = 'O',
+        ERROR = 'E', EXIT = 'X';
+
+    /** Size of the frames written for streamed data. */
+    private static final int CHUNK = 1 << 13;
+
+    /** A daemon listening on the socket file SOCKET. */
+    Daemon(Path socket) {
+        _socket = socket;
+    }
+
+    /** Run ARGS, which are SOCKET.  Serves until killed.  Return
+     *  true. */
+    static boolean main(String... args) {
+        if (args.length != 1) {
+            throw error("Usage: --daemon SOCKET");
+        }
+        new Daemon(Paths.get(args[0])).serve();
+        return true;
+    }
+
+    /** Accept and run invocations until the socket is closed. */
+    void serve() {
+        try {
+            Files.deleteIfExists(_socket);
+            _server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            _server.bind(UnixDomainSocketAddress.of(_socket));
+        } catch (IOException excp) {
+            throw error("could not listen on %s", _socket);
+        }
+        ExecutorService pool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "daemon-conn");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            while (_server.isOpen()) {
+                SocketChannel conn = _server.accept();
+                pool.execute(() -> run(conn));
+            }
+        } catch (IOException excp) {
+            /* Closed by stop(). */
+            return;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Stop accepting invocations and remove the socket file. */
+    void stop() {
+        try {
+            if (_server != null) {
+                _server.close();
+            }
+            Files.deleteIfExists(_socket);
+        } catch (IOException excp) {
+            /* Nothing more to do. */
+            return;
+        }
+    }
+
+    /** Run the invocation arriving on CONN. */
+    private void run(SocketChannel conn) {
+        try (SocketChannel c = conn;
+             DataInputStream in = new DataInputStream(inputStream(c));
+             DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(outputStream(c)))) {
+            byte[] first = readFrame(in, ARGS);
+            String[] words = new String(first, StandardCharsets.UTF_8)
+                .split("\0", -1);
+            int code = invoke(Paths.get(words[0]),
+                              Arrays.copyOfRange(words, 1, words.length),
+                              new FrameInput(in), out);
+            writeFrame(out, EXIT, ByteBuffer.allocate(4).putInt(code).array(),
+                       4);
+            out.flush();
+            c.shutdownOutput();
+            byte[] rest = new byte[CHUNK];
+            while (in.read(rest) >= 0) {
+                /* Closing with unread input would reset the
+                 * connection before the client saw EXIT. */
+                continue;
+            }
+        } catch (IOException excp) {
+            /* The client went away. */
+            return;
+        }
+    }
+
+    /** Run Main's arguments ARGS, with relative paths resolved against
+     *  CWD, reading standard input from STDIN and sending output frames
+     *  to OUT.  Return the exit code. */
+    private int invoke(Path cwd, String[] args, InputStream stdin,
+                       DataOutputStream out) throws IOException {
+        PrintStream output = null;
+        Scanner input = null;
+        try {
+            if (args.length < 1 || args.length > 3) {
+                throw error("Only 1, 2, or 3 command-line arguments allowed");
+            }
+            Machine m = configuration(cwd.resolve(args[0]));
+            if (args.length > 1) {
+                try {
+                    input = new Scanner(cwd.resolve(args[1]).toFile());
+                } catch (IOException excp) {
+                    throw error("could not open %s", args[1]);
+                }
+            } else {
+                input = new Scanner(stdin, StandardCharsets.UTF_8);
+            }
+            if (args.length > 2) {
+                try {
+                    output = new PrintStream(cwd.resolve(args[2]).toFile());
+                } catch (IOException excp) {
+                    throw error("could not open %s", args[2]);
+                }
+            } else {
+                output = new PrintStream(new FrameOutput(out, OUTPUT), false,
+                                         StandardCharsets.UTF_8);
+            }
+            new Main(m, input, output).processMessages();
+            output.flush();
+            return 0;
+        } catch (EnigmaException excp) {
+            return fail(excp.getMessage(), output, out);
+        } catch (RuntimeException excp) {
+            return fail("internal error: " + excp, output, out);
+        } finally {
+            if (input != null && args.length > 1) {
+                input.close();
+            }
+            if (output != null && args.length > 2) {
+                output.close();
+            }
+        }
+    }
+
+    /** Report the error MSG to the client on OUT, after flushing OUTPUT
+     *  if it is open, and return the exit code 1. */
+    private static int fail(String msg, PrintStream output,
+                            DataOutputStream out) throws IOException {
+        if (output != null) {
+            output.flush();
+        }
+        byte[] text = String.format("Error: %s%n", msg)
+            .getBytes(StandardCharsets.UTF_8);
+        writeFrame(out, ERROR, text, text.length);
+        return 1;
+    }
+
+    /** Return a fresh copy of the machine configured by the file
+     *  CONFIG, parsing it only if it has changed since last used.  A
+     *  reparsed configuration keeps what was learned about its unchanged
+     *  rotors (see LiveConfig). */
+    Machine configuration(Path config) {
+        LiveConfig live = _configs.computeIfAbsent(config, LiveConfig::new);
+        live.refresh();
+        return live.copy();
+    }
+
+    /** Run ARGS, which are SOCKET followed by Main's arguments, on the
+     *  daemon listening at SOCKET, forwarding this process's standard
+     *  input and output.  Return true iff it exited normally. */
+    static boolean client(String... args) {
+        if (args.length < 1) {
+            throw error("Usage: --client SOCKET CONFIG [INPUT [OUTPUT]]");
+        }
+        try {
+            return forward(Paths.get(args[0]),
+                           Arrays.copyOfRange(args, 1, args.length)) == 0;
+        } catch (IOException excp) {
+            throw error("could not reach daemon at %s", args[0]);
+        }
+    }
+
+    /** Run Main's arguments ARGS on the daemon at SOCKET and return its
+     *  exit code.  Throws IOException, before doing anything else, if
+     *  the daemon cannot be reached. */
+    static int forward(Path socket, String[] args) throws IOException {
+        SocketChannel channel =
+            SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        try (SocketChannel c = channel) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(outputStream(c)));
+            StringBuilder words = new StringBuilder(
+                Paths.get("").toAbsolutePath().toString());
+            for (String a : args) {
+                words.append('\0').append(a);
+            }
+            byte[] first = words.toString().getBytes(StandardCharsets.UTF_8);
+            writeFrame(out, ARGS, first, first.length);
+            out.flush();
+            if (args.length < 2) {
+                Thread pump = new Thread(() -> pump(System.in, out),
+                                         "client-stdin");
+                pump.setDaemon(true);
+                pump.start();
+            } else {
+                writeFrame(out, END, first, 0);
+                out.flush();
+            }
+            DataInputStream in = new DataInputStream(inputStream(c));
+            while (true) {
+                byte type = in.readByte();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                if (type == OUTPUT) {
+                    System.out.write(data);
+                    System.out.flush();
+                } else if (type == ERROR) {
+                    System.err.write(data);
+                    System.err.flush();
+                } else if (type == EXIT) {
+                    return ByteBuffer.wrap(data).getInt();
+                }
+            }
+        } catch (IOException excp) {
+            throw error("lost connection to daemon at %s", socket);
+        }
+    }
+
+    /** Copy IN to OUT as INPUT frames, then send END. */
+    private static void pump(InputStream in, DataOutputStream out) {
+        byte[] buf = new byte[CHUNK];
+        try {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                synchronized (out) {
+                    writeFrame(out, INPUT, buf, n);
+                    out.flush();
+                }
+            }
+            synchronized (out) {
+                writeFrame(out, END, buf, 0);
+                out.flush();
+            }
+        } catch (IOException excp) {
+            /* The daemon has finished or gone away. */
+            return;
+        }
+    }
+
+    /** Write a frame of type TYPE holding DATA[0 .. LEN-1] to OUT. */
+    static void writeFrame(DataOutputStream out, byte type, byte[] data,
+                           int len) throws IOException {
+        out.writeByte(type);
+        out.writeInt(len);
+        out.write(data, 0, len);
+    }
+
+    /** Return a stream reading from CHANNEL.  Unlike the streams of
+     *  java.nio.channels.Channels, it does not hold the channel's
+     *  blocking lock, so another thread may write while it waits. */
+    private static InputStream inputStream(SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off,
+                                                                  len));
+            }
+        };
+    }
+
+    /** Return a stream writing to CHANNEL (see inputStream). */
+    private static OutputStream outputStream(SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
+        };
+    }
+
+    /** Read a frame from IN, which must be of type TYPE, and return its
+     *  data. */
+    static byte[] readFrame(DataInputStream in, byte type)
+        throws IOException {
+        if (in.readByte() != type) {
+            throw new IOException("unexpected frame");
+        }
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    /** The client's standard input, read from INPUT frames. */
+    private static final class FrameInput extends InputStream {
+
+        /** Input from the frames of IN. */
+        FrameInput(DataInputStream in) {
+            _in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (!_ended && _left == 0) {
+                byte type = _in.readByte();
+                _left = _in.readInt();
+                _ended = type == END;
+            }
+            if (_left == 0) {
+                return -1;
+            }
+            int n = _in.read(b, off, Math.min(len, _left));
+            _left -= n;
+            return n;
+        }
+
+        /** Frame source. */
+        private final DataInputStream _in;
+        /** Bytes left in the current frame. */
+        private int _left;
+        /** True once END has been read. */
+        private boolean _ended;
+    }
+
+    /** An output stream sending its bytes as frames of one type. */
+    private static final class FrameOutput extends OutputStream {
+
+        /** Frames of type TYPE written to OUT. */
+        FrameOutput(DataOutputStream out, byte type) {
+            _out = out;
+            _type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (_n == _buf.length) {
+                flush();
+            }
+            _buf[_n] = (byte) b;
+            _n += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (_n == _buf.length) {
+                    flush();
+                }
+                int k = Math.min(len, _buf.length - _n);
+                System.arraycopy(b, off, _buf, _n, k);
+                _n += k;
+                off += k;
+                len -= k;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (_n > 0) {
+                writeFrame(_out, _type, _buf, _n);
+                _n = 0;
+            }
+            _out.flush();
+        }
+
+        /** Frame destination. */
+        private final DataOutputStream _out;
+        /** Frame type. */
+        private final byte _type;
+        /** Pending bytes. */
+        private final byte[] _buf = new byte[CHUNK];
+        /** Number of pending bytes. */
+        private int _n;
+    }
+
+    /** Socket file. */
+    private final Path _socket;
+    /** Listening channel, once serving. */
+    private ServerSocketChannel _server;
+    /** Parsed configurations by path. */
+    private final ConcurrentHashMap<Path, LiveConfig> _configs =
+        new ConcurrentHashMap<>();
+}
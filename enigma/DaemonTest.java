@@ -0,0 +1,138 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the Daemon and its configuration cache.
+ *  @author Andrew Kaplan
+ */
+public class DaemonTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void configurationCacheTest() throws IOException {
+        Path conf = Files.createTempFile("daemon", ".conf");
+        try {
+            Files.copy(testing("correct/default.conf"), conf,
+                       StandardCopyOption.REPLACE_EXISTING);
+            Daemon d = new Daemon(Paths.get("unused.sock"));
+            Machine m1 = d.configuration(conf);
+            Machine m2 = d.configuration(conf);
+            assertNotSame(m1, m2);
+            assertEquals(5, m1.numRotors());
+            String text = new String(Files.readAllBytes(conf))
+                .replaceFirst("5 3", "4 3");
+            Files.write(conf, text.getBytes());
+            Files.setLastModifiedTime(conf, FileTime.fromMillis(
+                Files.getLastModifiedTime(conf).toMillis() + 2000));
+            assertEquals(4, d.configuration(conf).numRotors());
+        } finally {
+            Files.delete(conf);
+        }
+    }
+
+    /** Wait until a daemon accepts connections on SOCKET. */
+    private void awaitListening(Path socket) throws InterruptedException {
+        while (true) {
+            try (SocketChannel probe = SocketChannel.open(
+                     UnixDomainSocketAddress.of(socket))) {
+                return;
+            } catch (IOException excp) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /** Return the number of entries in DIR. */
+    private long count(Path dir) throws IOException {
+        try (Stream<Path> entries = Files.list(dir)) {
+            return entries.count();
+        }
+    }
+
+    @Test
+    public void forwardTest() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("daemon");
+        Path socket = dir.resolve("d.sock");
+        Path out = dir.resolve("trivial.out");
+        Path bad = dir.resolve("bad.in");
+        Daemon d = new Daemon(socket);
+        Thread server = new Thread(d::serve, "daemon-test");
+        server.setDaemon(true);
+        server.start();
+        PrintStream stderr = System.err;
+        try {
+            awaitListening(socket);
+            String conf =
+                testing("correct/default.conf").toAbsolutePath().toString();
+            assertEquals(0, Daemon.forward(socket, new String[] {
+                conf,
+                testing("correct/trivial.in").toAbsolutePath().toString(),
+                out.toString()
+            }));
+            assertEquals(Files.readAllLines(testing("correct/trivial.out")),
+                         Files.readAllLines(out));
+
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            System.setErr(new PrintStream(errors, true,
+                                          StandardCharsets.UTF_8));
+            assertEquals(1, Daemon.forward(socket, new String[] {
+                conf,
+                testing("error/trivialerr.in").toAbsolutePath().toString(),
+                out.toString()
+            }));
+            assertTrue(errors.toString(StandardCharsets.UTF_8)
+                       .startsWith("Error: "));
+
+            errors.reset();
+            Files.write(bad, "* B  Beta I II III AAAA\nHELLO\n".getBytes());
+            assertEquals(1, Daemon.forward(socket, new String[] {
+                conf, bad.toString(), out.toString()
+            }));
+            assertTrue(errors.toString(StandardCharsets.UTF_8)
+                       .startsWith("Error: "));
+
+            Path fds = Paths.get("/proc/self/fd");
+            if (Files.isDirectory(fds)) {
+                String[] good = {
+                    conf,
+                    testing("correct/trivial.in").toAbsolutePath().toString(),
+                    out.toString()
+                };
+                Daemon.forward(socket, good);
+                long before = count(fds);
+                for (int i = 0; i < 20; i += 1) {
+                    assertEquals(0, Daemon.forward(socket, good));
+                }
+                assertTrue(count(fds) < before + 5);
+            }
+        } finally {
+            System.setErr(stderr);
+            d.stop();
+            server.join();
+            Files.deleteIfExists(out);
+            Files.deleteIfExists(bad);
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** An index of messages by the rotor states their keystreams cover,
+ *  for finding messages in depth: those enciphered on the same
+ *  configuration (wheel order, rings, stationary positions and
+ *  plugboard) through overlapping runs of rotor states.
+ *
+ *  The joint positions of a wheel order's moving rotors fall into
+ *  cycles under its stepping.  Each cycle is numbered once, so a
+ *  message is an interval of cycle offsets: its header is replayed
+ *  through Main.setUp to find its first state, and its last is found by
+ *  jumping ahead by its length along the cycle rather than stepping.
+ *  Intervals are grouped by configuration and cycle, and each group is
+ *  swept in order of start, so finding the overlapping pairs costs
+ *  O(n log n) plus the number of pairs found.
+ *  @author Andrew Kaplan
+ */
+class DepthIndex {
+
+    /** Largest number of joint positions of moving rotors indexed. */
+    static final long STATE_LIMIT = 1 << 24;
+
+    /** Most cycle tables kept at once. */
+    static final int CYCLE_TABLES = 32;
+
+    /** A pair of messages in depth. */
+    static final class Depth {
+
+        /** Messages FIRST < SECOND in depth, character I of SECOND
+         *  having the state of character I + SHIFT of FIRST, for
+         *  OVERLAP consecutive characters. */
+        Depth(int first, int second, long shift, long overlap) {
+            this.first = first;
+            this.second = second;
+            this.shift = shift;
+            this.overlap = overlap;
+        }
+
+        @Override
+        public String toString() {
+            return first + " " + second + " " + shift + " " + overlap;
+        }
+
+        /** The earlier message's number. */
+        final int first;
+        /** The later message's number. */
+        final int second;
+        /** Offset of SECOND's keystream in FIRST's. */
+        final long shift;
+        /** Number of characters in depth. */
+        final long overlap;
+    }
+
+    /** An empty index of messages enciphered on M, which is used to
+     *  replay their headers. */
+    DepthIndex(Machine m) {
+        _machine = m;
+    }
+
+    /** Run ARGS, which are CONFIG INPUT: index the messages of INPUT,
+     *  in the format Main reads, and print each pair in depth as
+     *  "FIRST SECOND SHIFT OVERLAP", numbering messages from 0.  Return
+     *  true. */
+    static boolean main(String... args) {
+        if (args.length != 2) {
+            throw error("Usage: --depths CONFIG INPUT");
+        }
+        DepthIndex index;
+        try {
+            index = new DepthIndex(
+                Main.readConfig(new Scanner(new File(args[0]))));
+            index.addAll(new Scanner(new File(args[1])));
+        } catch (IOException excp) {
+            throw error("could not open %s", excp.getMessage());
+        }
+        index.print(System.out);
+        return true;
+    }
+
+    /** Index every message of INPUT, in the format Main reads: a
+     *  setting line followed by any number of message lines. */
+    void addAll(Scanner input) {
+        String settings = null;
+        long length = 0;
+        while (input.hasNextLine()) {
+            String line = input.nextLine();
+            if (line.startsWith("*")) {
+                if (settings != null) {
+                    add(settings, length);
+                }
+                settings = line;
+                length = 0;
+            } else if (settings == null) {
+                if (!line.trim().isEmpty()) {
+                    throw error("Invalid input file");
+                }
+            } else {
+                length += line.replaceAll("\\s", "").length();
+            }
+        }
+        if (settings != null) {
+            add(settings, length);
+        }
+    }
+
+    /** Index a message of LENGTH characters whose setting line is
+     *  SETTINGS.  Return its number. */
+    int add(String settings, long length) {
+        Main.setUp(_machine, settings);
+        Cycles cycles = cycles();
+        int start = cycles._next[(int) _machine.joint()];
+        long lo = 0;
+        while (cycles._offset[start] < 0) {
+            start = cycles._next[start];
+            lo += 1;
+        }
+        int cycle = cycles._cycle[start];
+        String key = _machine.configuration() + '\0' + cycle;
+        Integer group = _groups.get(key);
+        if (group == null) {
+            group = _periods.size();
+            _groups.put(key, group);
+            _periods.add(cycles._length[cycle]);
+        }
+        int id = _count;
+        if (id == _group.length) {
+            int size = Math.max(16, 2 * id);
+            _group = Arrays.copyOf(_group, size);
+            _origin = Arrays.copyOf(_origin, size);
+            _lo = Arrays.copyOf(_lo, size);
+            _hi = Arrays.copyOf(_hi, size);
+        }
+        _group[id] = group;
+        _origin[id] = cycles._offset[start] - lo;
+        _lo[id] = lo;
+        _hi[id] = length;
+        _count += 1;
+        return id;
+    }
+
+    /** Return the number of cycle tables now kept. */
+    int cycleTables() {
+        return _cycles.size();
+    }
+
+    /** Return the number of messages indexed. */
+    int size() {
+        return _count;
+    }
+
+    /** Return every pair of indexed messages in depth, ordered by first
+     *  and then second message. */
+    List<Depth> depths() {
+        int groups = _periods.size();
+        int[] counts = new int[groups + 1];
+        for (int i = 0; i < _count; i += 1) {
+            counts[_group[i] + 1] += 2;
+        }
+        for (int g = 0; g < groups; g += 1) {
+            counts[g + 1] += counts[g];
+        }
+        long[] pieces = new long[counts[groups]];
+        int[] fill = Arrays.copyOf(counts, groups);
+        for (int i = 0; i < _count; i += 1) {
+            int g = _group[i];
+            long period = _periods.get(g);
+            long len = _hi[i] - _lo[i];
+            if (len <= 0) {
+                continue;
+            }
+            long start = len >= period ? 0 : start(i, period);
+            pieces[fill[g]++] = (start << 32) | i;
+            if (len < period && start + len > period) {
+                pieces[fill[g]++] = i;
+            }
+        }
+        ArrayList<Long> pairs = new ArrayList<>();
+        for (int g = 0; g < groups; g += 1) {
+            sweep(pieces, counts[g], fill[g], pairs);
+        }
+        long[] sorted = new long[pairs.size()];
+        for (int k = 0; k < sorted.length; k += 1) {
+            sorted[k] = pairs.get(k);
+        }
+        Arrays.sort(sorted);
+        ArrayList<Depth> result = new ArrayList<>();
+        for (int k = 0; k < sorted.length; k += 1) {
+            if (k > 0 && sorted[k] == sorted[k - 1]) {
+                continue;
+            }
+            result.add(depth((int) (sorted[k] >>> 32), (int) sorted[k]));
+        }
+        return result;
+    }
+
+    /** Print depths() on OUT, one pair to a line. */
+    void print(PrintStream out) {
+        for (Depth d : depths()) {
+            out.println(d);
+        }
+        out.flush();
+    }
+
+    /** Add to PAIRS the pairs of messages whose pieces among
+     *  PIECES[FROM .. TO-1], all of one group, overlap, each as a long
+     *  with the lower message number in its upper half. */
+    private void sweep(long[] pieces, int from, int to,
+                       ArrayList<Long> pairs) {
+        Arrays.sort(pieces, from, to);
+        PriorityQueue<Long> active = new PriorityQueue<>();
+        for (int k = from; k < to; k += 1) {
+            long start = pieces[k] >>> 32;
+            int id = (int) pieces[k];
+            long period = _periods.get(_group[id]);
+            long len = _hi[id] - _lo[id], first = start(id, period);
+            long end = len >= period ? period
+                : start == first ? Math.min(period, start + len)
+                : first + len - period;
+            while (!active.isEmpty() && active.peek() >>> 32 <= start) {
+                active.poll();
+            }
+            for (long other : active) {
+                int a = (int) other;
+                pairs.add(a < id ? (long) a << 32 | id
+                          : (long) id << 32 | a);
+            }
+            active.add(end << 32 | id);
+        }
+    }
+
+    /** Return the cycle offset of the first state of message I that
+     *  lies on its cycle, whose length is PERIOD. */
+    private long start(int i, long period) {
+        return Math.floorMod(_origin[i] + _lo[i], period);
+    }
+
+    /** Return the depth of messages A < B: of the shifts congruent
+     *  modulo their period, the one with the largest overlap.  On a
+     *  tie, the shift nearest the one from 0 to the period less one is
+     *  kept. */
+    private Depth depth(int a, int b) {
+        long period = _periods.get(_group[a]);
+        long shift = Math.floorMod(_origin[b] - _origin[a], period);
+        long lo = _lo[a] - _hi[b], hi = _hi[a] - _lo[b];
+        long best = shift, most = overlap(a, b, shift);
+        for (long s = shift - period; s > lo; s -= period) {
+            long overlap = overlap(a, b, s);
+            if (overlap > most) {
+                best = s;
+                most = overlap;
+            }
+        }
+        for (long s = shift + period; s < hi; s += period) {
+            long overlap = overlap(a, b, s);
+            if (overlap > most) {
+                best = s;
+                most = overlap;
+            }
+        }
+        return new Depth(a, b, best, most);
+    }
+
+    /** Return the number of characters of messages A and B in depth when
+     *  character I of B has the state of character I + SHIFT of A. */
+    private long overlap(int a, int b, long shift) {
+        long lo = Math.max(_lo[a], _lo[b] + shift);
+        long hi = Math.min(_hi[a], _hi[b] + shift);
+        return Math.max(0, hi - lo);
+    }
+
+    /** Return the cycles of the joint positions of my machine's current
+     *  moving rotors.  Tables are kept by Machine.stepperKey(), on which
+     *  alone they depend under one stepping model, for the CYCLE_TABLES
+     *  most recently used layouts and at most STATE_LIMIT positions in
+     *  all.  A table dropped and rebuilt numbers its cycles the same
+     *  way, so group keys stay valid. */
+    private Cycles cycles() {
+        if (_machine.stepping() != _model) {
+            _cycles.clear();
+            _cached = 0;
+            _model = _machine.stepping();
+        }
+        String key = _machine.stepperKey();
+        Cycles result = _cycles.get(key);
+        if (result == null) {
+            Stepper stepper = _machine.stepper();
+            long states = stepper.states();
+            if (states < 0 || states > STATE_LIMIT) {
+                throw error("too many rotor positions to index");
+            }
+            result = new Cycles(stepper, (int) states);
+            Iterator<Cycles> eldest = _cycles.values().iterator();
+            while (eldest.hasNext() && (_cycles.size() >= CYCLE_TABLES
+                       || _cached + states > STATE_LIMIT)) {
+                _cached -= eldest.next()._next.length;
+                eldest.remove();
+            }
+            _cycles.put(key, result);
+            _cached += states;
+        }
+        return result;
+    }
+
+    /** The cycles of one Stepper's joint positions. */
+    private static final class Cycles {
+
+        /** The cycles of the STATES joint positions of STEPPER. */
+        Cycles(Stepper stepper, int states) {
+            _next = new int[states];
+            _cycle = new int[states];
+            _offset = new int[states];
+            for (int j = 0; j < states; j += 1) {
+                _next[j] = (int) stepper.next(j);
+            }
+            Arrays.fill(_offset, -1);
+            Arrays.fill(_cycle, -1);
+            int[] stamp = new int[states];
+            ArrayList<Long> lengths = new ArrayList<>();
+            for (int s = 0; s < states; s += 1) {
+                int j = s;
+                while (stamp[j] == 0) {
+                    stamp[j] = s + 1;
+                    j = _next[j];
+                }
+                if (stamp[j] == s + 1) {
+                    int id = lengths.size(), offset = 0, k = j;
+                    do {
+                        _cycle[k] = id;
+                        _offset[k] = offset;
+                        offset += 1;
+                        k = _next[k];
+                    } while (k != j);
+                    lengths.add((long) offset);
+                }
+            }
+            _length = new long[lengths.size()];
+            for (int id = 0; id < _length.length; id += 1) {
+                _length[id] = lengths.get(id);
+            }
+        }
+
+        /** Successor of each joint position. */
+        private final int[] _next;
+        /** Cycle of each joint position on a cycle, or -1. */
+        private final int[] _cycle;
+        /** Offset of each joint position in its cycle, or -1 if it is
+         *  not on one. */
+        private final int[] _offset;
+        /** Length of each cycle. */
+        private final long[] _length;
+    }
+
+    /** Machine replaying headers. */
+    private final Machine _machine;
+    /** Cycles by Machine.stepperKey(), least recently used first. */
+    private final LinkedHashMap<String, Cycles> _cycles =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** Stepping model under which _cycles were computed. */
+    private SteppingModel _model;
+    /** Total joint positions in _cycles. */
+    private long _cached;
+    /** Group number of each configuration and cycle. */
+    private final HashMap<String, Integer> _groups = new HashMap<>();
+    /** Period (cycle length) of each group. */
+    private final ArrayList<Long> _periods = new ArrayList<>();
+    /** Number of messages indexed. */
+    private int _count;
+    /** Group of each message. */
+    private int[] _group = new int[0];
+    /** Cycle offset, less its number of characters, of each message's
+     *  first state. */
+    private long[] _origin = new long[0];
+    /** Number of each message's first characters not on its cycle. */
+    private long[] _lo = new long[0];
+    /** Length of each message. */
+    private long[] _hi = new long[0];
+}
@@ -0,0 +1,128 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import static enigma.TestUtils.*;
+
+/** Tests of DepthIndex.
+ *  @author Andrew Kaplan
+ */
+public class DepthIndexTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    @Test
+    public void shiftTest() throws IOException {
+        DepthIndex index = new DepthIndex(defaultMachine());
+        index.addAll(new Scanner("* B Beta I II III AAAA\n"
+                                 + "ABCDEFGHIJ ABCDEFGHIJ\n"
+                                 + "* B Beta I II III AAAE\n"
+                                 + "ABCDE ABCDE\n"
+                                 + "* B Beta I II III AAAE (AB)\n"
+                                 + "ABCDE ABCDE\n"));
+        assertEquals(3, index.size());
+        List<DepthIndex.Depth> depths = index.depths();
+        assertEquals(1, depths.size());
+        DepthIndex.Depth d = depths.get(0);
+        assertEquals(0, d.first);
+        assertEquals(1, d.second);
+        assertEquals(4, d.shift);
+        assertEquals(10, d.overlap);
+    }
+
+    @Test
+    public void bruteForceTest() throws IOException {
+        Machine m = defaultMachine();
+        DepthIndex index = new DepthIndex(defaultMachine());
+        Random random = new Random(43);
+        int count = 80;
+        ArrayList<HashSet<Long>> states = new ArrayList<>();
+        for (int k = 0; k < count; k += 1) {
+            StringBuilder settings = new StringBuilder("* B Beta I II III A");
+            for (int i = 0; i < 3; i += 1) {
+                settings.append((char) ('A' + random.nextInt(2 + 12 * i)));
+            }
+            int length = random.nextInt(600);
+            index.add(settings.toString(), length);
+            Main.setUp(m, settings.toString());
+            states.add(new HashSet<>());
+            for (int i = 0; i < length; i += 1) {
+                m.step();
+                states.get(k).add(m.snapshot());
+            }
+        }
+        HashSet<String> expected = new HashSet<>();
+        for (int a = 0; a < count; a += 1) {
+            for (int b = a + 1; b < count; b += 1) {
+                HashSet<Long> common = new HashSet<>(states.get(a));
+                common.retainAll(states.get(b));
+                if (!common.isEmpty()) {
+                    expected.add(a + " " + b + " " + common.size());
+                }
+            }
+        }
+        assertFalse(expected.isEmpty());
+        HashSet<String> found = new HashSet<>();
+        for (DepthIndex.Depth d : index.depths()) {
+            found.add(d.first + " " + d.second + " " + d.overlap);
+        }
+        assertEquals(expected, found);
+    }
+
+    @Test
+    public void fullCycleTest() throws IOException {
+        DepthIndex index = new DepthIndex(defaultMachine());
+        index.add("* B Beta I II III AMMM", 20000);
+        index.add("* B Beta I II III AAAA", 10);
+        index.add("* B Beta I II III AAAA", 10);
+        HashSet<String> found = new HashSet<>();
+        for (DepthIndex.Depth d : index.depths()) {
+            found.add(d.first + " " + d.second + " " + d.overlap);
+        }
+        HashSet<String> expected = new HashSet<>();
+        expected.add("0 1 10");
+        expected.add("0 2 10");
+        expected.add("1 2 10");
+        assertEquals(expected, found);
+    }
+
+    @Test
+    public void manyWheelOrdersTest() throws IOException {
+        DepthIndex index = new DepthIndex(defaultMachine());
+        String[] moving = {"I", "II", "III", "IV", "V", "VI"};
+        ArrayList<String> orders = new ArrayList<>();
+        for (String a : moving) {
+            for (String b : moving) {
+                for (String c : moving) {
+                    if (!a.equals(b) && !b.equals(c) && !a.equals(c)) {
+                        orders.add(a + " " + b + " " + c);
+                    }
+                }
+            }
+        }
+        for (int k = 0; k < 2 * orders.size(); k += 1) {
+            index.add("* B Beta " + orders.get(k % orders.size()) + " AAAA",
+                      10);
+            assertTrue(index.cycleTables() <= DepthIndex.CYCLE_TABLES);
+        }
+        List<DepthIndex.Depth> depths = index.depths();
+        assertEquals(orders.size(), depths.size());
+        for (DepthIndex.Depth d : depths) {
+            assertEquals(orders.size(), d.second - d.first);
+            assertEquals(0, d.shift);
+            assertEquals(10, d.overlap);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+
+import static enigma.TestUtils.*;
+
+/** Tests of Coordinator and Worker with all workers on localhost.
+ *  @author Andrew Kaplan
+ */
+public class DistributedSearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    private String plain =
+        "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGANDTHENTHEDOGSLEPTSOUNDLY";
+
+    @Test
+    public void checkLocalWorkers() throws Exception {
+        KeySpace keys = KeySpace.parse(smallMachine(4), "fix=1:A");
+        long secret = 5 * 26 * 26 + 11 * 26 + 20;
+        Machine m = smallMachine(4);
+        keys.apply(secret, m);
+        String cipher = m.convert(plain);
+        int[] text = new int[plain.length()];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = UPPER.toInt(plain.charAt(i));
+        }
+        NgramTable scorer = NgramTable.fromText(3, 26, text, text.length);
+
+        File file = File.createTempFile("coordinator", ".ckpt");
+        file.delete();
+        file.deleteOnExit();
+        Checkpoint checkpoint = new Checkpoint(file.toPath(), keys.size(),
+                                               40, 3);
+        try (ServerSocket server = new ServerSocket(0)) {
+            Coordinator c = new Coordinator(server, keys, cipher,
+                                            checkpoint, 3, 5000);
+            int port = server.getLocalPort();
+            ArrayList<Thread> workers = new ArrayList<>();
+            int[] leases = new int[2];
+            for (int w = 0; w < 2; w += 1) {
+                final int id = w;
+                Thread t = new Thread(() -> leases[id] =
+                    new Worker(smallMachine(4), scorer)
+                        .run("localhost", port));
+                t.start();
+                workers.add(t);
+            }
+            TopK top = c.run();
+            for (Thread t : workers) {
+                t.join();
+            }
+            assertEquals(secret, top.key(top.ranking()[0]));
+            assertEquals(40, leases[0] + leases[1]);
+        }
+    }
+
+    @Test
+    public void checkMalformedResult() throws Exception {
+        KeySpace keys = KeySpace.parse(smallMachine(4), "fix=1:A");
+        File file = File.createTempFile("coordinator", ".ckpt");
+        file.delete();
+        file.deleteOnExit();
+        Checkpoint checkpoint = new Checkpoint(file.toPath(), keys.size(),
+                                               4, 3);
+        try (ServerSocket server = new ServerSocket(0)) {
+            Coordinator c = new Coordinator(server, keys, "ABC",
+                                            checkpoint, 3, 5000);
+            Thread runner = new Thread(c::run);
+            runner.setDaemon(true);
+            runner.start();
+            String[] bad = {"RESULT", "RESULT 0", "RESULT 0 2 5 1.0",
+                            "RESULT 0 x", "RESULT 0 -1"};
+            for (String msg : bad) {
+                try (Socket s = new Socket("localhost",
+                                           server.getLocalPort());
+                     BufferedReader in = new BufferedReader(
+                         new InputStreamReader(s.getInputStream(),
+                                               StandardCharsets.UTF_8));
+                     PrintWriter out = new PrintWriter(
+                         s.getOutputStream(), true,
+                         StandardCharsets.UTF_8)) {
+                    out.println("HELLO");
+                    for (int i = 0; i < 3; i += 1) {
+                        assertNotNull(in.readLine());
+                    }
+                    out.println(msg);
+                    assertNull(in.readLine());
+                }
+            }
+            assertFalse(c.finished());
+            assertEquals(0, checkpoint.completed());
+            server.close();
+            runner.join();
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Chooses how a Machine converts, per configuration.  A configuration
+ *  is everything that fixes the substitution at each position of the
+ *  moving rotors: the rotors in each slot, their ring settings, the
+ *  positions of the rotors that never move, and the plugboard.
+ *
+ *  Every configuration starts in the DIRECT tier, in which each rotor
+ *  converts in turn.  A configuration that is installed often or that
+ *  converts enough characters is promoted to FUSED, in which the
+ *  plugboard and the reflector together with the stationary rotors
+ *  beside it are single tables.  One that converts about as many
+ *  characters as its moving rotors have joint positions is promoted
+ *  to COMPILED, a table of the whole substitution at every joint
+ *  position, if that table is at most COMPILE_LIMIT entries.  Tables
+ *  are built on the executor from copies of the rotors and installed
+ *  by replacing one immutable Tables object, which machines pick up at
+ *  their next flush.  All tiers compute the same substitution.
+ *
+ *  Machines copied from one another share a selector, so a hot daily
+ *  key is counted, and promoted, across all of them.  When rotor
+ *  definitions are reloaded, carry() keeps the counts and tables of
+ *  the configurations whose rotors are all unchanged.
+ *
+ *  At most PROFILE_LIMIT configurations are profiled.  When a new one
+ *  would exceed that, the EVICT least recently installed ones are
+ *  dropped, those in the lowest tier first, so cheap DIRECT profiles go
+ *  before the fused and compiled tables of hot keys.
+ *  @author Andrew Kaplan
+ */
+final class EngineSelector {
+
+    /** Tier converting rotor by rotor. */
+    static final int DIRECT = 0;
+    /** Tier converting through fused plugboard and reflector tables. */
+    static final int FUSED = 1;
+    /** Tier converting through a table of every joint position. */
+    static final int COMPILED = 2;
+
+    /** Characters a machine converts between reports of its counts. */
+    static final int FLUSH = 1 << 10;
+    /** Installs after which a configuration is fused. */
+    static final long FUSE_USES = 4;
+    /** Characters after which a configuration is fused, by default. */
+    static final long FUSE_CHARS = 1 << 12;
+    /** Largest compiled table, in entries. */
+    static final long COMPILE_LIMIT = 1 << 22;
+    /** Most compiled configurations kept at once. */
+    static final int MAX_COMPILED = 8;
+    /** Most configurations profiled at once. */
+    static final int PROFILE_LIMIT = 1 << 12;
+    /** Configurations dropped at once when PROFILE_LIMIT is reached. */
+    static final int EVICT = PROFILE_LIMIT / 4;
+
+    /** A selector promoting on a shared background thread with the
+     *  default thresholds. */
+    EngineSelector() {
+        this(background(), FUSE_CHARS, 1.0);
+    }
+
+    /** A selector that builds tables on EXECUTOR, fusing a
+     *  configuration after FUSEAFTER characters (or FUSE_USES
+     *  installs) and compiling it after COMPILEAFTER characters per
+     *  joint position of its moving rotors. */
+    EngineSelector(Executor executor, long fuseAfter, double compileAfter) {
+        _executor = executor;
+        _fuseAfter = fuseAfter;
+        _compileAfter = compileAfter;
+    }
+
+    /** Return the number of promotions so far to TIER. */
+    long promotions(int tier) {
+        return _promotions[tier].get();
+    }
+
+    /** Return the number of configurations now profiled. */
+    int profiled() {
+        return _profiles.size();
+    }
+
+    /** Return the number of profiled configurations now compiled. */
+    int compiled() {
+        return _compiled.get();
+    }
+
+    /** Return the profile of the configuration described by KEY, whose
+     *  slots hold SLOTS, counting one more install. */
+    Profile profile(String key, Rotor[] slots) {
+        Profile p = _profiles.get(key);
+        if (p == null) {
+            if (_profiles.size() >= PROFILE_LIMIT) {
+                evict();
+            }
+            p = _profiles.computeIfAbsent(key, k -> new Profile(slots));
+        }
+        p._uses.incrementAndGet();
+        p._used = _clock.incrementAndGet();
+        return p;
+    }
+
+    /** If PROFILE_LIMIT configurations are profiled, drop the EVICT
+     *  least recently installed, taking them from the lowest tiers
+     *  first. */
+    private synchronized void evict() {
+        if (_profiles.size() < PROFILE_LIMIT) {
+            return;
+        }
+        String[] keys = _profiles.keySet().toArray(new String[0]);
+        int[] tiers = new int[keys.length];
+        long[] used = new long[keys.length];
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i += 1) {
+            Profile p = _profiles.get(keys[i]);
+            if (p != null) {
+                tiers[i] = p._tables.tier;
+                used[i] = p._used;
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingInt(i -> tiers[i])
+                    .thenComparingLong(i -> used[i]));
+        for (int k = 0; k < EVICT && k < keys.length; k += 1) {
+            Profile p = _profiles.remove(keys[order[k]]);
+            if (p != null) {
+                p.drop();
+            }
+        }
+    }
+
+    /** Return a new selector with my executor and thresholds that
+     *  starts with copies of my profiles of configurations using only
+     *  the rotors named in UNCHANGED. */
+    EngineSelector carry(Set<String> unchanged) {
+        EngineSelector result =
+            new EngineSelector(_executor, _fuseAfter, _compileAfter);
+        result._clock.set(_clock.get());
+        for (Map.Entry<String, Profile> entry : _profiles.entrySet()) {
+            Profile p = entry.getValue();
+            if (unchanged.containsAll(p._names)) {
+                Profile copy = result.new Profile(p);
+                result._profiles.put(entry.getKey(), copy);
+                if (copy._tables.tier == COMPILED) {
+                    copy._counted.set(true);
+                    result._compiled.incrementAndGet();
+                }
+            }
+        }
+        return result;
+    }
+
+    /** The immutable conversion tables of one tier. */
+    static final class Tables {
+
+        /** Tables for TIER. */
+        private Tables(int tier, int[] plug, int[] unplug, int[] reflect,
+                       int leading, int[] slots, int[] full) {
+            this.tier = tier;
+            this.plug = plug;
+            this.unplug = unplug;
+            this.reflect = reflect;
+            this.leading = leading;
+            this.slots = slots;
+            this.full = full;
+        }
+
+        /** My tier. */
+        final int tier;
+        /** The plugboard, or null in the DIRECT tier. */
+        final int[] plug;
+        /** The inverse of plug. */
+        final int[] unplug;
+        /** The reflector and the first leading-1 rotors after it, there
+         *  and back, or null in the DIRECT tier. */
+        final int[] reflect;
+        /** Number of slots, from the left, folded into reflect. */
+        final int leading;
+        /** Slot of each moving rotor, rightmost first, or null unless
+         *  COMPILED. */
+        final int[] slots;
+        /** full[J * N + C] is the conversion of C at joint position J
+         *  of the moving rotors over N characters, or null unless
+         *  COMPILED. */
+        final int[] full;
+    }
+
+    /** The counts and tables of one configuration. */
+    final class Profile {
+
+        /** A profile of the configuration in SLOTS. */
+        private Profile(Rotor[] slots) {
+            _fixed = new int[slots.length];
+            String[] names = new String[slots.length];
+            for (int s = 0; s < slots.length; s += 1) {
+                _fixed[s] = slots[s].rotates() ? -1 : slots[s].setting();
+                names[s] = slots[s].name();
+            }
+            _names = Arrays.asList(names);
+        }
+
+        /** A copy of OTHER, a profile of another selector, sharing its
+         *  tables. */
+        private Profile(Profile other) {
+            _fixed = other._fixed;
+            _names = other._names;
+            _uses.set(other.uses());
+            _chars.set(other.chars());
+            _states = other._states;
+            _tables = other._tables;
+            _used = other._used;
+        }
+
+        /** Return my current tables. */
+        Tables tables() {
+            return _tables;
+        }
+
+        /** Return true iff slot S holds a stationary rotor at a position
+         *  other than POSN. */
+        boolean moved(int s, int posn) {
+            return _fixed[s] >= 0 && _fixed[s] != posn;
+        }
+
+        /** Return the number of installs so far. */
+        long uses() {
+            return _uses.get();
+        }
+
+        /** Return the number of characters converted so far. */
+        long chars() {
+            return _chars.get();
+        }
+
+        /** Add CHARS converted characters to my counts and start a
+         *  promotion if they call for one, building from copies of
+         *  ROTORS, the contents of the slots of the reporting machine,
+         *  and the plugboard PLUGBOARD. */
+        void record(long chars, Rotor[] rotors, Permutation plugboard) {
+            long total = _chars.addAndGet(chars);
+            int tier = _tables.tier;
+            if (tier == DIRECT) {
+                if (total >= _fuseAfter || _uses.get() >= FUSE_USES) {
+                    promote(FUSED, rotors, plugboard);
+                }
+            } else if (tier == FUSED && compilable(rotors)
+                       && total >= _compileAfter * _states) {
+                promote(COMPILED, rotors, plugboard);
+            }
+        }
+
+        /** Return true iff the full table for ROTORS is small enough to
+         *  build, recording the number of joint positions in _states. */
+        private boolean compilable(Rotor[] rotors) {
+            if (_states == 0) {
+                long states = 1;
+                int n = rotors[0].size();
+                for (Rotor r : rotors) {
+                    if (r.rotates()) {
+                        states *= n;
+                        if (states * n > COMPILE_LIMIT) {
+                            states = -1;
+                            break;
+                        }
+                    }
+                }
+                _states = states;
+            }
+            return _states > 0;
+        }
+
+        /** Note that I am no longer profiled: I am promoted no further
+         *  and no longer counted among the compiled configurations. */
+        private void drop() {
+            _dropped = true;
+            if (_counted.getAndSet(false)) {
+                _compiled.decrementAndGet();
+            }
+        }
+
+        /** Build the tables for TIER from copies of ROTORS and
+         *  PLUGBOARD on the executor and install them, unless a
+         *  promotion is already under way or I have been dropped. */
+        private void promote(int tier, Rotor[] rotors,
+                             Permutation plugboard) {
+            if (_dropped) {
+                return;
+            }
+            if (tier == COMPILED && _compiled.get() >= MAX_COMPILED) {
+                return;
+            }
+            if (!_promoting.compareAndSet(false, true)) {
+                return;
+            }
+            Rotor[] copies = new Rotor[rotors.length];
+            for (int s = 0; s < rotors.length; s += 1) {
+                copies[s] = rotors[s].copy();
+                copies[s].setRing(rotors[s].ring());
+                copies[s].set(rotors[s].setting());
+            }
+            try {
+                _executor.execute(() -> {
+                    try {
+                        Tables built = build(tier, copies, plugboard);
+                        if (tier == COMPILED) {
+                            _compiled.incrementAndGet();
+                            _counted.set(true);
+                        }
+                        _tables = built;
+                        if (_dropped && _counted.getAndSet(false)) {
+                            _compiled.decrementAndGet();
+                        }
+                        _promotions[tier].incrementAndGet();
+                    } finally {
+                        _promoting.set(false);
+                    }
+                });
+            } catch (RuntimeException excp) {
+                _promoting.set(false);
+            }
+        }
+
+        /** Stationary position of each slot, or -1 for moving rotors. */
+        private final int[] _fixed;
+        /** Name of the rotor in each slot. */
+        private final List<String> _names;
+        /** Number of installs. */
+        private final AtomicLong _uses = new AtomicLong();
+        /** Number of characters converted. */
+        private final AtomicLong _chars = new AtomicLong();
+        /** True while tables are being built. */
+        private final AtomicBoolean _promoting = new AtomicBoolean();
+        /** True iff I am compiled and counted in _compiled. */
+        private final AtomicBoolean _counted = new AtomicBoolean();
+        /** True once evicted from _profiles. */
+        private volatile boolean _dropped;
+        /** Value of _clock at my last install. */
+        private volatile long _used;
+        /** Joint positions of my moving rotors, -1 if too many to
+         *  compile, or 0 if not yet counted. */
+        private volatile long _states;
+        /** My current tables. */
+        private volatile Tables _tables = NONE;
+    }
+
+    /** Return the tables for TIER of the configuration of ROTORS, the
+     *  contents of a machine's slots (which are disturbed), and
+     *  PLUGBOARD. */
+    static Tables build(int tier, Rotor[] rotors, Permutation plugboard) {
+        int n = rotors[0].size();
+        int leading = 1;
+        while (leading < rotors.length && !rotors[leading].rotates()) {
+            leading += 1;
+        }
+        int[] reflect = new int[n];
+        for (int c = 0; c < n; c += 1) {
+            int x = c;
+            for (int s = leading - 1; s >= 0; s -= 1) {
+                x = rotors[s].convertForward(x);
+            }
+            for (int s = 1; s < leading; s += 1) {
+                x = rotors[s].convertBackward(x);
+            }
+            reflect[c] = x;
+        }
+        int[] plug = plugboard.table(), unplug = plugboard.inverseTable();
+        if (tier == FUSED) {
+            return new Tables(FUSED, plug, unplug, reflect, leading,
+                              null, null);
+        }
+        int count = 0;
+        for (Rotor r : rotors) {
+            count += r.rotates() ? 1 : 0;
+        }
+        int[] slots = new int[count];
+        for (int s = rotors.length - 1, i = 0; s >= 0; s -= 1) {
+            if (rotors[s].rotates()) {
+                slots[i] = s;
+                i += 1;
+            }
+        }
+        int states = 1;
+        for (int i = 0; i < count; i += 1) {
+            states *= n;
+        }
+        int[] full = new int[states * n];
+        int[] digits = new int[count];
+        for (int j = 0; j < states; j += 1) {
+            for (int i = 0; i < count; i += 1) {
+                rotors[slots[i]].set(digits[i]);
+            }
+            for (int c = 0; c < n; c += 1) {
+                int x = plug[c];
+                for (int s = rotors.length - 1; s >= leading; s -= 1) {
+                    x = rotors[s].convertForward(x);
+                }
+                x = reflect[x];
+                for (int s = leading; s < rotors.length; s += 1) {
+                    x = rotors[s].convertBackward(x);
+                }
+                full[j * n + c] = unplug[x];
+            }
+            for (int i = 0; i < count; i += 1) {
+                digits[i] += 1;
+                if (digits[i] < n) {
+                    break;
+                }
+                digits[i] = 0;
+            }
+        }
+        return new Tables(COMPILED, null, null, null, 0, slots, full);
+    }
+
+    /** Return the shared executor on which default selectors build. */
+    private static synchronized ExecutorService background() {
+        if (_background == null) {
+            _background = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "engine-compiler");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+        }
+        return _background;
+    }
+
+    /** The tables of the DIRECT tier. */
+    private static final Tables NONE =
+        new Tables(DIRECT, null, null, null, 0, null, null);
+
+    /** Shared executor for default selectors, or null until needed. */
+    private static ExecutorService _background;
+
+    /** Where tables are built. */
+    private final Executor _executor;
+    /** Characters after which a configuration is fused. */
+    private final long _fuseAfter;
+    /** Characters per joint position after which a configuration is
+     *  compiled. */
+    private final double _compileAfter;
+    /** Number of promotions to each tier. */
+    private final AtomicLong[] _promotions = {
+        new AtomicLong(), new AtomicLong(), new AtomicLong()
+    };
+    /** Number of profiled configurations that are compiled. */
+    private final AtomicInteger _compiled = new AtomicInteger();
+    /** Number of installs so far, ordering profiles by last use. */
+    private final AtomicLong _clock = new AtomicLong();
+    /** Profile of each configuration, by key. */
+    private final ConcurrentHashMap<String, Profile> _profiles =
+        new ConcurrentHashMap<>();
+}
@@ -0,0 +1,140 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** Tests of EngineSelector.
+ *  @author Andrew Kaplan
+ */
+public class EngineSelectorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Return a machine configured by testing/correct/default.conf that
+     *  chooses tiers with ENGINES. */
+    private Machine machine(EngineSelector engines) throws IOException {
+        Machine m = defaultMachine();
+        m.setEngines(engines);
+        return m;
+    }
+
+    /** Return N random upper-case letters. */
+    private String text(int n) {
+        Random random = new Random(41);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            result.append((char) ('A' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    /** A selector that never promotes. */
+    private EngineSelector direct() {
+        return new EngineSelector(Runnable::run, Long.MAX_VALUE,
+                                  Double.POSITIVE_INFINITY);
+    }
+
+    /** A selector that promotes as soon as it can, in the caller. */
+    private EngineSelector eager() {
+        return new EngineSelector(Runnable::run, 0, 0);
+    }
+
+    @Test
+    public void tiersAgreeTest() throws IOException {
+        String settings = "* B Beta I II III AXLE BCDE (YF) (ZH) (QA)";
+        Machine slow = machine(direct()), fast = machine(eager());
+        Main.setUp(slow, settings);
+        Main.setUp(fast, settings);
+        String msg = text(5000);
+        assertEquals(slow.convert(msg), fast.convert(msg));
+        assertEquals(EngineSelector.DIRECT, slow.tier());
+        assertEquals(EngineSelector.COMPILED, fast.tier());
+        assertEquals(1, fast.engines().promotions(EngineSelector.FUSED));
+        assertEquals(1, fast.engines().promotions(EngineSelector.COMPILED));
+    }
+
+    @Test
+    public void fusedTierTest() throws IOException {
+        String settings = "* B Beta I II III AXLE (YF) (ZH)";
+        Machine slow = machine(direct());
+        Machine fast = machine(new EngineSelector(Runnable::run, 0,
+                                                  Double.POSITIVE_INFINITY));
+        Main.setUp(slow, settings);
+        Main.setUp(fast, settings);
+        String msg = text(3000);
+        assertEquals(slow.convert(msg), fast.convert(msg));
+        assertEquals(EngineSelector.FUSED, fast.tier());
+    }
+
+    @Test
+    public void stationaryRotorTest() throws IOException {
+        Machine slow = machine(direct()), fast = machine(eager());
+        String msg = text(2000);
+        for (String posn : new String[] {"AXLE", "QXLE", "AXLE"}) {
+            String settings = "* B Beta I II III " + posn + " (YF)";
+            Main.setUp(slow, settings);
+            Main.setUp(fast, settings);
+            assertEquals(slow.convert(msg), fast.convert(msg));
+            slow.setRotors(posn.replace('X', 'Y'));
+            fast.setRotors(posn.replace('X', 'Y'));
+            assertEquals(slow.convert(msg), fast.convert(msg));
+        }
+        assertEquals(2, fast.engines().profiled());
+    }
+
+    @Test
+    public void sharedAcrossCopiesTest() throws IOException {
+        Machine m = machine(eager());
+        Machine copy = m.copy();
+        assertSame(m.engines(), copy.engines());
+        Main.setUp(m, "* B Beta I II III AAAA");
+        m.convert(text(100));
+        Main.setUp(copy, "* B Beta I II III AAAA");
+        assertEquals(1, m.engines().profiled());
+        assertEquals(1, m.engines().promotions(EngineSelector.FUSED));
+    }
+
+    @Test
+    public void evictionTest() {
+        EngineSelector engines = eager();
+        Rotor[] slots = {
+            new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)),
+            new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER),
+                            "Q"),
+            new MovingRotor("II", new Permutation(NAVALA.get("II"), UPPER),
+                            "E"),
+            new MovingRotor("III",
+                            new Permutation(NAVALA.get("III"), UPPER), "V")
+        };
+        Permutation plugboard = new Permutation("", UPPER);
+        EngineSelector.Profile hot = engines.profile("hot", slots);
+        hot.record(1, slots, plugboard);
+        hot.record(1, slots, plugboard);
+        assertEquals(EngineSelector.COMPILED, hot.tables().tier);
+        assertEquals(1, engines.compiled());
+
+        EngineSelector.Profile first = engines.profile("k0", slots);
+        EngineSelector.Profile second = engines.profile("k1", slots);
+        for (int i = 2; engines.profiled() < EngineSelector.PROFILE_LIMIT;
+             i += 1) {
+            engines.profile("k" + i, slots);
+        }
+        assertSame(first, engines.profile("k0", slots));
+        engines.profile("new", slots);
+        assertEquals(EngineSelector.PROFILE_LIMIT - EngineSelector.EVICT + 1,
+                     engines.profiled());
+        assertEquals(1, engines.compiled());
+        assertSame(hot, engines.profile("hot", slots));
+        assertSame(first, engines.profile("k0", slots));
+        assertNotSame(second, engines.profile("k1", slots));
+    }
+}
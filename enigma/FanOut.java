@@ -0,0 +1,207 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/** Converts one message under many candidate settings in a single pass
+ *  over it.  The message is read and checked once, into alphabet
+ *  indices; each candidate then has its own copy of the machine, set up
+ *  once, and they all advance together through the message a tile of
+ *  TILE characters at a time.  Candidates are cut into groups of GROUP,
+ *  converted in parallel; within a group each tile is converted by
+ *  every candidate in turn, so the tile and the group's one output
+ *  buffer stay in cache while the machines take turns.  The cost of
+ *  reading the message is the same however many candidates there are.
+ *
+ *  Each candidate's output goes, a tile at a time and in order, to a
+ *  Sink, which may print it, keep it, or score it (see score()).
+ *  @author Andrew Kaplan
+ */
+final class FanOut {
+
+    /** Characters converted by each candidate in one turn. */
+    static final int TILE = 1 << 12;
+    /** Candidates converted together by one thread. */
+    static final int GROUP = 16;
+
+    /** Receives the output of candidates. */
+    interface Sink {
+        /** Accept TEXT[FROM .. TO-1], the next characters (as alphabet
+         *  indices) of the output of candidate CANDIDATE.  The calls for
+         *  one candidate come from one thread, in order; calls for
+         *  different candidates may come from different threads at
+         *  once.  TEXT is reused once the call returns. */
+        void accept(int candidate, int[] text, int from, int to);
+    }
+
+    /** A fan-out of the message INPUT, in alphabet indices, through
+     *  copies of TEMPLATE. */
+    FanOut(Machine template, int[] input) {
+        _template = template;
+        _input = input;
+    }
+
+    /** Run ARGS, which are CONFIG SETTINGS INPUT [OUTPUT].  SETTINGS
+     *  holds one setting line per candidate and INPUT the message, as
+     *  lines of characters of the alphabet (whitespace is ignored).
+     *  For each candidate, its setting line and its conversion of the
+     *  message in groups of five are printed to OUTPUT, or the standard
+     *  output.  Return true. */
+    static boolean main(String... args) {
+        if (args.length < 3 || args.length > 4) {
+            throw error("Usage: --fanout CONFIG SETTINGS INPUT [OUTPUT]");
+        }
+        Machine template;
+        List<String> lines = new ArrayList<>();
+        int[] input;
+        try {
+            template = Main.readConfig(new Scanner(new File(args[0])));
+            Scanner settings = new Scanner(new File(args[1]));
+            while (settings.hasNextLine()) {
+                String line = settings.nextLine().trim();
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+            input = read(template.alphabet(), new Scanner(new File(args[2])));
+        } catch (IOException excp) {
+            throw error("could not open %s", excp.getMessage());
+        }
+        List<Settings> candidates = new ArrayList<>();
+        for (String line : lines) {
+            if (!line.startsWith("*")) {
+                throw error("Invalid settings file");
+            }
+            candidates.add(Settings.parse(template, line));
+        }
+        Alphabet alpha = template.alphabet();
+        StringBuilder[] outputs = new StringBuilder[candidates.size()];
+        for (int i = 0; i < outputs.length; i += 1) {
+            outputs[i] = new StringBuilder(input.length + input.length / 5);
+        }
+        new FanOut(template, input).run(candidates, (c, text, from, to) -> {
+            StringBuilder out = outputs[c];
+            for (int j = from; j < to; j += 1) {
+                if (out.length() % 6 == 5) {
+                    out.append(' ');
+                }
+                out.append(alpha.toChar(text[j]));
+            }
+        });
+        PrintStream output = System.out;
+        if (args.length > 3) {
+            try {
+                output = new PrintStream(new File(args[3]));
+            } catch (IOException excp) {
+                throw error("could not open %s", args[3]);
+            }
+        }
+        for (int i = 0; i < outputs.length; i += 1) {
+            output.println(lines.get(i));
+            output.println(outputs[i]);
+        }
+        output.flush();
+        if (output != System.out) {
+            output.close();
+        }
+        return true;
+    }
+
+    /** Return the characters of the lines of INPUT, which must all be
+     *  in ALPHA apart from whitespace, as indices of ALPHA. */
+    static int[] read(Alphabet alpha, Scanner input) {
+        int[] result = new int[1 << 10];
+        int n = 0;
+        while (input.hasNextLine()) {
+            String line = input.nextLine();
+            for (int i = 0; i < line.length(); i += 1) {
+                char c = line.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, 2 * n);
+                }
+                result[n] = alpha.toInt(c);
+                n += 1;
+            }
+        }
+        input.close();
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the length of my message. */
+    int length() {
+        return _input.length;
+    }
+
+    /** Convert my message under each of CANDIDATES, sending candidate
+     *  I's output to SINK as candidate I. */
+    void run(List<Settings> candidates, Sink sink) {
+        int n = candidates.size();
+        IntStream.range(0, (n + GROUP - 1) / GROUP).parallel()
+            .forEach(g -> group(candidates, g * GROUP,
+                                Math.min(n, (g + 1) * GROUP), sink));
+    }
+
+    /** Return the sum of the log10 probabilities under TABLE of the
+     *  n-grams of my message's conversion under each of CANDIDATES. */
+    double[] score(List<Settings> candidates, NgramTable table) {
+        int k = table.n() - 1, n = candidates.size();
+        double[] scores = new double[n];
+        int[][] tails = new int[n][2 * k];
+        int[] kept = new int[n];
+        run(candidates, (c, text, from, to) -> {
+            int[] tail = tails[c];
+            int add = Math.min(k, to - from);
+            System.arraycopy(text, from, tail, kept[c], add);
+            scores[c] += table.score(text, from, to)
+                + table.score(tail, 0, kept[c] + add);
+            int keep = Math.min(k, kept[c] + to - from);
+            if (to - from >= k) {
+                System.arraycopy(text, to - k, tail, 0, k);
+            } else {
+                System.arraycopy(tail, kept[c] + add - keep, tail, 0, keep);
+            }
+            kept[c] = keep;
+        });
+        return scores;
+    }
+
+    /** Convert my message under CANDIDATES[LO .. HI-1], tile by tile,
+     *  sending the output to SINK. */
+    private void group(List<Settings> candidates, int lo, int hi,
+                       Sink sink) {
+        Machine[] machines = new Machine[hi - lo];
+        for (int i = lo; i < hi; i += 1) {
+            machines[i - lo] = _template.copy();
+            candidates.get(i).apply(machines[i - lo]);
+        }
+        int[] buf = new int[Math.min(TILE, _input.length)];
+        for (int from = 0; from < _input.length; from += TILE) {
+            int to = Math.min(_input.length, from + TILE);
+            for (int i = lo; i < hi; i += 1) {
+                Machine m = machines[i - lo];
+                for (int j = from; j < to; j += 1) {
+                    m.step();
+                    buf[j - from] = m.convert(_input[j]);
+                }
+                sink.accept(i, buf, 0, to - from);
+            }
+        }
+    }
+
+    /** Machine whose copies convert. */
+    private final Machine _template;
+    /** The message, as alphabet indices. */
+    private final int[] _input;
+}
@@ -0,0 +1,103 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import static enigma.TestUtils.*;
+
+/** Tests of FanOut.
+ *  @author Andrew Kaplan
+ */
+public class FanOutTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Return N random upper-case letters. */
+    private String text(int n) {
+        Random random = new Random(49);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            result.append((char) ('A' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    /** Return 40 candidate setting lines. */
+    private List<String> lines() {
+        List<String> result = new ArrayList<>();
+        String[] orders = {"I II III", "IV V VI", "III I VIII"};
+        for (int i = 0; i < 40; i += 1) {
+            result.add("* B Beta " + orders[i % 3] + " A"
+                       + (char) ('A' + i % 26) + "X" + (char) ('Z' - i % 7)
+                       + " (AQ) (" + (char) ('B' + i % 20) + "Z)");
+        }
+        return result;
+    }
+
+    @Test
+    public void agreesWithMainTest() throws IOException {
+        Machine template = defaultMachine();
+        String msg = text(3 * FanOut.TILE + 17);
+        int[] input = FanOut.read(template.alphabet(),
+                                  new Scanner(msg.substring(0, 100) + "\n  "
+                                              + msg.substring(100)));
+        assertEquals(msg.length(), input.length);
+        List<String> lines = lines();
+        List<Settings> candidates = new ArrayList<>();
+        for (String line : lines) {
+            candidates.add(Settings.parse(template, line));
+        }
+        StringBuilder[] outputs = new StringBuilder[lines.size()];
+        for (int i = 0; i < outputs.length; i += 1) {
+            outputs[i] = new StringBuilder();
+        }
+        FanOut fan = new FanOut(template, input);
+        fan.run(candidates, (c, text, from, to) -> {
+            for (int j = from; j < to; j += 1) {
+                outputs[c].append(template.alphabet().toChar(text[j]));
+            }
+        });
+        Machine m = defaultMachine();
+        for (int i = 0; i < lines.size(); i += 1) {
+            Main.setUp(m, lines.get(i));
+            assertEquals(m.convert(msg), outputs[i].toString());
+        }
+    }
+
+    @Test
+    public void scoreTest() throws IOException {
+        Machine template = defaultMachine();
+        String msg = text(2 * FanOut.TILE + 1);
+        int[] input = FanOut.read(template.alphabet(), new Scanner(msg));
+        NgramTable table = NgramTable.fromText(3, 26, input, input.length);
+        List<Settings> candidates = new ArrayList<>();
+        for (String line : lines()) {
+            candidates.add(Settings.parse(template, line));
+        }
+        double[] scores = new FanOut(template, input)
+            .score(candidates, table);
+        Machine m = defaultMachine();
+        int[] out = new int[input.length];
+        for (int i = 0; i < scores.length; i += 1) {
+            candidates.get(i).apply(m);
+            m.convert(input, 0, input.length, out);
+            assertEquals(table.score(out, 0, out.length), scores[i],
+                         1e-6 * Math.abs(scores[i]));
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void badInputTest() throws IOException {
+        FanOut.read(defaultMachine().alphabet(), new Scanner("ABC\nDE1F"));
+    }
+}
@@ -0,0 +1,75 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** Letter-statistics fitness measures over int[] texts of alphabet
+ *  indices: index of coincidence and chi-squared.  N-gram log
+ *  probabilities are provided by NgramTable.  Methods that need letter
+ *  counts take a caller-supplied COUNTS array (of length alphabet size)
+ *  so that search loops allocate nothing.
+ *  @author Andrew Kaplan
+ */
+final class Fitness {
+
+    /** Not instantiable. */
+    private Fitness() {
+    }
+
+    /** Store in COUNTS the number of occurrences of each alphabet index
+     *  in TEXT[FROM .. TO-1]. */
+    static void count(int[] text, int from, int to, int[] counts) {
+        Arrays.fill(counts, 0);
+        for (int i = from; i < to; i += 1) {
+            counts[text[i]] += 1;
+        }
+    }
+
+    /** Return the index of coincidence of a text of TOTAL characters
+     *  with letter counts COUNTS: the probability that two characters
+     *  drawn at random without replacement are equal. */
+    static double indexOfCoincidence(int[] counts, int total) {
+        if (total < 2) {
+            return 0.0;
+        }
+        long pairs = 0;
+        for (int c : counts) {
+            pairs += (long) c * (c - 1);
+        }
+        return (double) pairs / ((double) total * (total - 1));
+    }
+
+    /** Return the index of coincidence of TEXT[FROM .. TO-1], using
+     *  COUNTS as scratch. */
+    static double indexOfCoincidence(int[] text, int from, int to,
+                                     int[] counts) {
+        count(text, from, to, counts);
+        return indexOfCoincidence(counts, to - from);
+    }
+
+    /** Return the chi-squared statistic of letter counts COUNTS, from a
+     *  text of TOTAL characters, against the letter probabilities
+     *  EXPECTED.  Letters of probability 0 are ignored. */
+    static double chiSquared(int[] counts, int total, float[] expected) {
+        double chi = 0.0;
+        for (int i = 0; i < counts.length; i += 1) {
+            double e = expected[i] * (double) total;
+            if (e > 0) {
+                double d = counts[i] - e;
+                chi += d * d / e;
+            }
+        }
+        return chi;
+    }
+
+    /** Return the letter probabilities of UNIGRAMS, a table of 1-grams. */
+    static float[] frequencies(NgramTable unigrams) {
+        if (unigrams.n() != 1) {
+            throw EnigmaException.error("frequencies need a 1-gram table");
+        }
+        float[] result = new float[unigrams.entries()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (float) Math.pow(10, unigrams.get(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,365 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+
+import static enigma.EnigmaException.*;
+
+/** An in-process test and throughput harness.  It runs every case
+ *  through Main in one JVM: a file F.in with a matching F.out must
+ *  produce that output (compared as by diff -b), and one without must
+ *  be rejected with an EnigmaException, the checks testing/test-correct
+ *  and test-error make with a JVM per case.  Generated round-trip cases
+ *  of CORPUS_SIZES characters are added, whose output must decrypt
+ *  back to their input.
+ *
+ *  Each case is run untimed for WARMUP_MILLIS and then timed over REPS
+ *  batches of runs lasting at least BATCH_MILLIS each; the best rate in
+ *  characters per second and the bytes allocated per character (where
+ *  the JVM can measure allocation per thread) are reported and
+ *  compared with a baseline file of lines
+ *
+ *      NAME CHARS-PER-SECOND BYTES-PER-CHAR
+ *
+ *  A case slower or more allocating than its baseline by more than
+ *  TOLERANCE is flagged as a regression.  The baseline is written if it
+ *  does not exist, or rewritten on request.
+ *  @author Andrew Kaplan
+ */
+class Harness {
+
+    /** Sizes in characters of the generated cases. */
+    static final int[] CORPUS_SIZES = { 10_000, 100_000, 1_000_000 };
+
+    /** Time for which each case is run untimed. */
+    static final long WARMUP_MILLIS = 200;
+
+    /** Number of timed batches of runs of each case. */
+    static final int REPS = 5;
+
+    /** Shortest timed batch. */
+    static final long BATCH_MILLIS = 50;
+
+    /** Fraction by which a case may fall behind its baseline. */
+    static final double TOLERANCE = 0.25;
+
+    /** Characters per generated message line. */
+    private static final int LINE = 60;
+
+    /** Run ARGS, which are [-u] BASELINE CASE..., where each CASE is an
+     *  .in file.  With -u, the baseline is rewritten.  Return true iff
+     *  every case passed and none regressed. */
+    static boolean main(String... args) {
+        boolean update = args.length > 0 && args[0].equals("-u");
+        int first = update ? 1 : 0;
+        if (args.length < first + 2) {
+            throw error("Usage: --harness [-u] BASELINE CASE...");
+        }
+        Harness h = new Harness(System.out);
+        Path config = null;
+        for (int i = first + 1; i < args.length; i += 1) {
+            Path in = Paths.get(args[i]);
+            h.addFile(in);
+            if (config == null && Files.exists(outputOf(in))) {
+                config = configOf(in);
+            }
+        }
+        if (config != null) {
+            h.addCorpus(config);
+        }
+        return h.run(Paths.get(args[first]), update);
+    }
+
+    /** A harness reporting on OUT. */
+    Harness(PrintStream out) {
+        _out = out;
+    }
+
+    /** Add the case whose input is the file IN. */
+    void addFile(Path in) {
+        String name = in.getParent() == null ? in.toString()
+            : in.getParent().getFileName() + "/" + in.getFileName();
+        Path expected = outputOf(in);
+        _cases.add(new Case(name, configOf(in), read(in),
+                            Files.exists(expected) ? read(expected)
+                            : null));
+    }
+
+    /** Add generated round-trip cases of CORPUS_SIZES characters using
+     *  the configuration CONFIG. */
+    void addCorpus(Path config) {
+        Machine m = configure(read(config));
+        String setting = "* " + new KeySpace(m).describe(0);
+        Alphabet alpha = m.alphabet();
+        SplittableRandom random = new SplittableRandom(CORPUS_SIZES.length);
+        for (int size : CORPUS_SIZES) {
+            StringBuilder text = new StringBuilder(setting).append('\n');
+            for (int i = 0; i < size; i += 1) {
+                text.append(alpha.toChar(random.nextInt(alpha.size())));
+                if (i % LINE == LINE - 1) {
+                    text.append('\n');
+                }
+            }
+            text.append('\n');
+            _cases.add(new Case("corpus/" + size, config, text.toString(),
+                                null, setting));
+        }
+    }
+
+    /** Run every case, comparing rates with the baseline file BASELINE
+     *  and writing it if it is missing or UPDATE.  Return true iff every
+     *  case passed and none regressed. */
+    boolean run(Path baseline, boolean update) {
+        LinkedHashMap<String, double[]> base = readBaseline(baseline);
+        StringBuilder record = new StringBuilder();
+        boolean ok = true;
+        for (Case c : _cases) {
+            String failure = c.check();
+            if (failure != null) {
+                _out.printf("%-24s ERROR (%s)%n", c._name, failure);
+                ok = false;
+                continue;
+            }
+            double[] measured = c.measure();
+            double[] expected = base.get(c._name);
+            String verdict = "OK";
+            if (expected != null
+                && (measured[0] < expected[0] * (1 - TOLERANCE)
+                    || measured[1] > expected[1] * (1 + TOLERANCE)
+                                     + 1)) {
+                verdict = String.format("REGRESSION (baseline %.0f c/s, "
+                                        + "%.1f B/c)", expected[0],
+                                        expected[1]);
+                ok = false;
+            }
+            _out.printf("%-24s %12.0f chars/s %8.1f bytes/char  %s%n",
+                        c._name, measured[0], measured[1], verdict);
+            record.append(String.format("%s %.0f %.2f%n", c._name,
+                                        measured[0], measured[1]));
+        }
+        _out.flush();
+        if (update || base.isEmpty()) {
+            try {
+                Files.write(baseline, record.toString()
+                            .getBytes(StandardCharsets.UTF_8));
+            } catch (IOException excp) {
+                throw error("could not write %s", baseline);
+            }
+        }
+        return ok;
+    }
+
+    /** Return the baseline recorded in FILE, or an empty one if it does
+     *  not exist. */
+    private static LinkedHashMap<String, double[]> readBaseline(Path file) {
+        LinkedHashMap<String, double[]> result = new LinkedHashMap<>();
+        if (!Files.exists(file)) {
+            return result;
+        }
+        try {
+            for (String line : Files.readAllLines(file)) {
+                String[] words = line.trim().split("\\s+");
+                if (words.length == 3) {
+                    result.put(words[0], new double[] {
+                        Double.parseDouble(words[1]),
+                        Double.parseDouble(words[2]) });
+                }
+            }
+        } catch (IOException | NumberFormatException excp) {
+            throw error("bad baseline file %s", file);
+        }
+        return result;
+    }
+
+    /** Return the expected-output file of the case input IN. */
+    private static Path outputOf(Path in) {
+        return in.resolveSibling(in.getFileName().toString()
+                                 .replaceAll("\\.in$", "") + ".out");
+    }
+
+    /** Return the configuration of the case input IN: F.conf if it
+     *  exists, and otherwise default.conf in the same directory. */
+    private static Path configOf(Path in) {
+        Path own = in.resolveSibling(in.getFileName().toString()
+                                     .replaceAll("\\.in$", "") + ".conf");
+        return Files.exists(own) ? own : in.resolveSibling("default.conf");
+    }
+
+    /** Return the contents of FILE. */
+    private static String read(Path file) {
+        try {
+            return new String(Files.readAllBytes(file),
+                              StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("could not open %s", file);
+        }
+    }
+
+    /** Return the machine configured by the text CONFIG. */
+    private static Machine configure(String config) {
+        return Main.readConfig(new Scanner(config));
+    }
+
+    /** Return the output of Main for the configuration CONFIG and the
+     *  input INPUT. */
+    private static String runMain(String config, String input) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, false,
+                                          StandardCharsets.UTF_8);
+        new Main(configure(config), new Scanner(input), out)
+            .processMessages();
+        out.flush();
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Return TEXT's lines with runs of whitespace made single spaces
+     *  and trailing whitespace and empty trailing lines removed, so that
+     *  equal results compare as diff -b would. */
+    private static List<String> normalize(String text) {
+        ArrayList<String> lines = new ArrayList<>();
+        for (String line : text.split("\n", -1)) {
+            lines.add(line.replaceAll("\\s+", " ").stripTrailing());
+        }
+        while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+            lines.remove(lines.size() - 1);
+        }
+        return lines;
+    }
+
+    /** One case. */
+    private static final class Case {
+
+        /** The case NAME with configuration file CONFIG, INPUT, and
+         *  EXPECTED output (null if the input must be rejected). */
+        Case(String name, Path config, String input, String expected) {
+            this(name, config, input, expected, null);
+        }
+
+        /** The case NAME with configuration file CONFIG and INPUT,
+         *  whose output, after the settings line SETTING, must decrypt
+         *  back to INPUT if SETTING is not null, and otherwise must be
+         *  EXPECTED (or, if that is null, must be rejected). */
+        Case(String name, Path config, String input, String expected,
+             String setting) {
+            _name = name;
+            _config = read(config);
+            _input = input;
+            _expected = expected;
+            _setting = setting;
+            _chars = input.replaceAll("(?m)^\\*.*$|\\s", "").length();
+        }
+
+        /** Return null if I pass, and otherwise a description of the
+         *  failure. */
+        String check() {
+            String output;
+            try {
+                output = runMain(_config, _input);
+            } catch (EnigmaException excp) {
+                return _expected == null && _setting == null ? null
+                    : "unexpected error: " + excp.getMessage();
+            } catch (RuntimeException excp) {
+                return "uncaught exception " + excp;
+            }
+            if (_setting != null) {
+                String back;
+                try {
+                    back = runMain(_config, _setting + "\n" + output);
+                } catch (EnigmaException excp) {
+                    return "round trip failed: " + excp.getMessage();
+                }
+                return strip(back).equals(strip(_input)) ? null
+                    : "round trip differs";
+            } else if (_expected == null) {
+                return "did not report error";
+            }
+            return normalize(output).equals(normalize(_expected)) ? null
+                : "output";
+        }
+
+        /** Return my best rate in characters per second and the bytes
+         *  allocated per character in that batch (0 if the JVM cannot
+         *  tell). */
+        double[] measure() {
+            long until = System.nanoTime() + WARMUP_MILLIS * 1_000_000;
+            do {
+                attempt();
+            } while (System.nanoTime() < until);
+            double best = 0, bytes = Double.MAX_VALUE;
+            for (int i = 0; i < REPS; i += 1) {
+                long allocated0 = allocated();
+                long t0 = System.nanoTime(), elapsed;
+                long runs = 0;
+                do {
+                    attempt();
+                    runs += 1;
+                    elapsed = System.nanoTime() - t0;
+                } while (elapsed < BATCH_MILLIS * 1_000_000);
+                long allocated = allocated() - allocated0;
+                double chars = (double) runs * Math.max(1, _chars);
+                best = Math.max(best, chars * 1e9 / elapsed);
+                bytes = Math.min(bytes, allocated / chars);
+            }
+            return new double[] { best, bytes };
+        }
+
+        /** Run me once, ignoring the result. */
+        private void attempt() {
+            try {
+                runMain(_config, _input);
+            } catch (EnigmaException excp) {
+                return;
+            }
+        }
+
+        /** Return the message letters of TEXT, without settings lines
+         *  or whitespace. */
+        private static String strip(String text) {
+            return text.replaceAll("(?m)^\\*.*$|\\s", "");
+        }
+
+        /** Name reported. */
+        private final String _name;
+        /** Configuration text. */
+        private final String _config;
+        /** Input text. */
+        private final String _input;
+        /** Expected output, or null. */
+        private final String _expected;
+        /** Settings line of a round-trip case, or null. */
+        private final String _setting;
+        /** Number of message characters in _input. */
+        private final int _chars;
+    }
+
+    /** Return the bytes allocated so far by this thread, or 0 if that
+     *  cannot be measured. */
+    private static long allocated() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /** Where results are reported. */
+    private final PrintStream _out;
+    /** The cases, in order. */
+    private final ArrayList<Case> _cases = new ArrayList<>();
+}
@@ -0,0 +1,52 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the in-process Harness.
+ *  @author Andrew Kaplan
+ */
+public class HarnessTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    @Test
+    public void baselineTest() throws IOException {
+        Path baseline = Files.createTempFile("harness", ".baseline");
+        Files.delete(baseline);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true,
+                                          StandardCharsets.UTF_8);
+        try {
+            Harness h = new Harness(out);
+            h.addFile(testing("correct/trivial.in"));
+            h.addFile(testing("error/trivialerr.in"));
+            assertTrue(h.run(baseline, false));
+            assertTrue(Files.exists(baseline));
+            assertEquals(2, Files.readAllLines(baseline).size());
+
+            Files.write(baseline, "correct/trivial.in 1e15 0\n"
+                        .getBytes(StandardCharsets.UTF_8));
+            Harness slow = new Harness(out);
+            slow.addFile(testing("correct/trivial.in"));
+            assertFalse(slow.run(baseline, false));
+            assertTrue(bytes.toString(StandardCharsets.UTF_8)
+                       .contains("REGRESSION"));
+        } finally {
+            Files.deleteIfExists(baseline);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** An interactive front end that converts each character as it
+ *  arrives, for teletype-style use.  Input is read in chunks of at most
+ *  CHUNK characters, a read returning as soon as any characters are
+ *  available rather than waiting for a full line, and the output for a
+ *  chunk is flushed as soon as the chunk is converted.
+ *
+ *  The input has the format Main reads, and the output matches Main's
+ *  character for character: setting lines (those starting with "*") are
+ *  collected and applied at their end of line, message characters are
+ *  converted one at a time in groups of five (a blank is written before
+ *  the sixth, eleventh, ... letter of a line, so no group is ever
+ *  taken back), whitespace within a line is skipped, and each input
+ *  line ends an output line.  A blank line's newline is held back until
+ *  a later line has something on it, since Main writes nothing for the
+ *  blank lines at the end of its input but the whitespace on them.
+ *  Each character is stepped and converted
+ *  exactly as Machine.convert(String) does, so the machine is in the
+ *  same state after a line as on the batch path.
+ *
+ *  A terminal delivers keystrokes only once its line discipline does:
+ *  for per-keystroke output from a terminal, put it in non-canonical
+ *  mode (e.g., stty -icanon) first.
+ *  @author Andrew Kaplan
+ */
+final class Interactive {
+
+    /** Largest number of characters read at once. */
+    static final int CHUNK = 64;
+
+    /** A front end converting INPUT with MACHINE and writing the
+     *  results to OUTPUT. */
+    Interactive(Machine machine, Reader input, Writer output) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _input = input;
+        _output = output;
+    }
+
+    /** Run ARGS, which are CONFIG: convert the standard input
+     *  interactively with the machine CONFIG describes.  Return true. */
+    static boolean main(String... args) {
+        if (args.length != 1) {
+            throw error("Usage: --interactive CONFIG");
+        }
+        Machine m;
+        try {
+            m = Main.readConfig(new Scanner(new File(args[0])));
+        } catch (IOException excp) {
+            throw error("could not open %s", args[0]);
+        }
+        new Interactive(m, new InputStreamReader(System.in),
+                        new OutputStreamWriter(System.out)).run();
+        return true;
+    }
+
+    /** Convert my input until it ends. */
+    void run() {
+        char[] buf = new char[CHUNK];
+        try {
+            int n;
+            while ((n = _input.read(buf)) >= 0) {
+                for (int i = 0; i < n; i += 1) {
+                    accept(buf[i]);
+                }
+                _output.flush();
+            }
+            finish();
+            _output.flush();
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Process the input character C, writing any output it produces
+     *  (unflushed). */
+    void accept(char c) throws IOException {
+        if (_setting != null) {
+            if (c == '\n') {
+                endSetting();
+            } else {
+                _setting.append(c);
+            }
+        } else if (c == '\n' && !_lineStart) {
+            _output.write('\n');
+            _lineStart = true;
+            _letters = 0;
+        } else if (Character.isWhitespace(c)) {
+            if (_lineStart) {
+                _blank.append(c);
+            }
+        } else if (_lineStart && c == '*') {
+            endBlank();
+            _setting = new StringBuilder().append(c);
+            _lineStart = false;
+        } else {
+            endBlank();
+            if (!_configured) {
+                throw error("Invalid input file");
+            } else if (!_alphabet.contains(c)) {
+                throw error("Character %s not in alphabet", c);
+            }
+            if (_letters > 0 && _letters % 5 == 0) {
+                _output.write(' ');
+            }
+            _machine.step();
+            _output.write(_alphabet.toChar(
+                _machine.convert(_alphabet.toInt(c))));
+            _letters += 1;
+            _lineStart = false;
+        }
+    }
+
+    /** Complete the line in progress at the end of the input. */
+    void finish() throws IOException {
+        if (_setting != null) {
+            endSetting();
+        } else if (!_lineStart) {
+            _output.write('\n');
+            _lineStart = true;
+            _letters = 0;
+        } else {
+            for (int i = 0; i < _blank.length(); i += 1) {
+                char c = _blank.charAt(i);
+                if (c != '\n' && c != '\r') {
+                    _output.write(c);
+                }
+            }
+            _blank.setLength(0);
+        }
+    }
+
+    /** Write the newlines of the blank lines held in _blank, now that a
+     *  line with something on it follows them. */
+    private void endBlank() throws IOException {
+        for (int i = 0; i < _blank.length(); i += 1) {
+            if (_blank.charAt(i) == '\n') {
+                _output.write('\n');
+            }
+        }
+        _blank.setLength(0);
+    }
+
+    /** Apply the setting line collected in _setting. */
+    private void endSetting() {
+        Main.setUp(_machine, _setting.toString());
+        _setting = null;
+        _configured = true;
+        _lineStart = true;
+        _letters = 0;
+    }
+
+    /** Machine converting. */
+    private final Machine _machine;
+    /** Its alphabet. */
+    private final Alphabet _alphabet;
+    /** Source of characters. */
+    private final Reader _input;
+    /** Destination of converted characters. */
+    private final Writer _output;
+    /** The setting line being read, or null if not in one. */
+    private StringBuilder _setting;
+    /** The whitespace, newlines included, read since the last line with
+     *  something on it, while nothing else has been read. */
+    private final StringBuilder _blank = new StringBuilder();
+    /** True iff nothing but whitespace has been read on this line. */
+    private boolean _lineStart = true;
+    /** True iff a setting line has been applied. */
+    private boolean _configured;
+    /** Number of letters converted on this line. */
+    private int _letters;
+}
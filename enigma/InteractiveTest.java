@@ -0,0 +1,108 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Scanner;
+
+import static enigma.TestUtils.*;
+
+/** Tests of Interactive.
+ *  @author Andrew Kaplan
+ */
+public class InteractiveTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** A reader of TEXT that returns one character per read, like a
+     *  terminal in non-canonical mode. */
+    private static final class Keys extends Reader {
+        /** Keys of TEXT. */
+        Keys(String text) {
+            _text = text;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) {
+            if (_pos == _text.length()) {
+                return -1;
+            }
+            buf[off] = _text.charAt(_pos);
+            _pos += 1;
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /** The text. */
+        private final String _text;
+        /** Next character. */
+        private int _pos;
+    }
+
+    /** Check that Interactive converts INPUT exactly as Main does. */
+    private void checkMatches(String input) throws IOException {
+        Machine batch = defaultMachine();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(expected);
+        new Main(batch, new Scanner(input), out).processMessages();
+        out.flush();
+
+        Machine live = defaultMachine();
+        StringWriter actual = new StringWriter();
+        new Interactive(live, new Keys(input), actual).run();
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(batch.snapshot(), live.snapshot());
+    }
+
+    @Test
+    public void matchesBatchTest() throws IOException {
+        checkMatches(new String(Files.readAllBytes(
+            testing("correct/trivial1.in"))).trim() + "\n"
+            + "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+            + "FROM his\n\n  SHOULDER Hiawatha\n".toUpperCase()
+            + "TOOK");
+    }
+
+    @Test
+    public void blankLinesTest() throws IOException {
+        String setting = "* B Beta I II III AAAA\n";
+        checkMatches(setting + "HELLO WORLD\n\n\n");
+        checkMatches("\n\n" + setting + "HELLO\n\n \nWORLD\n \t\n  ");
+        checkMatches(setting + "HELLO\n\n" + setting + "\nHELLO\n");
+    }
+
+    @Test
+    public void perKeystrokeTest() throws IOException {
+        StringWriter out = new StringWriter();
+        Interactive front = new Interactive(defaultMachine(), new Keys(""), out);
+        for (char c : "* B Beta I II III AAAA\nHELLO WOR".toCharArray()) {
+            front.accept(c);
+        }
+        assertEquals("ILBDA AMT", out.toString());
+        for (char c : "LD\nHE".toCharArray()) {
+            front.accept(c);
+        }
+        assertEquals("ILBDA AMTAZ\n", out.toString().substring(0, 12));
+        front.finish();
+        assertTrue(out.toString().endsWith("\n"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void unconfiguredTest() throws IOException {
+        new Interactive(defaultMachine(), new Keys("HELLO\n"),
+                        new StringWriter()).run();
+    }
+}
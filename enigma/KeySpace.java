@@ -0,0 +1,581 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import static enigma.EnigmaException.*;
+
+/** The space of candidate keys for a machine: wheel orders drawn from
+ *  Machine.rotorNames(), rotor starting positions and, optionally, a
+ *  fixed number of plugboard pairs.  Keys are never materialized.  Each
+ *  is a long in the range 0 .. size()-1 which decodes, by mixed-radix
+ *  arithmetic, into a wheel order, a set of positions and a plugboard:
+ *
+ *      key = (order * plugboards + plugboard) * positions + position
+ *
+ *  so that the rightmost rotor's position varies fastest.  Slot 0 holds
+ *  a reflector, the last numPawls() slots hold moving rotors and any
+ *  slots between hold non-moving, non-reflecting rotors.
+ *
+ *  Constraints (fixReflector, exclude, fixPosition, plugPairs) must be
+ *  applied before the first key is decoded or enumerated.  The first
+ *  use freezes them into an immutable Frozen, published through a
+ *  volatile field, so decoding a key takes no lock.
+ *  @author Andrew Kaplan
+ */
+class KeySpace {
+
+    /** Number of plugboards apply() keeps built. */
+    static final int BOARDS = 64;
+
+    /** The key space of machine M, without constraints. */
+    KeySpace(Machine m) {
+        _machine = m;
+        _alphabet = m.alphabet();
+        _fixedPositions = new int[m.numRotors() - 1];
+        Arrays.fill(_fixedPositions, -1);
+        _excluded = new HashSet<>();
+    }
+
+    /** Restrict reflectors to the one named NAME.  Returns this. */
+    KeySpace fixReflector(String name) {
+        checkOpen();
+        if (_machine.rotorType(name) != 'R') {
+            throw error("%s is not a reflector", name);
+        }
+        _reflector = name;
+        return this;
+    }
+
+    /** Exclude the rotors named NAMES from every wheel order.
+     *  Returns this. */
+    KeySpace exclude(String... names) {
+        checkOpen();
+        _excluded.addAll(Arrays.asList(names));
+        return this;
+    }
+
+    /** Fix the position of the rotor in slot SLOT (1 .. numRotors()-1)
+     *  to C.  Returns this. */
+    KeySpace fixPosition(int slot, char c) {
+        checkOpen();
+        if (slot < 1 || slot >= _machine.numRotors()) {
+            throw error("no rotor slot %d", slot);
+        }
+        _fixedPositions[slot - 1] = _alphabet.toInt(c);
+        return this;
+    }
+
+    /** Enumerate exactly N disjoint plugboard pairs (default 0).
+     *  Returns this. */
+    KeySpace plugPairs(int n) {
+        checkOpen();
+        if (n < 0 || 2 * n > _alphabet.size()) {
+            throw error("cannot place %d plugboard pairs", n);
+        }
+        _pairs = n;
+        return this;
+    }
+
+    /** Return the key space of machine M constrained by SPEC, a
+     *  whitespace-separated list of the items reflector=NAME,
+     *  exclude=NAME,NAME..., fix=SLOT:C,SLOT:C... and pairs=N, as
+     *  produced by spec(). */
+    static KeySpace parse(Machine m, String spec) {
+        KeySpace result = new KeySpace(m);
+        for (String item : spec.trim().split("\\s+")) {
+            int eq = item.indexOf('=');
+            if (item.isEmpty()) {
+                continue;
+            } else if (eq < 0) {
+                throw error("bad key space item: %s", item);
+            }
+            String value = item.substring(eq + 1);
+            switch (item.substring(0, eq)) {
+            case "reflector":
+                result.fixReflector(value);
+                break;
+            case "exclude":
+                result.exclude(value.split(","));
+                break;
+            case "fix":
+                for (String fix : value.split(",")) {
+                    String[] parts = fix.split(":");
+                    if (parts.length != 2 || parts[1].length() != 1) {
+                        throw error("bad fixed position: %s", fix);
+                    }
+                    try {
+                        result.fixPosition(Integer.parseInt(parts[0]),
+                                           parts[1].charAt(0));
+                    } catch (NumberFormatException excp) {
+                        throw error("bad fixed position: %s", fix);
+                    }
+                }
+                break;
+            case "pairs":
+                try {
+                    result.plugPairs(Integer.parseInt(value));
+                } catch (NumberFormatException excp) {
+                    throw error("bad plugboard pair count: %s", value);
+                }
+                break;
+            default:
+                throw error("bad key space item: %s", item);
+            }
+        }
+        return result;
+    }
+
+    /** Return my constraints in the form read by parse. */
+    String spec() {
+        StringBuilder result = new StringBuilder();
+        if (_reflector != null) {
+            result.append(" reflector=").append(_reflector);
+        }
+        if (!_excluded.isEmpty()) {
+            result.append(" exclude=").append(String.join(",", _excluded));
+        }
+        String sep = " fix=";
+        for (int i = 0; i < _fixedPositions.length; i += 1) {
+            if (_fixedPositions[i] >= 0) {
+                result.append(sep).append(i + 1).append(':')
+                    .append(_alphabet.toChar(_fixedPositions[i]));
+                sep = ",";
+            }
+        }
+        result.append(" pairs=").append(_pairs);
+        return result.toString().trim();
+    }
+
+    /** Return the number of keys. */
+    long size() {
+        return freeze()._size;
+    }
+
+    /** Return the number of wheel orders. */
+    long orders() {
+        return freeze()._orders;
+    }
+
+    /** Return a spliterator over all keys. */
+    Spliterator.OfLong spliterator() {
+        return new Range(0, freeze()._size);
+    }
+
+    /** Return a sequential stream of all keys; call parallel() on the
+     *  result to spread them evenly over the common pool. */
+    LongStream stream() {
+        return StreamSupport.longStream(spliterator(), false);
+    }
+
+    /** Store the names of KEY's rotors, reflector first, in ROTORS,
+     *  which must have length numRotors(). */
+    void wheelOrder(long key, String[] rotors) {
+        Frozen f = freeze();
+        int[] slots = new int[_machine.numRotors()];
+        wheelOrder(key, slots);
+        rotors[0] = f._reflectors[slots[0]];
+        for (int i = 1; i < slots.length; i += 1) {
+            rotors[i] = i < f._firstMoving ? f._fixed[slots[i]]
+                : f._moving[slots[i]];
+        }
+    }
+
+    /** Store KEY's wheel order in SLOTS (length numRotors()) as indices
+     *  into reflectors(), fixedRotors() and movingRotors() by slot. */
+    void wheelOrder(long key, int[] slots) {
+        Frozen f = freeze();
+        long order = key / f._positions / f._plugboards;
+        slots[0] = (int) (order % f._reflectors.length);
+        order /= f._reflectors.length;
+        order = unrankArrangement(order, f._fixed.length, slots, 1,
+                                  f._firstMoving - 1);
+        unrankArrangement(order, f._moving.length, slots, f._firstMoving,
+                          _machine.numPawls());
+    }
+
+    /** Store KEY's rotor positions (leftmost non-reflector first) as
+     *  alphabet indices in POSNS, of length numRotors()-1. */
+    void positions(long key, int[] posns) {
+        long pos = key % freeze()._positions;
+        int n = _alphabet.size();
+        for (int i = posns.length - 1; i >= 0; i -= 1) {
+            if (_fixedPositions[i] >= 0) {
+                posns[i] = _fixedPositions[i];
+            } else {
+                posns[i] = (int) (pos % n);
+                pos /= n;
+            }
+        }
+    }
+
+    /** Store KEY's plugboard as an involution on alphabet indices in
+     *  PLUGS, of length alphabet size.  Unplugged letters map to
+     *  themselves. */
+    void plugboard(long key, int[] plugs) {
+        Frozen f = freeze();
+        long rank = key / f._positions % f._plugboards;
+        int n = _alphabet.size(), k = 2 * _pairs;
+        for (int i = 0; i < n; i += 1) {
+            plugs[i] = i;
+        }
+        int[] chosen = new int[k];
+        long combos = rank / doubleFactorial(k - 1);
+        long matching = rank % doubleFactorial(k - 1);
+        for (int i = 0, j = 0; j < k; i += 1) {
+            long with = binomial(n - i - 1, k - j - 1);
+            if (combos < with) {
+                chosen[j] = i;
+                j += 1;
+            } else {
+                combos -= with;
+            }
+        }
+        for (int left = k; left > 0; left -= 2) {
+            int a = chosen[0];
+            int d = 1 + (int) (matching % (left - 1));
+            matching /= left - 1;
+            int b = chosen[d];
+            plugs[a] = b;
+            plugs[b] = a;
+            System.arraycopy(chosen, d + 1, chosen, d, left - d - 1);
+            System.arraycopy(chosen, 1, chosen, 0, left - 2);
+        }
+    }
+
+    /** Return KEY as a setting line without the leading "*": rotor
+     *  names, positions and plugboard cycles. */
+    String describe(long key) {
+        String[] rotors = new String[_machine.numRotors()];
+        wheelOrder(key, rotors);
+        int[] posns = new int[rotors.length - 1];
+        positions(key, posns);
+        StringBuilder result = new StringBuilder(String.join(" ", rotors));
+        result.append(' ');
+        for (int p : posns) {
+            result.append(_alphabet.toChar(p));
+        }
+        int[] plugs = new int[_alphabet.size()];
+        plugboard(key, plugs);
+        for (int i = 0; i < plugs.length; i += 1) {
+            if (plugs[i] > i) {
+                result.append(" (").append(_alphabet.toChar(i))
+                    .append(_alphabet.toChar(plugs[i])).append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the position to which slot SLOT (1 .. numRotors()-1) is
+     *  fixed, as an alphabet index, or -1 if it is free. */
+    int fixedPosition(int slot) {
+        return _fixedPositions[slot - 1];
+    }
+
+    /** Return the number of plugboard pairs in each key. */
+    int pairs() {
+        return _pairs;
+    }
+
+    /** Configure M (which must have my rotors) with KEY. */
+    void apply(long key, Machine m) {
+        String[] rotors = new String[m.numRotors()];
+        wheelOrder(key, rotors);
+        int[] posns = new int[m.numRotors() - 1];
+        positions(key, posns);
+        char[] setting = new char[posns.length];
+        for (int i = 0; i < posns.length; i += 1) {
+            setting[i] = _alphabet.toChar(posns[i]);
+        }
+        m.insertRotors(rotors);
+        m.setRotors(new String(setting));
+        Permutation plugboard = plugboard(key);
+        if (m.plugboard() != plugboard) {
+            m.setPlugboard(plugboard);
+        }
+    }
+
+    /** Return KEY's plugboard as a Permutation shared by all keys with
+     *  the same plugboard.  Keys vary their plugboards more slowly than
+     *  their positions, so the last BOARDS built are kept. */
+    private Permutation plugboard(long key) {
+        Frozen f = freeze();
+        long rank = key / f._positions % f._plugboards;
+        Permutation result;
+        synchronized (_boards) {
+            result = _boards.get(rank);
+        }
+        if (result == null) {
+            int[] plugs = new int[_alphabet.size()];
+            plugboard(key, plugs);
+            StringBuilder cycles = new StringBuilder();
+            for (int i = 0; i < plugs.length; i += 1) {
+                if (plugs[i] > i) {
+                    cycles.append('(').append(_alphabet.toChar(i))
+                        .append(_alphabet.toChar(plugs[i])).append(')');
+                }
+            }
+            result = new Permutation(cycles.toString(), _alphabet);
+            synchronized (_boards) {
+                _boards.put(rank, result);
+            }
+        }
+        return result;
+    }
+
+    /** Return the candidate reflector names, indexed as in
+     *  wheelOrder. */
+    String[] reflectors() {
+        return freeze()._reflectors;
+    }
+
+    /** Return the candidate non-moving rotor names. */
+    String[] fixedRotors() {
+        return freeze()._fixed;
+    }
+
+    /** Return the candidate moving rotor names. */
+    String[] movingRotors() {
+        return freeze()._moving;
+    }
+
+    /** Throw if constraints may no longer change. */
+    private void checkOpen() {
+        if (_frozen != null) {
+            throw error("key space already in use");
+        }
+    }
+
+    /** Return the candidate rotors and the sizes of each part of the
+     *  key, computing them the first time. */
+    private Frozen freeze() {
+        Frozen f = _frozen;
+        if (f == null) {
+            synchronized (this) {
+                if (_frozen == null) {
+                    _frozen = new Frozen();
+                }
+                f = _frozen;
+            }
+        }
+        return f;
+    }
+
+    /** Decode RANK as an ordered choice of K of N items, storing the
+     *  chosen item indices in DEST[START .. START+K-1].  Return RANK
+     *  divided by the number of such choices. */
+    private static long unrankArrangement(long rank, int n, int[] dest,
+                                          int start, int k) {
+        boolean[] used = new boolean[n];
+        for (int i = 0; i < k; i += 1) {
+            int d = (int) (rank % (n - i));
+            rank /= n - i;
+            int item = -1;
+            while (d >= 0) {
+                item += 1;
+                if (!used[item]) {
+                    d -= 1;
+                }
+            }
+            used[item] = true;
+            dest[start + i] = item;
+        }
+        return rank;
+    }
+
+    /** Return the number of ordered choices of K of N items. */
+    private static long arrangements(int n, int k) {
+        long r = 1;
+        for (int i = 0; i < k; i += 1) {
+            r = Math.multiplyExact(r, Math.max(0, n - i));
+        }
+        return r;
+    }
+
+    /** Return N choose K (0 if K is out of range). */
+    private static long binomial(int n, int k) {
+        if (k < 0 || k > n) {
+            return 0;
+        }
+        long r = 1;
+        for (int i = 0; i < Math.min(k, n - k); i += 1) {
+            r = Math.multiplyExact(r, n - i) / (i + 1);
+        }
+        return r;
+    }
+
+    /** Return N!! for odd N (1 for N < 1). */
+    private static long doubleFactorial(int n) {
+        long r = 1;
+        for (int i = n; i > 1; i -= 2) {
+            r = Math.multiplyExact(r, i);
+        }
+        return r;
+    }
+
+    /** A spliterator over the keys LO .. HI-1.  Splits halve the range,
+     *  so every split of a parallel stream gets the same amount of
+     *  work. */
+    private static final class Range implements Spliterator.OfLong {
+
+        /** Keys LO .. HI-1. */
+        Range(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if (_lo >= _hi) {
+                return false;
+            }
+            action.accept(_lo);
+            _lo += 1;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            long hi = _hi;
+            for (long k = _lo; k < hi; k += 1) {
+                action.accept(k);
+            }
+            _lo = hi;
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            long mid = (_lo + _hi) >>> 1;
+            if (mid <= _lo) {
+                return null;
+            }
+            Range prefix = new Range(_lo, mid);
+            _lo = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return _hi - _lo;
+        }
+
+        @Override
+        public int characteristics() {
+            return SIZED | SUBSIZED | ORDERED | DISTINCT | SORTED
+                | IMMUTABLE | NONNULL;
+        }
+
+        @Override
+        public Comparator<? super Long> getComparator() {
+            return null;
+        }
+
+        /** Next key. */
+        private long _lo;
+        /** Limit of keys. */
+        private final long _hi;
+    }
+
+    /** The candidate rotors and the sizes of each part of the key,
+     *  fixed at the first use of a key space. */
+    private final class Frozen {
+
+        /** The parts of my key space under its current constraints. */
+        Frozen() {
+            ArrayList<String> refl = new ArrayList<>(),
+                fixed = new ArrayList<>(), moving = new ArrayList<>();
+            for (String name : _machine.rotorNames()) {
+                char type = _machine.rotorType(name);
+                if (_excluded.contains(name)) {
+                    continue;
+                } else if (type == 'R') {
+                    if (_reflector == null || _reflector.equals(name)) {
+                        refl.add(name);
+                    }
+                } else if (type == 'M') {
+                    moving.add(name);
+                } else {
+                    fixed.add(name);
+                }
+            }
+            _reflectors = refl.toArray(new String[0]);
+            _fixed = fixed.toArray(new String[0]);
+            _moving = moving.toArray(new String[0]);
+            _firstMoving = _machine.numRotors() - _machine.numPawls();
+            try {
+                _orders = Math.multiplyExact((long) _reflectors.length,
+                    Math.multiplyExact(arrangements(_fixed.length,
+                                                    _firstMoving - 1),
+                                       arrangements(_moving.length,
+                                                    _machine.numPawls())));
+                long positions = 1;
+                for (int p : _fixedPositions) {
+                    if (p < 0) {
+                        positions = Math.multiplyExact(positions,
+                                                       _alphabet.size());
+                    }
+                }
+                _positions = positions;
+                _plugboards = Math.multiplyExact(
+                    binomial(_alphabet.size(), 2 * _pairs),
+                    doubleFactorial(2 * _pairs - 1));
+                _size = Math.multiplyExact(_orders,
+                    Math.multiplyExact(_positions, _plugboards));
+            } catch (ArithmeticException excp) {
+                throw error("key space does not fit in a long");
+            }
+        }
+
+        /** Candidate reflectors. */
+        private final String[] _reflectors;
+        /** Candidate non-moving rotors. */
+        private final String[] _fixed;
+        /** Candidate moving rotors. */
+        private final String[] _moving;
+        /** Index of the first moving slot. */
+        private final int _firstMoving;
+        /** Number of wheel orders. */
+        private final long _orders;
+        /** Number of position settings per wheel order. */
+        private final long _positions;
+        /** Number of plugboards per wheel order and position. */
+        private final long _plugboards;
+        /** Total number of keys. */
+        private final long _size;
+    }
+
+    /** Machine whose rotors are enumerated. */
+    private final Machine _machine;
+    /** Alphabet of _machine. */
+    private final Alphabet _alphabet;
+    /** Required reflector name, or null for any. */
+    private String _reflector;
+    /** Names of rotors never used. */
+    private final HashSet<String> _excluded;
+    /** Fixed position of each non-reflector slot, or -1 if free. */
+    private final int[] _fixedPositions;
+    /** Number of plugboard pairs. */
+    private int _pairs;
+
+    /** The last BOARDS plugboards built by apply(), by plugboard
+     *  index, least recently used first. */
+    private final LinkedHashMap<Long, Permutation> _boards =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<Long, Permutation> eldest) {
+                return size() > BOARDS;
+            }
+        };
+
+    /** Constraints as frozen at first use, or null until then. */
+    private volatile Frozen _frozen;
+}
@@ -0,0 +1,150 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeySpace class.
+ *  @author Andrew Kaplan
+ */
+public class KeySpaceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a 5-slot, 3-pawl machine with the naval rotors. */
+    private Machine navalMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        rotors.add(new Reflector("C", new Permutation(NAVALA.get("C"), UPPER)));
+        for (String name : new String[] {"Beta", "Gamma"}) {
+            rotors.add(new FixedRotor(name,
+                    new Permutation(NAVALA.get(name), UPPER)));
+        }
+        for (String name : new String[] {"I", "II", "III", "IV", "V"}) {
+            rotors.add(new MovingRotor(name,
+                    new Permutation(NAVALA.get(name), UPPER), "Q"));
+        }
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    @Test
+    public void checkSize() {
+        KeySpace keys = new KeySpace(navalMachine());
+        assertEquals(2 * 2 * 5 * 4 * 3, keys.orders());
+        assertEquals(240L * 26 * 26 * 26 * 26, keys.size());
+    }
+
+    @Test
+    public void checkWheelOrdersDistinct() {
+        KeySpace keys = new KeySpace(navalMachine())
+            .fixPosition(1, 'A').fixPosition(2, 'A')
+            .fixPosition(3, 'A').fixPosition(4, 'A');
+        HashSet<String> seen = new HashSet<>();
+        String[] rotors = new String[5];
+        keys.stream().forEach(k -> {
+            keys.wheelOrder(k, rotors);
+            assertTrue(seen.add(String.join(" ", rotors)));
+            assertTrue(rotors[0].equals("B") || rotors[0].equals("C"));
+        });
+        assertEquals(240, seen.size());
+    }
+
+    @Test
+    public void checkConstraints() {
+        KeySpace keys = new KeySpace(navalMachine())
+            .fixReflector("B").exclude("IV", "V", "Gamma")
+            .fixPosition(1, 'Q');
+        assertEquals(3 * 2 * 1 * 26 * 26 * 26, keys.size());
+        int[] posns = new int[4];
+        keys.positions(keys.size() - 1, posns);
+        assertArrayEquals(new int[] {16, 25, 25, 25}, posns);
+    }
+
+    @Test
+    public void checkPlugboardsDistinct() {
+        KeySpace keys = new KeySpace(navalMachine()).fixReflector("B")
+            .exclude("Gamma", "IV", "V").plugPairs(2);
+        long perOrder = keys.size() / keys.orders() / (26 * 26 * 26 * 26);
+        assertEquals(14950 * 3, perOrder);
+        HashSet<String> seen = new HashSet<>();
+        int[] plugs = new int[26];
+        for (long p = 0; p < perOrder; p += 1) {
+            keys.plugboard(p * 26 * 26 * 26 * 26, plugs);
+            int moved = 0;
+            for (int i = 0; i < 26; i += 1) {
+                assertEquals(i, plugs[plugs[i]]);
+                moved += plugs[i] == i ? 0 : 1;
+            }
+            assertEquals(4, moved);
+            assertTrue(seen.add(java.util.Arrays.toString(plugs)));
+        }
+    }
+
+    @Test
+    public void checkParallelCount() {
+        KeySpace keys = new KeySpace(navalMachine()).fixReflector("C")
+            .fixPosition(1, 'A');
+        assertEquals(keys.size(), keys.stream().parallel().count());
+        assertEquals(keys.size() * (keys.size() - 1) / 2,
+                     keys.stream().parallel().sum());
+    }
+
+    @Test
+    public void checkFrozenOnFirstUse() {
+        KeySpace keys = new KeySpace(navalMachine()).fixPosition(1, 'A');
+        KeySpace same = new KeySpace(navalMachine()).fixPosition(1, 'A');
+        String[] expected = new String[1000];
+        for (int i = 0; i < expected.length; i += 1) {
+            expected[i] = same.describe(i * 997L);
+        }
+        java.util.stream.IntStream.range(0, expected.length).parallel()
+            .forEach(i -> assertEquals(expected[i],
+                                       keys.describe(i * 997L)));
+        try {
+            keys.plugPairs(1);
+            fail("constraint accepted after use");
+        } catch (EnigmaException excp) {
+            assertEquals(0, keys.pairs());
+        }
+    }
+
+    @Test
+    public void checkRotorsBuiltLazily() {
+        StringBuilder text = new StringBuilder(" B R (AE) (BN) (CK) (DQ)"
+            + " (FU) (GY) (HW) (IJ) (LO) (MP) (RX) (SZ) (TV)\n");
+        for (int i = 0; i < 50; i += 1) {
+            text.append(" R.").append(i).append(" MQ (AELTPHQXRU) (BKNW)")
+                .append(" (CMOY) (DFG) (IV) (JZ) (S)\n");
+        }
+        RotorRegistry reg = RotorRegistry.index(UPPER, text.toString());
+        Machine m = new Machine(UPPER, 3, 2, reg);
+        KeySpace keys = new KeySpace(m).fixReflector("B");
+        assertEquals(50 * 49, keys.orders());
+        assertEquals(0, reg.built());
+        keys.apply(keys.size() - 1, m);
+        assertEquals(3, reg.built());
+    }
+
+    @Test
+    public void checkPlugboardShared() {
+        Machine m = navalMachine();
+        KeySpace keys = new KeySpace(m).plugPairs(1);
+        keys.apply(0, m);
+        Permutation first = m.plugboard();
+        keys.apply(1, m);
+        assertSame(first, m.plugboard());
+        int[] plugs = new int[UPPER.size()];
+        keys.plugboard(1, plugs);
+        assertArrayEquals(plugs, first.table());
+        keys.apply((long) Math.pow(UPPER.size(), 4), m);
+        assertNotSame(first, m.plugboard());
+    }
+}
@@ -0,0 +1,212 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A multi-pattern matcher (Aho-Corasick) for spotting known words,
+ *  such as call signs and stereotyped phrases, in trial decryptions.
+ *  The words are compiled over the index space of an Alphabet into a
+ *  dense automaton: one int[] row of next states per state, with every
+ *  failure transition already resolved, so scanning a text costs one
+ *  table load per character and no branch but the test for a match.
+ *
+ *  States are stored premultiplied by the alphabet size, so the next
+ *  state is _delta[state + c], and numbered so that every state at
+ *  which some word ends comes after all others: a single comparison
+ *  with _accept decides whether any word ends at a character.  Texts
+ *  are int[] buffers of alphabet indices, as Machine.convert(int[], ...)
+ *  produces, and no String is built while scanning.
+ *  @author Andrew Kaplan
+ */
+final class KeywordSpotter {
+
+    /** Largest number of entries in the transition table. */
+    static final int TABLE_LIMIT = 1 << 26;
+
+    /** Receives matches from scan(). */
+    interface Hits {
+        /** Note that word WORD ends just before position END of the
+         *  text, and return true to continue scanning. */
+        boolean hit(int word, int end);
+    }
+
+    /** A spotter of WORDS, strings of characters of ALPHA.  Word I of
+     *  WORDS is reported as I; a word given twice is reported under its
+     *  first number only. */
+    KeywordSpotter(Alphabet alpha, List<String> words) {
+        int n = alpha.size();
+        _n = n;
+        _words = words.toArray(new String[0]);
+        _lengths = new int[_words.length];
+        int[] trie = new int[n * 16];
+        int[] word = new int[16];
+        Arrays.fill(trie, -1);
+        Arrays.fill(word, -1);
+        int states = 1;
+        for (int w = 0; w < _words.length; w += 1) {
+            String text = _words[w];
+            if (text.isEmpty()) {
+                throw error("empty keyword");
+            }
+            _lengths[w] = text.length();
+            int s = 0;
+            for (int i = 0; i < text.length(); i += 1) {
+                int c = alpha.toInt(text.charAt(i));
+                if (trie[s * n + c] < 0) {
+                    if ((long) (states + 1) * n > TABLE_LIMIT) {
+                        throw error("too many keywords to compile");
+                    }
+                    if (states == word.length) {
+                        trie = Arrays.copyOf(trie, 2 * states * n);
+                        Arrays.fill(trie, states * n, trie.length, -1);
+                        word = Arrays.copyOf(word, 2 * states);
+                        Arrays.fill(word, states, word.length, -1);
+                    }
+                    trie[s * n + c] = states;
+                    states += 1;
+                }
+                s = trie[s * n + c];
+            }
+            if (word[s] < 0) {
+                word[s] = w;
+            }
+        }
+        int[] order = new int[states], fail = new int[states];
+        int[] dict = new int[states];
+        dict[0] = -1;
+        int head = 0, tail = 1;
+        while (head < tail) {
+            int s = order[head];
+            head += 1;
+            for (int c = 0; c < n; c += 1) {
+                int t = trie[s * n + c];
+                if (t >= 0) {
+                    int f = s == 0 ? 0 : trie[fail[s] * n + c];
+                    fail[t] = f;
+                    dict[t] = word[f] >= 0 ? f : dict[f];
+                    order[tail] = t;
+                    tail += 1;
+                } else {
+                    trie[s * n + c] = s == 0 ? 0 : trie[fail[s] * n + c];
+                }
+            }
+        }
+        int accepting = 0;
+        for (int s = 0; s < states; s += 1) {
+            accepting += word[s] >= 0 || dict[s] >= 0 ? 1 : 0;
+        }
+        _accept = (states - accepting) * n;
+        int[] rank = new int[states];
+        int quiet = 0, loud = states - accepting;
+        for (int k = 0; k < states; k += 1) {
+            int s = order[k];
+            if (word[s] >= 0 || dict[s] >= 0) {
+                rank[s] = loud;
+                loud += 1;
+            } else {
+                rank[s] = quiet;
+                quiet += 1;
+            }
+        }
+        _delta = new int[states * n];
+        _word = new int[states];
+        _dict = new int[states];
+        for (int s = 0; s < states; s += 1) {
+            int r = rank[s];
+            for (int c = 0; c < n; c += 1) {
+                _delta[r * n + c] = rank[trie[s * n + c]] * n;
+            }
+            _word[r] = word[s];
+            _dict[r] = dict[s] < 0 ? -1 : rank[dict[s]];
+        }
+    }
+
+    /** Return the number of words. */
+    int size() {
+        return _words.length;
+    }
+
+    /** Return word I. */
+    String word(int i) {
+        return _words[i];
+    }
+
+    /** Return the length of word I. */
+    int length(int i) {
+        return _lengths[i];
+    }
+
+    /** Return the number of states of my automaton. */
+    int states() {
+        return _word.length;
+    }
+
+    /** Return the position just after the first character of
+     *  TEXT[FROM .. TO-1] at which some word ends, or -1 if no word
+     *  occurs there. */
+    int first(int[] text, int from, int to) {
+        int[] delta = _delta;
+        int accept = _accept;
+        int s = 0;
+        for (int i = from; i < to; i += 1) {
+            s = delta[s + text[i]];
+            if (s >= accept) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Return true iff some word occurs in TEXT[FROM .. TO-1]. */
+    boolean matches(int[] text, int from, int to) {
+        return first(text, from, to) >= 0;
+    }
+
+    /** Report to HITS each occurrence of each word in TEXT[FROM .. TO-1],
+     *  in order of end position, until HITS returns false.  Return the
+     *  number of occurrences reported. */
+    int scan(int[] text, int from, int to, Hits hits) {
+        int[] delta = _delta;
+        int accept = _accept;
+        int s = 0, count = 0;
+        for (int i = from; i < to; i += 1) {
+            s = delta[s + text[i]];
+            if (s >= accept) {
+                for (int r = s / _n; r >= 0; r = _dict[r]) {
+                    if (_word[r] >= 0) {
+                        count += 1;
+                        if (!hits.hit(_word[r], i + 1)) {
+                            return count;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Return the number of occurrences of words in TEXT[FROM .. TO-1],
+     *  counting overlapping occurrences. */
+    int count(int[] text, int from, int to) {
+        return scan(text, from, to, (w, end) -> true);
+    }
+
+    /** Alphabet size. */
+    private final int _n;
+    /** The words. */
+    private final String[] _words;
+    /** Length of each word. */
+    private final int[] _lengths;
+    /** _delta[S + C] is the state after state S (premultiplied by _n)
+     *  on character C, premultiplied. */
+    private final int[] _delta;
+    /** Least premultiplied state at which some word ends. */
+    private final int _accept;
+    /** Word ending at each state (unpremultiplied), or -1. */
+    private final int[] _word;
+    /** Nearest proper suffix state of each state at which a word ends,
+     *  or -1. */
+    private final int[] _dict;
+}
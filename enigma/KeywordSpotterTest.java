@@ -0,0 +1,85 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** Tests of KeywordSpotter.
+ *  @author Andrew Kaplan
+ */
+public class KeywordSpotterTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    @Test
+    public void spotTest() {
+        KeywordSpotter spotter = new KeywordSpotter(UPPER, Arrays.asList(
+            "HE", "SHE", "HIS", "HERS", "WETTER"));
+        int[] text = indices("XXUSHERSXWETTERBERICHT");
+        assertEquals(6, spotter.first(text, 0, text.length));
+        assertEquals(-1, spotter.first(text, 0, 5));
+        assertFalse(spotter.matches(text, 15, text.length));
+        List<String> found = new ArrayList<>();
+        int n = spotter.scan(text, 0, text.length, (w, end) -> {
+            found.add(spotter.word(w) + "@" + end);
+            return true;
+        });
+        assertEquals(Arrays.asList("SHE@6", "HE@6", "HERS@8", "WETTER@15"),
+                     found);
+        assertEquals(4, n);
+        assertEquals(1, spotter.scan(text, 0, text.length, (w, e) -> false));
+        assertEquals(4, spotter.count(text, 0, text.length));
+    }
+
+    @Test
+    public void randomTest() {
+        Random random = new Random(48);
+        Alphabet alpha = new Alphabet("ABC");
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 20; i += 1) {
+            StringBuilder w = new StringBuilder();
+            for (int j = random.nextInt(5); j >= 0; j -= 1) {
+                w.append(alpha.toChar(random.nextInt(3)));
+            }
+            words.add(w.toString());
+        }
+        KeywordSpotter spotter = new KeywordSpotter(alpha, words);
+        for (int trial = 0; trial < 100; trial += 1) {
+            int len = random.nextInt(40);
+            int[] text = new int[len];
+            StringBuilder s = new StringBuilder();
+            for (int i = 0; i < len; i += 1) {
+                text[i] = random.nextInt(3);
+                s.append(alpha.toChar(text[i]));
+            }
+            int expected = 0, first = -1;
+            for (int end = 1; end <= len; end += 1) {
+                for (String w : new LinkedHashSet<>(words)) {
+                    if (end >= w.length()
+                        && s.substring(end - w.length(), end).equals(w)) {
+                        expected += 1;
+                        first = first < 0 ? end : first;
+                    }
+                }
+            }
+            assertEquals(expected, spotter.count(text, 0, len));
+            assertEquals(first, spotter.first(text, 0, len));
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void emptyWordTest() {
+        new KeywordSpotter(UPPER, Arrays.asList("ABC", ""));
+    }
+}
@@ -0,0 +1,187 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** A configuration file that may change while it is in use.  The
+ *  current version is an immutable template machine, from which users
+ *  take copies (as with Machine.copy()) for each message or request; a
+ *  reload parses the changed file into a new template, builds every
+ *  rotor to validate it, and replaces the template in one volatile
+ *  write.  Copies taken earlier keep the rotors of the version they came
+ *  from, so messages in flight finish on it.  A file that fails to
+ *  parse or validate leaves the current version in place.
+ *
+ *  The new template adopts from the old one (see Machine.adopt) the
+ *  built rotors and the engine profiles and tables of every rotor whose
+ *  definition did not change, so throughput on an unchanged daily key
+ *  does not drop after a reload.
+ *
+ *  A file is taken to have changed when its modification time or size
+ *  has, as in Daemon.  watch() polls for changes and reloads on a
+ *  background thread; refresh() checks and reloads on the caller's.
+ *  @author Andrew Kaplan
+ */
+class LiveConfig {
+
+    /** Default interval between checks of a watched file, in
+     *  milliseconds. */
+    static final long PERIOD = 1000;
+
+    /** A live configuration read now from the file CONFIG. */
+    LiveConfig(Path config) {
+        _config = config;
+        long[] stamp = stamp();
+        Machine m = read();
+        m.validate();
+        _current = new Version(m, stamp, 0);
+    }
+
+    /** A configuration that never changes, whose template is
+     *  TEMPLATE. */
+    LiveConfig(Machine template) {
+        _config = null;
+        _current = new Version(template, null, 0);
+    }
+
+    /** Return the current template.  It must not be used to convert:
+     *  take a copy(). */
+    Machine template() {
+        return _current._template;
+    }
+
+    /** Return a machine copied from the current template. */
+    Machine copy() {
+        return template().copy();
+    }
+
+    /** Return the number of reloads so far. */
+    long generation() {
+        return _current._generation;
+    }
+
+    /** Return the message of the last failed reload, or null if the last
+     *  reload succeeded or none has been tried. */
+    String lastError() {
+        return _lastError;
+    }
+
+    /** Reload my file if it has changed since it was last read, and
+     *  return true iff a new version was installed.  A file that cannot
+     *  be read or is invalid leaves the current version and throws an
+     *  EnigmaException. */
+    synchronized boolean refresh() {
+        if (_config == null) {
+            return false;
+        }
+        Version old = _current;
+        long[] stamp;
+        try {
+            stamp = stamp();
+            if (stamp[0] == old._stamp[0] && stamp[1] == old._stamp[1]) {
+                return false;
+            }
+            Machine m = read();
+            m.adopt(old._template);
+            m.validate();
+            _current = new Version(m, stamp, old._generation + 1);
+            _lastError = null;
+            return true;
+        } catch (EnigmaException excp) {
+            _lastError = excp.getMessage();
+            throw excp;
+        }
+    }
+
+    /** Check my file every PERIODMILLIS milliseconds on a background
+     *  thread, reloading it when it changes, until close(). */
+    synchronized void watch(long periodMillis) {
+        if (_watcher != null || _config == null) {
+            return;
+        }
+        _watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "config-watcher");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        _watcher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (EnigmaException excp) {
+                /* Recorded in _lastError; keep the current version. */
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Check my file every PERIOD milliseconds. */
+    void watch() {
+        watch(PERIOD);
+    }
+
+    /** Stop watching my file. */
+    synchronized void close() {
+        if (_watcher != null) {
+            _watcher.shutdownNow();
+            _watcher = null;
+        }
+    }
+
+    /** Return the modification time and size of my file. */
+    private long[] stamp() {
+        try {
+            return new long[] {
+                Files.getLastModifiedTime(_config).toMillis(),
+                Files.size(_config)
+            };
+        } catch (IOException excp) {
+            throw error("could not open %s", _config);
+        }
+    }
+
+    /** Return a machine configured by my file. */
+    private Machine read() {
+        try {
+            return Main.readConfig(new Scanner(_config.toFile()));
+        } catch (IOException excp) {
+            throw error("could not open %s", _config);
+        }
+    }
+
+    /** One version of the configuration. */
+    private static final class Version {
+
+        /** Version GENERATION, whose template is TEMPLATE, read from a
+         *  file whose modification time and size were STAMP. */
+        Version(Machine template, long[] stamp, long generation) {
+            _template = template;
+            _stamp = stamp;
+            _generation = generation;
+        }
+
+        /** Template machine, never used to convert. */
+        private final Machine _template;
+        /** File modification time and size, or null. */
+        private final long[] _stamp;
+        /** Number of reloads before this version. */
+        private final long _generation;
+    }
+
+    /** Configuration file, or null if it never changes. */
+    private final Path _config;
+    /** Current version. */
+    private volatile Version _current;
+    /** Message of the last failed reload, or null. */
+    private volatile String _lastError;
+    /** Polls my file, or null if not watching. */
+    private ScheduledExecutorService _watcher;
+}
@@ -0,0 +1,126 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static enigma.TestUtils.*;
+
+/** Tests of LiveConfig.
+ *  @author Andrew Kaplan
+ */
+public class LiveConfigTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Settings using only rotors left unchanged by the reload. */
+    private static final String KEPT = "* B Beta I II III AXLE (YF) (ZH)";
+    /** Settings using the rotor changed by the reload. */
+    private static final String CHANGED = "* B Beta I II V AXLE (YF) (ZH)";
+    /** A message. */
+    private static final String MSG = "HELLOWORLDTHISISAMESSAGE";
+
+    /** Replace the contents of CONF with TEXT, marking it as changed. */
+    private void rewrite(Path conf, String text) throws IOException {
+        long mtime = Files.getLastModifiedTime(conf).toMillis();
+        Files.write(conf, text.getBytes());
+        Files.setLastModifiedTime(conf, FileTime.fromMillis(mtime + 2000));
+    }
+
+    /** Return the result of converting MSG on M set up with SETTINGS. */
+    private String convert(Machine m, String settings) {
+        Main.setUp(m, settings);
+        return m.convert(MSG);
+    }
+
+    @Test
+    public void reloadTest() throws IOException {
+        Path conf = Files.createTempFile("live", ".conf");
+        try {
+            String text = new String(Files.readAllBytes(
+                testing("correct/default.conf")));
+            Files.write(conf, text.getBytes());
+            LiveConfig live = new LiveConfig(conf);
+            live.template().setEngines(new EngineSelector(Runnable::run,
+                                                          0, 0));
+            assertFalse(live.refresh());
+            Machine before = live.copy();
+            String kept = convert(before, KEPT);
+            String changed = convert(before, CHANGED);
+            Main.setUp(before, KEPT);
+            before.convert(MSG + MSG);
+
+            rewrite(conf, text.replace("(AVOLDRWFIUQ)", "(AVOLDRWFIQU)")
+                    + " X MA (AB)\n");
+            assertTrue(live.refresh());
+            assertEquals(1, live.generation());
+            assertNull(live.lastError());
+            assertFalse(live.refresh());
+
+            assertEquals(changed, convert(before, CHANGED));
+            Machine after = live.copy();
+            EngineSelector engines = after.engines();
+            assertNotSame(before.engines(), engines);
+            Main.setUp(after, KEPT);
+            assertEquals(kept, after.convert(MSG));
+            assertEquals(EngineSelector.COMPILED, after.tier());
+            assertEquals(0, engines.promotions(EngineSelector.FUSED));
+            assertNotEquals(changed, convert(after, CHANGED));
+            assertEquals(1, engines.promotions(EngineSelector.FUSED));
+            assertNotNull(after.rotor("X"));
+        } finally {
+            Files.delete(conf);
+        }
+    }
+
+    @Test
+    public void invalidReloadTest() throws IOException {
+        Path conf = Files.createTempFile("live", ".conf");
+        try {
+            String text = new String(Files.readAllBytes(
+                testing("correct/default.conf")));
+            Files.write(conf, text.getBytes());
+            LiveConfig live = new LiveConfig(conf);
+            Machine template = live.template();
+            rewrite(conf, text + " X MA (A1)\n");
+            try {
+                live.refresh();
+                fail("invalid rotor accepted");
+            } catch (EnigmaException excp) {
+                assertNotNull(live.lastError());
+            }
+            assertSame(template, live.template());
+            assertEquals(0, live.generation());
+        } finally {
+            Files.delete(conf);
+        }
+    }
+
+    @Test
+    public void watchTest() throws IOException, InterruptedException {
+        Path conf = Files.createTempFile("live", ".conf");
+        try {
+            String text = new String(Files.readAllBytes(
+                testing("correct/default.conf")));
+            Files.write(conf, text.getBytes());
+            LiveConfig live = new LiveConfig(conf);
+            live.watch(10);
+            rewrite(conf, text.replaceFirst("5 3", "4 3"));
+            while (live.generation() == 0) {
+                Thread.sleep(10);
+            }
+            live.close();
+            assertEquals(4, live.copy().numRotors());
+        } finally {
+            Files.delete(conf);
+        }
+    }
+}
@@ -2,8 +2,11 @@ package enigma;
 
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 
 import static enigma.EnigmaException.*;
@@ -13,62 +16,159 @@ import static enigma.EnigmaException.*;
  */
 class Machine {
 
+    /** Most compiled steppers kept by one machine. */
+    static final int STEPPERS = 32;
+
     /** Number of rotors in machine instance. */
     private int _numRotors;
     /** Number of pawls in machine instance. */
     private int _pawls;
-    /** HashMap instance mapping rotor names to rotor objects. */
-    private HashMap<String, Rotor> _allRotors = new HashMap<>();
-    /** String Array Instance of all the names of the rotors in _allRotors. */
-    private String[] _rotorNames;
+    /** The available rotors, by name. */
+    private RotorRegistry _registry;
     /** String Array Instance of all the names of the rotors in _machine. */
     private String[] _activeRotorNames;
     /** Array Instance of the collection of rotors in the Machine. */
     private ArrayList<Rotor> _machine = new ArrayList<>();
     /** Plugboard permutation instance. */
     private Permutation _plugboard;
-    /** Boolean array instance containing whether
-     * the rotor will rotate during a given input. */
-    private boolean[] _willRotate;
+    /** Rule deciding which rotors advance at a keypress. */
+    private SteppingModel _stepping = SteppingModel.RATCHET;
+    /** _stepping compiled for the inserted rotors, or null if not yet
+     *  compiled. */
+    private Stepper _stepper;
+    /** Compiled steppers, by the notches of the moving rotors in each
+     *  slot (see stepperKey()), least recently used first.  At most
+     *  STEPPERS are kept. */
+    private LinkedHashMap<String, Stepper> _steppers =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, Stepper> eldest) {
+                return size() > STEPPERS;
+            }
+        };
+    /** Chooses how each of my configurations converts; shared with my
+     *  copies. */
+    private EngineSelector _engines = new EngineSelector();
+    /** Profile of my current configuration, or null if not yet
+     *  installed. */
+    private EngineSelector.Profile _profile;
+    /** Tables of _profile's tier when last flushed. */
+    private EngineSelector.Tables _tables;
+    /** Contents of my slots while _profile is installed. */
+    private Rotor[] _slots;
+    /** Characters converted since the last flush. */
+    private int _pending;
 
     /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      *  and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, new RotorRegistry(allRotors));
+    }
+
+    /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
+     *  and 0 <= PAWLS < NUMROTORS pawls, whose available rotors are those
+     *  of REGISTRY. */
+    Machine(Alphabet alpha, int numRotors, int pawls,
+            RotorRegistry registry) {
         _alphabet = alpha;
         _numRotors = numRotors;
         _pawls = pawls;
+        _registry = registry;
         if (_numRotors < 2 || _pawls < 0
-                || _pawls > _numRotors - 1 || _numRotors > allRotors.size()) {
+                || _pawls > _numRotors - 1 || _numRotors > registry.size()) {
             throw EnigmaException.error
                     ("Machine Settings Invalid");
         }
+    }
 
-        StringBuilder rotorNameBuilder = new StringBuilder();
-        for (Rotor r : allRotors) {
-            _allRotors.put(r.name(), r);
-            int copies = 0;
-            for (Rotor rCheck : allRotors) {
-                if (rCheck == r) {
-                    copies += 1;
-                }
-            }
-            if (copies > 1) {
-                throw EnigmaException.error
-                        ("Duplicate Rotors Invalid");
+    /** Return a new machine with my alphabet, slots and pawls whose
+     *  available rotors are fresh copies of mine.  The copies share my
+     *  rotors' permutations but none of their settings, so the copy may
+     *  be used concurrently with me.  The copy uses my stepping model.
+     *  No rotors are inserted. */
+    Machine copy() {
+        Machine result =
+            new Machine(_alphabet, _numRotors, _pawls, _registry.copy());
+        result._stepping = _stepping;
+        result._engines = _engines;
+        return result;
+    }
+
+    /** Take over what OLD, the machine I replace after its
+     *  configuration was re-read, has learned about the rotors whose
+     *  definitions I share: their built tables and the counts and
+     *  engine tables of configurations using only them.  I also take
+     *  OLD's stepping model.  Return the names of the unchanged rotors,
+     *  none if our alphabets differ.  No rotors may be inserted in me
+     *  yet. */
+    Set<String> adopt(Machine old) {
+        Set<String> unchanged = new HashSet<>();
+        if (sameAlphabet(old._alphabet)) {
+            unchanged = _registry.adopt(old._registry);
+        }
+        setEngines(old._engines.carry(unchanged));
+        _stepping = old._stepping;
+        return unchanged;
+    }
+
+    /** Return true iff ALPHA has the same characters, in order, as my
+     *  alphabet. */
+    private boolean sameAlphabet(Alphabet alpha) {
+        if (alpha.size() != _alphabet.size()) {
+            return false;
+        }
+        for (int i = 0; i < alpha.size(); i += 1) {
+            if (alpha.toChar(i) != _alphabet.toChar(i)) {
+                return false;
             }
-            String n = r.name() + ".";
-            rotorNameBuilder.append(n);
         }
+        return true;
+    }
+
+    /** Build every available rotor, reporting any error in its
+     *  definition. */
+    void validate() {
+        _registry.buildAll();
+    }
+
+    /** Choose conversion tiers with ENGINES from now on. */
+    void setEngines(EngineSelector engines) {
+        unbind();
+        _engines = engines;
+    }
+
+    /** Return the selector choosing my conversion tiers. */
+    EngineSelector engines() {
+        return _engines;
+    }
 
-        String rotorNameString = rotorNameBuilder.toString();
-        _rotorNames = rotorNameString.split("\\.");
+    /** Return the tier in which my current configuration converts. */
+    int tier() {
+        return _tables == null ? EngineSelector.DIRECT : _tables.tier;
     }
 
-    /** Return Array containing names of the rotors in _allRotors. */
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return Array containing names of the available rotors. */
     String[] rotorNames() {
-        return _rotorNames;
+        return _registry.names();
+    }
+
+    /** Return the available rotor named NAME, or null if there is none. */
+    Rotor rotor(String name) {
+        return _registry.get(name);
+    }
+
+    /** Return the type of the available rotor named NAME, as for
+     *  RotorRegistry.type, without building the rotor. */
+    char rotorType(String name) {
+        return _registry.type(name);
     }
 
     /** Return Array containing names of the rotors in _machines. */
@@ -94,16 +194,22 @@ class Machine {
 
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
-     *  Initially, all rotors are set at their 0 setting. */
+     *  Initially, all rotors are set at their 0 setting and ring
+     *  setting. */
     void insertRotors(String[] rotors) {
+        unbind();
         _machine.clear();
         for (String rotorName : rotors) {
-            if (!_allRotors.containsKey(rotorName)) {
+            Rotor r = _registry.get(rotorName);
+            if (r == null) {
                 throw EnigmaException.error
                         ("Rotor not contained in _allRotors");
             }
-            _machine.add(_allRotors.get(rotorName));
+            _machine.add(r);
+            r.setRing(0);
         }
+        _weights = null;
+        _stepper = null;
         if (!_machine.get(0).reflecting()) {
             throw EnigmaException.error("First rotor must be reflector");
         } else if (!_machine.get(rotors.length - 1).rotates()) {
@@ -111,6 +217,78 @@ class Machine {
         }
     }
 
+    /** Set my rotors' ring settings according to RINGS, which must be a
+     *  string of numRotors()-1 characters in my alphabet, the first
+     *  for the leftmost rotor (not counting the reflector), or empty
+     *  for ring setting 0 throughout.  Ring settings are folded into
+     *  each rotor's tables here and cost nothing per character. */
+    void setRings(String rings) {
+        unbind();
+        if (rings.length() == 0) {
+            for (int i = 1; i < _machine.size(); i += 1) {
+                _machine.get(i).setRing(0);
+            }
+            return;
+        }
+        if (rings.length() != _numRotors - 1) {
+            throw EnigmaException.error
+                    ("Invalid Ring Settings, Wrong Number of Arguments");
+        }
+        for (int i = 1; i < _machine.size(); i += 1) {
+            char c = rings.charAt(i - 1);
+            if (!_alphabet.contains(c)) {
+                throw EnigmaException.error("Ring settings invalid");
+            }
+            _machine.get(i).setRing(c);
+        }
+    }
+
+    /** Use MODEL to decide which rotors advance at each keypress.  The
+     *  default is SteppingModel.RATCHET. */
+    void setStepping(SteppingModel model) {
+        _stepping = model;
+        _steppers.clear();
+        _stepper = null;
+    }
+
+    /** Return my stepping model. */
+    SteppingModel stepping() {
+        return _stepping;
+    }
+
+    /** Return my stepping model compiled for my current rotors. */
+    Stepper stepper() {
+        if (_stepper == null) {
+            String key = stepperKey();
+            _stepper = _steppers.get(key);
+            if (_stepper == null) {
+                _stepper = new Stepper(_stepping, _machine,
+                                       _alphabet.size());
+                _steppers.put(key, _stepper);
+            }
+        }
+        return _stepper;
+    }
+
+    /** Return what my compiled stepper depends on: which slots hold
+     *  moving rotors and where their notches are.  Rotors with the same
+     *  notches in the same slots share a stepper. */
+    String stepperKey() {
+        StringBuilder key = new StringBuilder();
+        for (Rotor r : _machine) {
+            if (r.rotates()) {
+                key.append('*');
+                for (int p = 0; p < _alphabet.size(); p += 1) {
+                    if (r.notchAt(p)) {
+                        key.append(p).append(',');
+                    }
+                }
+            }
+            key.append('/');
+        }
+        return key.toString();
+    }
+
     /** Set my rotors according to SETTING, which must be a string of
      *  numRotors()-1 characters in my alphabet. The first letter refers
      *  to the leftmost rotor setting (not counting the reflector).  */
@@ -135,17 +313,162 @@ class Machine {
                 i += 1;
             }
         }
+        checkFixed();
+    }
+
+    /** Return my rotors' positions packed into a long.  The positions
+     *  are the digits of a number in base alphabet size, the rotor in
+     *  slot 1 being the most significant digit and the rightmost rotor
+     *  the least, so states order like setting strings.  Requires that
+     *  size^(numRotors()-1) fit in a long; see snapshotWords(). */
+    long snapshot() {
+        packing();
+        if (_weights.length == 0) {
+            throw error("machine state does not fit in a long");
+        }
+        long state = 0;
+        for (int i = 1; i < _machine.size(); i += 1) {
+            state = state * _alphabet.size() + _machine.get(i).setting();
+        }
+        return state;
+    }
+
+    /** Set my rotors to the positions packed in STATE by snapshot(). */
+    void restore(long state) {
+        int n = _alphabet.size();
+        for (int i = _machine.size() - 1; i > 0; i -= 1) {
+            _machine.get(i).set((int) (state % n));
+            state /= n;
+        }
+        checkFixed();
+    }
+
+    /** Return the state that STATE, packed as by snapshot(), becomes
+     *  after one keypress, without changing my rotors. */
+    long step(long state) {
+        packing();
+        if (_weights.length == 0) {
+            throw error("machine state does not fit in a long");
+        }
+        Stepper stepper = stepper();
+        int n = _alphabet.size();
+        int moves = stepper.moves(state, _weights);
+        long next = state;
+        for (int i = 0; moves != 0; i += 1, moves >>>= 1) {
+            if ((moves & 1) != 0) {
+                long w = _weights[stepper.slot(i)];
+                next += state / w % n == n - 1 ? -(n - 1) * w : w;
+            }
+        }
+        return next;
+    }
+
+    /** Return the number of longs snapshot(long[]) uses. */
+    int snapshotWords() {
+        int perWord = digitsPerWord();
+        return (_machine.size() - 1 + perWord - 1) / perWord;
+    }
+
+    /** Pack my rotors' positions into DEST[0 .. snapshotWords()-1], for
+     *  machines whose state does not fit in one long.  Word 0 holds the
+     *  rightmost rotors. */
+    void snapshot(long[] dest) {
+        int n = _alphabet.size(), perWord = digitsPerWord();
+        for (int w = 0, r = _machine.size() - 1; r > 0; w += 1) {
+            long word = 0, weight = 1;
+            for (int d = 0; d < perWord && r > 0; d += 1, r -= 1) {
+                word += weight * _machine.get(r).setting();
+                weight *= n;
+            }
+            dest[w] = word;
+        }
+    }
+
+    /** Set my rotors to the positions packed in SRC by
+     *  snapshot(long[]). */
+    void restore(long[] src) {
+        int n = _alphabet.size(), perWord = digitsPerWord();
+        for (int w = 0, r = _machine.size() - 1; r > 0; w += 1) {
+            long word = src[w];
+            for (int d = 0; d < perWord && r > 0; d += 1, r -= 1) {
+                _machine.get(r).set((int) (word % n));
+                word /= n;
+            }
+        }
+        checkFixed();
+    }
+
+    /** Return the number of base-alphabet-size digits a long holds. */
+    private int digitsPerWord() {
+        int digits = 0;
+        long limit = Long.MAX_VALUE / _alphabet.size();
+        for (long w = 1; w <= limit; w *= _alphabet.size()) {
+            digits += 1;
+        }
+        return Math.max(1, digits);
+    }
+
+    /** Compute the packed-state tables for my current rotors, if not
+     *  already done. */
+    private void packing() {
+        if (_weights != null) {
+            return;
+        }
+        int n = _alphabet.size(), size = _machine.size();
+        long[] weights = new long[size];
+        try {
+            long w = 1;
+            for (int r = size - 1; r > 0; r -= 1) {
+                weights[r] = w;
+                w = Math.multiplyExact(w, n);
+            }
+        } catch (ArithmeticException excp) {
+            weights = new long[0];
+        }
+        _weights = weights;
+    }
+
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        unbind();
         _plugboard = plugboard;
     }
 
     /** Returns the result of converting the input character C (as an
-     *  index in the range 0..alphabet size - 1), after first advancing
-     *  the machine. */
+     *  index in the range 0..alphabet size - 1) in the machine's
+     *  current position.  The tier of my configuration (see
+     *  EngineSelector) decides how; the result is the same in all. */
     int convert(int c) {
+        if (_profile == null) {
+            bind();
+        }
+        _pending += 1;
+        if (_pending >= EngineSelector.FLUSH) {
+            flush();
+        }
+        EngineSelector.Tables t = _tables;
+        if (t.full != null) {
+            int n = _alphabet.size(), j = 0;
+            for (int i = t.slots.length - 1; i >= 0; i -= 1) {
+                j = j * n + _slots[t.slots[i]].setting();
+            }
+            return t.full[j * n + c];
+        } else if (t.reflect != null) {
+            c = t.plug[c];
+            for (int i = _slots.length - 1; i >= t.leading; i -= 1) {
+                c = _slots[i].convertForward(c);
+            }
+            c = t.reflect[c];
+            for (int j = t.leading; j < _slots.length; j += 1) {
+                c = _slots[j].convertBackward(c);
+            }
+            return t.unplug[c];
+        }
         c = _plugboard.permute(c);
         for (int i = _machine.size() - 1; i >= 0; i -= 1) {
             c = _machine.get(i).convertForward(c);
@@ -157,30 +480,37 @@ class Machine {
         return c;
     }
 
+    /** Advance my rotors as for one keypress, as my stepping model
+     *  (by default the ratchet: the rightmost rotor always moves, and a
+     *  rotor at a notch moves itself and its left neighbor, if that
+     *  neighbor has a pawl) decides. */
+    void step() {
+        Stepper stepper = stepper();
+        int moves = stepper.moves(_machine);
+        for (int i = 0; moves != 0; i += 1, moves >>>= 1) {
+            if ((moves & 1) != 0) {
+                _machine.get(stepper.slot(i)).advance();
+            }
+        }
+    }
+
+    /** Store the encoding/decoding of MSG[FROM .. TO-1], a message of
+     *  alphabet indices, in RESULT[FROM .. TO-1], advancing before each
+     *  character.  RESULT may be MSG. */
+    void convert(int[] msg, int from, int to, int[] result) {
+        for (int i = from; i < to; i += 1) {
+            step();
+            result[i] = convert(msg[i]);
+        }
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
         char[] message = msg.toCharArray();
         StringBuilder encrypted = new StringBuilder();
-        _willRotate = new boolean[_numRotors];
         for (char c : message) {
-            for (int r = _machine.size() - 1; r > 0; r -= 1) {
-                Rotor current = _machine.get(r);
-                Rotor nextLeft = _machine.get(r - 1);
-                if (r == _machine.size() - 1) {
-                    _willRotate[r] = true;
-                }
-                if (current.atNotch() && nextLeft.rotates()) {
-                    _willRotate[r] = true;
-                    _willRotate[r - 1] = true;
-                }
-            }
-            for (int r = _machine.size() - 1; r > 0; r -= 1) {
-                if (_willRotate[r]) {
-                    _machine.get(r).advance();
-                }
-            }
-            _willRotate = new boolean[_numRotors];
+            step();
             if (!_alphabet.contains(c)) {
                 throw EnigmaException.error
                         ("Character %s not in alphabet", c);
@@ -193,6 +523,80 @@ class Machine {
         return encrypted.toString();
     }
 
+    /** Return a string that identifies my configuration: the rotors in
+     *  my slots, their ring settings, the positions of those that do not
+     *  move, and my plugboard.  Two machines with the same configuration
+     *  produce the same substitution at each joint position of their
+     *  moving rotors. */
+    String configuration() {
+        StringBuilder key = new StringBuilder();
+        for (Rotor r : _machine) {
+            key.append(r.name()).append('\0').append((char) r.ring())
+                .append((char) (r.rotates() ? 0 : r.setting() + 1));
+        }
+        for (int p : _plugboard.table()) {
+            key.append((char) p);
+        }
+        return key.toString();
+    }
+
+    /** Return the joint position of my moving rotors, packed as by
+     *  Stepper: the rightmost moving rotor is the least significant
+     *  digit. */
+    long joint() {
+        Stepper stepper = stepper();
+        long result = 0;
+        for (int i = stepper.count() - 1; i >= 0; i -= 1) {
+            result = result * _alphabet.size()
+                + _machine.get(stepper.slot(i)).setting();
+        }
+        return result;
+    }
+
+    /** Install the profile of my current configuration. */
+    private void bind() {
+        _slots = _machine.toArray(new Rotor[0]);
+        _profile = _engines.profile(configuration(), _slots);
+        _pending = 0;
+        _profile.record(0, _slots, _plugboard);
+        _tables = _profile.tables();
+    }
+
+    /** Report the characters converted since the last flush and pick up
+     *  any new tables for my configuration. */
+    private void flush() {
+        _profile.record(_pending, _slots, _plugboard);
+        _pending = 0;
+        _tables = _profile.tables();
+    }
+
+    /** Uninstall the profile of my configuration, which is changing. */
+    private void unbind() {
+        if (_profile != null) {
+            _profile.record(_pending, _slots, _plugboard);
+            _profile = null;
+            _tables = null;
+            _slots = null;
+            _pending = 0;
+        }
+    }
+
+    /** Uninstall my profile if a stationary rotor has been moved. */
+    private void checkFixed() {
+        if (_profile != null) {
+            for (int s = 0; s < _slots.length; s += 1) {
+                if (_profile.moved(s, _slots[s].setting())) {
+                    unbind();
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Weight of each slot's digit in a packed state (empty if states
+     *  do not fit in a long); null until computed for _machine. */
+    private long[] _weights;
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
@@ -0,0 +1,259 @@
+package enigma;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** A Flow.Processor that converts a stream of messages with one Machine.
+ *  Each item received is either a settings line, which begins with "*"
+ *  and is applied as by Main (producing nothing), or a chunk of message
+ *  text, whose whitespace is ignored and whose converted letters are
+ *  published as one item.  A chunk may end part way through a message;
+ *  the machine's state carries over to the next chunk.
+ *
+ *  At most BUFFER items are ever requested from upstream and not yet
+ *  processed, so the internal queue is bounded, and converted chunks
+ *  are published only as the subscriber requests them.  All work on the
+ *  machine is done by one drain task at a time, scheduled on an
+ *  Executor and serialized by an atomic work counter, so the machine
+ *  needs no locks but must not be used by anything else.  An error in
+ *  the input cancels upstream and is reported to the subscriber as an
+ *  EnigmaException; any other exception thrown while converting ends
+ *  the stream the same way.
+ *  @author Andrew Kaplan
+ */
+class MachineProcessor implements Flow.Processor<String, String> {
+
+    /** Default bound on buffered items. */
+    static final int BUFFER = Flow.defaultBufferSize();
+
+    /** A processor converting with MACHINE, which it owns from now on,
+     *  buffering at most BUFFER items and draining on EXECUTOR. */
+    MachineProcessor(Machine machine, int buffer, Executor executor) {
+        if (buffer < 1) {
+            throw error("buffer must be positive");
+        }
+        _machine = machine;
+        _buffer = buffer;
+        _executor = executor;
+    }
+
+    /** A processor converting with MACHINE using the default buffer on
+     *  the common pool. */
+    MachineProcessor(Machine machine) {
+        this(machine, BUFFER, ForkJoinPool.commonPool());
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        if (_downstream != null) {
+            subscriber.onSubscribe(new Downstream());
+            subscriber.onError(
+                new IllegalStateException("already subscribed"));
+            return;
+        }
+        _downstream = subscriber;
+        subscriber.onSubscribe(new Downstream());
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        subscription.request(_buffer);
+    }
+
+    @Override
+    public void onNext(String item) {
+        _queue.offer(item);
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable failure) {
+        _failure = failure;
+        _done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        _done = true;
+        drain();
+    }
+
+    /** Schedule the drain task unless it is already running. */
+    private void drain() {
+        if (_wip.getAndIncrement() == 0) {
+            _executor.execute(this::drainLoop);
+        }
+    }
+
+    /** Convert queued items while the subscriber wants them.  Only one
+     *  thread at a time runs this. */
+    private void drainLoop() {
+        int missed = 1;
+        while (true) {
+            Flow.Subscriber<? super String> d = _downstream;
+            if (d != null && !_terminated) {
+                emit(d);
+            }
+            missed = _wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    /** Deliver as many converted items to D as it has requested. */
+    private void emit(Flow.Subscriber<? super String> d) {
+        long wanted = _demand.get(), sent = 0;
+        while (true) {
+            if (_cancelled) {
+                _terminated = true;
+                _queue.clear();
+                return;
+            } else if (_badRequest) {
+                fail(d, new IllegalArgumentException("non-positive request"));
+                return;
+            }
+            boolean done = _done;
+            String item = _queue.peek();
+            if (item == null) {
+                if (done) {
+                    _terminated = true;
+                    if (_failure != null) {
+                        d.onError(_failure);
+                    } else {
+                        d.onComplete();
+                    }
+                }
+                break;
+            }
+            boolean setting = item.trim().startsWith("*");
+            if (!setting && sent == wanted) {
+                break;
+            }
+            _queue.poll();
+            String out;
+            try {
+                out = apply(item);
+            } catch (RuntimeException excp) {
+                fail(d, excp);
+                return;
+            }
+            if (out != null) {
+                d.onNext(out);
+                sent += 1;
+            }
+            consumed();
+        }
+        if (sent != 0 && wanted != Long.MAX_VALUE) {
+            _demand.addAndGet(-sent);
+        }
+    }
+
+    /** Return the result of ITEM, or null if it is a settings line. */
+    private String apply(String item) {
+        if (item.trim().startsWith("*")) {
+            Main.setUp(_machine, item.trim());
+            _configured = true;
+            return null;
+        } else if (!_configured) {
+            throw error("message before settings");
+        }
+        return _machine.convert(item.replaceAll("\\s", ""));
+    }
+
+    /** Note that one requested item has been processed, requesting more
+     *  from upstream once half the buffer has been used. */
+    private void consumed() {
+        _consumed += 1;
+        int batch = Math.max(1, _buffer / 2);
+        if (_consumed == batch) {
+            _consumed = 0;
+            _upstream.request(batch);
+        }
+    }
+
+    /** End the stream to D with FAILURE, cancelling upstream. */
+    private void fail(Flow.Subscriber<? super String> d,
+                      Throwable failure) {
+        _terminated = true;
+        _queue.clear();
+        Flow.Subscription up = _upstream;
+        if (up != null) {
+            up.cancel();
+        }
+        d.onError(failure);
+    }
+
+    /** The subscription handed to my subscriber. */
+    private final class Downstream implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                _badRequest = true;
+            } else {
+                _demand.getAndAccumulate(n, (a, b) -> {
+                    long sum = a + b;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+            Flow.Subscription up = _upstream;
+            if (up != null) {
+                up.cancel();
+            }
+            drain();
+        }
+    }
+
+    /** The machine, touched only by the drain task. */
+    private final Machine _machine;
+    /** Bound on items requested from upstream and not yet processed. */
+    private final int _buffer;
+    /** Executor running the drain task. */
+    private final Executor _executor;
+    /** Items received and not yet processed. */
+    private final ConcurrentLinkedQueue<String> _queue =
+        new ConcurrentLinkedQueue<>();
+    /** Outstanding demand of the subscriber. */
+    private final AtomicLong _demand = new AtomicLong();
+    /** Number of drain requests not yet handled. */
+    private final AtomicInteger _wip = new AtomicInteger();
+    /** Source of items. */
+    private volatile Flow.Subscription _upstream;
+    /** Receiver of converted items. */
+    private volatile Flow.Subscriber<? super String> _downstream;
+    /** True once upstream has completed or failed. */
+    private volatile boolean _done;
+    /** Upstream's failure, or null. */
+    private volatile Throwable _failure;
+    /** True once the subscriber has cancelled. */
+    private volatile boolean _cancelled;
+    /** True once the subscriber has made an invalid request. */
+    private volatile boolean _badRequest;
+    /** True once the subscriber has been sent a terminal signal (drain
+     *  task only). */
+    private boolean _terminated;
+    /** True once settings have been applied (drain task only). */
+    private boolean _configured;
+    /** Items processed since upstream was last asked for more (drain
+     *  task only). */
+    private int _consumed;
+}
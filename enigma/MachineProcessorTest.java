@@ -0,0 +1,161 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.TestUtils.*;
+
+/** Tests of MachineProcessor.
+ *  @author Andrew Kaplan
+ */
+public class MachineProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** The settings and message lines used by the tests. */
+    private static final String[] LINES = {
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "FROM HIS SHOULDER HIAWATHA",
+        "TOOK THE CAMERA OF ROSEWOOD",
+        "* B Beta I II III AAAA",
+        "HELLO WORLD",
+    };
+
+    /** A subscriber recording what it receives, requesting INITIAL
+     *  items at first. */
+    private static class Recorder implements Flow.Subscriber<String> {
+        Recorder(long initial) {
+            _initial = initial;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            _subscription = s;
+            s.request(_initial);
+        }
+
+        @Override
+        public synchronized void onNext(String item) {
+            _items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable failure) {
+            _failure = failure;
+            _finished.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            _finished.countDown();
+        }
+
+        synchronized int received() {
+            return _items.size();
+        }
+
+        synchronized String joined() {
+            return String.join("", _items);
+        }
+
+        private final long _initial;
+        private final ArrayList<String> _items = new ArrayList<>();
+        private final CountDownLatch _finished = new CountDownLatch(1);
+        private volatile Throwable _failure;
+        private Flow.Subscription _subscription;
+    }
+
+    @Test
+    public void matchesMainTest() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true,
+                                          StandardCharsets.UTF_8);
+        new Main(defaultMachine(), new Scanner(String.join("\n", LINES)), out)
+            .processMessages();
+        String expected = bytes.toString(StandardCharsets.UTF_8)
+            .replaceAll("\\s", "");
+
+        MachineProcessor proc = new MachineProcessor(defaultMachine(), 2,
+                                                     Runnable::run);
+        Recorder rec = new Recorder(Long.MAX_VALUE);
+        proc.subscribe(rec);
+        try (SubmissionPublisher<String> pub =
+                 new SubmissionPublisher<>()) {
+            pub.subscribe(proc);
+            for (String line : LINES) {
+                pub.submit(line);
+            }
+        }
+        assertTrue(rec._finished.await(5, TimeUnit.SECONDS));
+        assertNull(rec._failure);
+        assertEquals(expected, rec.joined());
+    }
+
+    @Test
+    public void backpressureTest() throws Exception {
+        MachineProcessor proc = new MachineProcessor(defaultMachine());
+        Recorder rec = new Recorder(1);
+        proc.subscribe(rec);
+        SubmissionPublisher<String> pub = new SubmissionPublisher<>();
+        pub.subscribe(proc);
+        pub.submit(LINES[0]);
+        for (int i = 0; i < 10; i += 1) {
+            pub.submit("AAAAA");
+        }
+        pub.close();
+        while (rec.received() < 1) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        assertEquals(1, rec.received());
+        rec._subscription.request(Long.MAX_VALUE);
+        assertTrue(rec._finished.await(5, TimeUnit.SECONDS));
+        assertEquals(10, rec.received());
+        assertEquals(50, rec.joined().length());
+    }
+
+    @Test
+    public void errorTest() throws Exception {
+        MachineProcessor proc = new MachineProcessor(defaultMachine());
+        Recorder rec = new Recorder(Long.MAX_VALUE);
+        proc.subscribe(rec);
+        try (SubmissionPublisher<String> pub =
+                 new SubmissionPublisher<>()) {
+            pub.subscribe(proc);
+            pub.submit("HELLO");
+        }
+        assertTrue(rec._finished.await(5, TimeUnit.SECONDS));
+        assertTrue(rec._failure instanceof EnigmaException);
+    }
+
+    @Test
+    public void runtimeErrorTest() throws Exception {
+        MachineProcessor proc = new MachineProcessor(defaultMachine());
+        Recorder rec = new Recorder(Long.MAX_VALUE);
+        proc.subscribe(rec);
+        try (SubmissionPublisher<String> pub =
+                 new SubmissionPublisher<>()) {
+            pub.subscribe(proc);
+            pub.submit("* B  Beta I II III AAAA");
+            pub.submit("HELLO");
+        }
+        assertTrue(rec._finished.await(5, TimeUnit.SECONDS));
+        assertNotNull(rec._failure);
+        assertEquals(0, rec.received());
+    }
+}
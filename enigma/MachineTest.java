@@ -52,5 +52,192 @@ public class MachineTest {
         String enigmaCheck = "A";
         assertEquals(enigmaCheck, enigmaMessage);
     }
-}
 
+    @Test
+    public void indexConversionTest() {
+        Machine m1 = simpleMachine(), m2 = simpleMachine();
+        String[] rotors = {"reflect", "idFixed", "entrance"};
+        m1.insertRotors(rotors);
+        m2.insertRotors(rotors);
+        m1.setRotors("AC");
+        m2.setRotors("AC");
+        m1.setPlugboard(simple);
+        m2.setPlugboard(simple);
+        String msg = "HELLOWORLDABC";
+        int[] text = new int[msg.length()];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = UPPER.toInt(msg.charAt(i));
+        }
+        m2.convert(text, 0, text.length, text);
+        String converted = m1.convert(msg);
+        for (int i = 0; i < text.length; i += 1) {
+            assertEquals(converted.charAt(i), UPPER.toChar(text[i]));
+        }
+    }
+
+    /** Return a machine with the naval rotors, configured as
+     *  B Beta III IV I with setting AXLE. */
+    private Machine navalMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                new Permutation(NAVALA.get("Beta"), UPPER)));
+        rotors.add(new MovingRotor("III",
+                new Permutation(NAVALA.get("III"), UPPER), "V"));
+        rotors.add(new MovingRotor("IV",
+                new Permutation(NAVALA.get("IV"), UPPER), "J"));
+        rotors.add(new MovingRotor("I",
+                new Permutation(NAVALA.get("I"), UPPER), "Q"));
+        Machine m = new Machine(UPPER, 5, 3, rotors);
+        m.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        m.setRotors("AXLE");
+        m.setPlugboard(id);
+        return m;
+    }
+
+    @Test
+    public void packedStateTest() {
+        Machine m = navalMachine();
+        long start = m.snapshot();
+        assertEquals(((0 * 26 + 23) * 26 + 11) * 26 + 4, start);
+        long state = start;
+        for (int i = 0; i < 20000; i += 1) {
+            state = m.step(state);
+            m.step();
+            assertEquals(m.snapshot(), state);
+        }
+        m.restore(start);
+        assertEquals(start, m.snapshot());
+        long[] words = new long[m.snapshotWords()];
+        m.snapshot(words);
+        m.restore(state);
+        m.restore(words);
+        assertEquals(start, m.snapshot());
+    }
+
+    @Test
+    public void lazyRegistryTest() {
+        StringBuilder text = new StringBuilder(" B R (AE) (BN) (CK) (DQ)"
+            + " (FU) (GY) (HW) (IJ) (LO) (MP) (RX) (SZ) (TV)\n");
+        int n = 20000;
+        for (int i = 0; i < n; i += 1) {
+            text.append(" R.").append(i).append(" MQ (AELTPHQXRU) (BKNW)")
+                .append(" (CMOY) (DFG) (IV) (JZ) (S)\n");
+        }
+        RotorRegistry reg = RotorRegistry.index(UPPER, text.toString());
+        assertEquals(n + 1, reg.size());
+        assertEquals(0, reg.built());
+        assertEquals("R.17", reg.names()[18]);
+        Machine m = new Machine(UPPER, 3, 2, reg);
+        assertEquals(n + 1, m.rotorNames().length);
+        m.insertRotors(new String[] {"B", "R.5", "R.17"});
+        assertEquals(3, reg.built());
+        m.setRotors("AA");
+        m.setPlugboard(id);
+        int c = m.convert(UPPER.toInt('A'));
+        assertNotEquals(UPPER.toInt('A'), c);
+        assertEquals(UPPER.toInt('A'), m.convert(c));
+        Machine copy = m.copy();
+        copy.insertRotors(new String[] {"B", "R.5", "R.17"});
+        assertEquals(3, reg.built());
+        assertNotSame(m.rotor("R.5"), copy.rotor("R.5"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void duplicateNameTest() {
+        RotorRegistry.index(UPPER, "B R (AB) X N (AB) B N (CD)");
+    }
+
+    /** Return the settings of the rotors in slots 1 .. 4 of M, a
+     *  machine with rotors Beta, I, II and III inserted. */
+    private String settings(Machine m) {
+        StringBuilder result = new StringBuilder();
+        for (String name : new String[] {"Beta", "I", "II", "III"}) {
+            result.append(UPPER.toChar(m.rotor(name).setting()));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void steppingModelTest() throws java.io.IOException {
+        String[] slots = {"B", "Beta", "I", "II", "III"};
+        String[] ratchet = {"AADU", "AADV", "AAEW", "ABFX", "ABFY"};
+        String[] counter = {"AADU", "AADV", "AAEW", "AAEX", "AAEY"};
+        Machine m = defaultMachine();
+        m.insertRotors(slots);
+        m.setRotors("AADU");
+        long state = m.snapshot();
+        for (String expected : ratchet) {
+            assertEquals(expected, settings(m));
+            assertEquals(state, m.snapshot());
+            m.step();
+            state = m.step(state);
+        }
+        m.setStepping(SteppingModel.COUNTER);
+        m.insertRotors(slots);
+        m.setRotors("AADU");
+        for (String expected : counter) {
+            assertEquals(expected, settings(m));
+            m.step();
+        }
+        m.setRotors("AQEV");
+        m.step();
+        assertEquals("ARFW", settings(m));
+    }
+
+    @Test
+    public void ringSettingTest() throws java.io.IOException {
+        Machine m = defaultMachine();
+        Main.setUp(m, "* B Beta I II III AAAA ABBB");
+        assertEquals("EWTYX", m.convert("AAAAA"));
+        Main.setUp(m, "* B Beta I II III AAAA (AB)");
+        String plain = m.convert("HELLOWORLD");
+        Main.setUp(m, "* B Beta I II III AAAA AAAA (AB)");
+        assertEquals(plain, m.convert("HELLOWORLD"));
+        Main.setUp(m, "* B Beta I II III AAAA ABBB");
+        assertEquals(1, m.rotor("II").ring());
+        Main.setUp(m, "* B Beta I II III AAAA");
+        assertEquals(0, m.rotor("II").ring());
+    }
+
+    @Test
+    public void copySteppingTest() throws java.io.IOException {
+        Machine m = defaultMachine();
+        m.setStepping(SteppingModel.COUNTER);
+        Machine copy = m.copy();
+        copy.insertRotors(new String[] {"B", "Beta", "I", "II", "III"});
+        copy.setRotors("AADU");
+        for (String expected
+                 : new String[] {"AADU", "AADV", "AAEW", "AAEX"}) {
+            assertEquals(expected, settings(copy));
+            copy.step();
+        }
+    }
+
+    @Test
+    public void stepperCacheTest() throws java.io.IOException {
+        Machine m = defaultMachine();
+        m.insertRotors(new String[] {"B", "Beta", "I", "II", "VI"});
+        Stepper first = m.stepper();
+        m.insertRotors(new String[] {"B", "Beta", "I", "II", "VII"});
+        assertSame(first, m.stepper());
+        m.insertRotors(new String[] {"B", "Beta", "II", "I", "VI"});
+        assertNotSame(first, m.stepper());
+        String[] moving = {"I", "II", "III", "IV", "V", "VI"};
+        int distinct = 0;
+        for (String a : moving) {
+            for (String b : moving) {
+                for (String c : moving) {
+                    if (!a.equals(b) && !b.equals(c) && !a.equals(c)) {
+                        m.insertRotors(new String[] {"B", "Beta", a, b, c});
+                        m.stepper();
+                        distinct += 1;
+                    }
+                }
+            }
+        }
+        assertTrue(distinct > Machine.STEPPERS);
+        m.insertRotors(new String[] {"B", "Beta", "I", "II", "VI"});
+        assertNotSame(first, m.stepper());
+    }
+}
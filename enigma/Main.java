@@ -4,7 +4,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 
@@ -26,17 +29,87 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  If ARGS[0] names a mode (--batch, --coordinator, --worker,
+     *  --catalog, --states, --harness, --serve, --daemon, --client,
+     *  --depths, --archive, --fanout, --interactive), the remaining
+     *  arguments are handed to that mode's driver instead.
+     *  Otherwise, if a daemon's socket is named by the environment
+     *  variable Daemon.SOCKET_ENV, the work is forwarded to that
+     *  daemon. */
     public static void main(String... args) {
         try {
-            new Main(args).process();
-            return;
+            if (args.length > 0 && args[0].startsWith("--")) {
+                if (runMode(args[0],
+                            Arrays.copyOfRange(args, 1, args.length))) {
+                    return;
+                }
+            } else {
+                int code = forward(args);
+                if (code < 0) {
+                    new Main(args).process();
+                    return;
+                } else if (code == 0) {
+                    return;
+                }
+            }
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
         }
         System.exit(1);
     }
 
+    /** Run the driver for MODE with arguments ARGS.  Return true iff it
+     *  succeeded. */
+    private static boolean runMode(String mode, String[] args) {
+        switch (mode) {
+        case BATCH:
+            return Batch.main(args);
+        case COORDINATOR:
+            return Coordinator.main(args);
+        case WORKER:
+            return Worker.main(args);
+        case CATALOG:
+            return CycleCatalog.main(args);
+        case STATES:
+            return StateSpace.main(args);
+        case HARNESS:
+            return Harness.main(args);
+        case SERVE:
+            return Service.main(args);
+        case DAEMON:
+            return Daemon.main(args);
+        case CLIENT:
+            return Daemon.client(args);
+        case DEPTHS:
+            return DepthIndex.main(args);
+        case ARCHIVE:
+            return Archive.main(args);
+        case FANOUT:
+            return FanOut.main(args);
+        case INTERACTIVE:
+            return Interactive.main(args);
+        default:
+            throw error("unknown mode %s", mode);
+        }
+    }
+
+    /** Run ARGS on the daemon named by Daemon.SOCKET_ENV, if any, and
+     *  return its exit code.  Return -1 if there is no daemon to reach,
+     *  in which case nothing has been done. */
+    private static int forward(String[] args) {
+        String socket = System.getenv(Daemon.SOCKET_ENV);
+        if (socket == null || !Files.exists(Paths.get(socket))) {
+            return -1;
+        }
+        try {
+            return Daemon.forward(Paths.get(socket), args);
+        } catch (IOException excp) {
+            return -1;
+        }
+    }
+
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
         if (args.length < 1 || args.length > 3) {
@@ -58,6 +131,28 @@ public final class Main {
         }
     }
 
+    /** A Main that applies the already configured machine ENIGMA to the
+     *  messages in INPUT, sending the results to OUTPUT.  Used by drivers
+     *  that parse one configuration and reuse it for many inputs. */
+    Main(Machine enigma, Scanner input, PrintStream output) {
+        _enigma = enigma;
+        _alphabet = enigma.alphabet();
+        _input = input;
+        _output = output;
+    }
+
+    /** A Main with no files, used only to read configurations. */
+    private Main() {
+    }
+
+    /** Return an Enigma machine configured from the contents of CONFIG,
+     *  which is closed afterwards. */
+    static Machine readConfig(Scanner config) {
+        Main reader = new Main();
+        reader._config = config;
+        return reader.readConfig();
+    }
+
     /** Return a Scanner reading from the file named NAME. */
     private Scanner getInput(String name) {
         try {
@@ -81,6 +176,12 @@ public final class Main {
      *  results to _output. */
     private void process() {
         _enigma = readConfig();
+        processMessages();
+    }
+
+    /** Apply the configured machine _enigma to the messages in _input,
+     *  sending the results to _output. */
+    void processMessages() {
         if (!_input.hasNext("\\*")) {
             throw EnigmaException.error
                     ("Invalid input file");
@@ -89,7 +190,7 @@ public final class Main {
             if (_input.hasNext("\\*")) {
                 String settingLine = _input.nextLine();
                 if (settingLine.equals("")) {
-                    System.out.println(settingLine);
+                    _output.println(settingLine);
                 } else {
                     setUp(_enigma, settingLine);
                 }
@@ -98,141 +199,108 @@ public final class Main {
             }
         }
         while (_input.hasNextLine()) {
-            System.out.print(_input.nextLine());
+            _output.print(_input.nextLine());
         }
-
+        _output.flush();
     }
 
     /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
+     *  file _config.  The rotor descriptions are only indexed here; each
+     *  rotor is built when first inserted (see RotorRegistry). */
     private Machine readConfig() {
         int numRotors = 0;
         int pawls = 0;
-        ArrayList<Rotor> allRotors = new ArrayList<>();
+        RotorRegistry rotors;
         try {
-            while (_config.hasNext()) {
-                _config.hasNext("(\\s?)+([\\w\\.]+)");
-                String alpha = _config.next("(\\s?)+([\\w\\.]+)");
-                _alphabet = new Alphabet(alpha);
-                _config.hasNext("(\\s?)+(\\d)");
-                String numR = _config.next("(\\s?)+(\\d)");
-                numRotors = Integer.parseInt(numR);
-                _config.hasNext("(\\s?)+(\\d)");
-                String numP = _config.next("(\\s?)+(\\d)");
-                pawls = Integer.parseInt(numP);
-                while (_config.hasNext()) {
-                    allRotors.add(readRotor());
-                }
-            }
+            _config.hasNext("(\\s?)+([\\w\\.]+)");
+            String alpha = _config.next("(\\s?)+([\\w\\.]+)");
+            _alphabet = new Alphabet(alpha);
+            _config.hasNext("(\\s?)+(\\d)");
+            String numR = _config.next("(\\s?)+(\\d)");
+            numRotors = Integer.parseInt(numR);
+            _config.hasNext("(\\s?)+(\\d)");
+            String numP = _config.next("(\\s?)+(\\d)");
+            pawls = Integer.parseInt(numP);
+            _config.useDelimiter("\\z");
+            String rest = _config.hasNext() ? _config.next() : "";
+            rotors = RotorRegistry.index(_alphabet, rest);
             _config.close();
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
-        return new Machine(_alphabet, numRotors, pawls, allRotors);
-    }
-
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
-        String name = "noName";
-        String notches = "noNotches";
-        Permutation perm;
-        StringBuilder cycles = new StringBuilder();
-        char type = '0';
-        Rotor r;
-
-        try {
-            while (_config.hasNext()) {
-                if (_config.hasNext("(\\s?)+([\\w\\.]+)")) {
-                    if (name.equals("noName")) {
-                        name = _config.next("(\\s?)+([\\w\\.]+)");
-                        name = name.replaceAll("\\s", "");
-                    } else if (type == '0') {
-                        String s = _config.next("(\\s?)+([\\w\\.]+)");
-                        s = s.replaceAll("\\s", "");
-                        type = s.charAt(0);
-                        if (type == 'M') {
-                            notches = s.substring(1);
-                        } else if (s.length() > 1) {
-                            throw EnigmaException.error
-                                    ("Fixed Rotors cannot have notches");
-                        }
-                    } else {
-                        break;
-                    }
-                } else if (_config.hasNext
-                        ("((\\s?)+(\\([\\w\\.]+\\))(\\s?)+)+")) {
-                    cycles.append(_config.next
-                            ("((\\s?)+(\\([\\w\\.]+\\))(\\s?)+)+"));
-
-                }
-            }
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
-        }
-        perm = new Permutation(cycles.toString(), _alphabet);
-        if (type == 'M') {
-            r  = new MovingRotor(name, perm, notches);
-        } else if (type == 'N') {
-            r  = new FixedRotor(name, perm);
-        } else if (type == 'R') {
-            r  = new Reflector(name, perm);
-        } else {
-            throw EnigmaException.error
-                    ("Cannot initialize rotor " + type);
-        }
-        return r;
+        return new Machine(_alphabet, numRotors, pawls, rotors);
     }
 
     /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        String[] sets = settings.split("\\s");
-        String[] activeRotors = new String[M.numRotors()];
-        StringBuilder permString = new StringBuilder();
-        Permutation perm;
-        String rotorSetting = "";
-
-        for (int i = 1; i < sets.length; i += 1) {
-            if (i < M.numRotors() + 1) {
-                activeRotors[i - 1] = sets[i];
-            } else {
-                if (sets[i].charAt(0) != '(' && i == M.numRotors() + 1) {
-                    rotorSetting = sets[M.numRotors() + 1];
-                } else {
-                    permString.append(sets[i]);
-                }
-
-            }
-        }
-        for (char c: rotorSetting.toCharArray()) {
-            if (!_alphabet.contains(c)) {
-                throw EnigmaException.error("Settings invalid");
-            }
-        }
-
-        M.insertRotors(activeRotors);
-        M.setRotors(rotorSetting);
-        perm = new Permutation(permString.toString(), _alphabet);
-        M.setPlugboard(perm);
+     *  which must have the format specified in the assignment, with an
+     *  optional ring setting (in the form of the rotor setting)
+     *  following the rotor setting. */
+    static void setUp(Machine M, String settings) {
+        Settings.parse(M, settings).apply(M);
     }
 
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
         String stripMsg = msg.replaceAll("\\s", "");
-        StringBuilder encrypted = new StringBuilder();
-        encrypted.append(_enigma.convert(stripMsg));
-        int len = encrypted.length();
+        _output.println(groups(_enigma.convert(stripMsg)));
+    }
+
+    /** Return TEXT in groups of five letters separated by blanks (except
+     *  that the last group may have fewer letters). */
+    static String groups(String text) {
+        StringBuilder grouped = new StringBuilder(text);
+        int len = grouped.length();
         int offset = 0;
         for (int i = 0; i < len; i += 1) {
             if (i % 5 == 0 && i > 0) {
-                encrypted.insert(i + offset, " ");
+                grouped.insert(i + offset, " ");
                 offset += 1;
             }
         }
-        System.out.println(encrypted);
+        return grouped.toString();
     }
 
+    /** First argument selecting the batch driver. */
+    static final String BATCH = "--batch";
+
+    /** First argument selecting the search coordinator. */
+    static final String COORDINATOR = "--coordinator";
+
+    /** First argument selecting a search worker. */
+    static final String WORKER = "--worker";
+
+    /** First argument selecting the cycle-structure catalog. */
+    static final String CATALOG = "--catalog";
+
+    /** First argument selecting the rotor state-space analyzer. */
+    static final String STATES = "--states";
+
+    /** First argument selecting the in-process test harness. */
+    static final String HARNESS = "--harness";
+
+    /** First argument selecting the HTTP service. */
+    static final String SERVE = "--serve";
+
+    /** First argument selecting the resident daemon. */
+    static final String DAEMON = "--daemon";
+
+    /** First argument selecting the daemon's client. */
+    static final String CLIENT = "--client";
+
+    /** First argument selecting the depth index. */
+    static final String DEPTHS = "--depths";
+
+    /** First argument selecting the message archive. */
+    static final String ARCHIVE = "--archive";
+
+    /** First argument selecting the fan-out of one message to many
+     *  settings. */
+    static final String FANOUT = "--fanout";
+
+    /** First argument selecting per-keystroke interactive conversion. */
+    static final String INTERACTIVE = "--interactive";
+
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
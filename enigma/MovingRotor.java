@@ -32,16 +32,21 @@ class MovingRotor extends Rotor {
         }
     }
 
+    @Override
+    Rotor copy() {
+        return new MovingRotor(name(), permutation(), new String(_notches));
+    }
+
     @Override
     void advance() {
         set(permutation().wrap(setting() + 1));
     }
 
     @Override
-    boolean atNotch() {
+    boolean notchAt(int posn) {
         boolean atNotch = false;
         for (int i : _notchInts) {
-            if (i == setting()) {
+            if (i == posn) {
                 atNotch = true;
                 break;
             }
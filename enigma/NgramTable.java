@@ -0,0 +1,246 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** A table of log10 probabilities of the N-grams of an alphabet of
+ *  size A, used to score trial decryptions.  The N-gram c1 c2 ... cN of
+ *  alphabet indices is stored at the packed index
+ *  (...((c1 * A) + c2) * A ...) + cN of a flat table of A^N floats.
+ *  Texts are int[] buffers of alphabet indices, as produced by
+ *  Machine.convert(int[], ...), never Strings.
+ *
+ *  Tables are saved as a big-endian binary file: the int MAGIC, the
+ *  ints N and A, and then the A^N floats.  Tables of more than
+ *  MAP_THRESHOLD bytes are memory-mapped rather than read onto the
+ *  heap.
+ *  @author Andrew Kaplan
+ */
+class NgramTable {
+
+    /** First int of a table file ("ENGR"). */
+    static final int MAGIC = 0x454e4752;
+
+    /** Size in bytes of the largest table read onto the heap. */
+    static final long MAP_THRESHOLD = 1L << 20;
+
+    /** Size in bytes of a table file's header. */
+    private static final int HEADER = 12;
+
+    /** A table of N-grams over an alphabet of size ALPHABETSIZE whose
+     *  log10 probabilities are TABLE, of length ALPHABETSIZE^N. */
+    NgramTable(int n, int alphabetSize, float[] table) {
+        this(n, alphabetSize, table, null);
+    }
+
+    /** A table of N-grams over an alphabet of size ALPHABETSIZE held
+     *  in exactly one of TABLE and MAPPED. */
+    private NgramTable(int n, int alphabetSize, float[] table,
+                       FloatBuffer mapped) {
+        if (n < 1 || alphabetSize < 1) {
+            throw error("bad n-gram table dimensions");
+        }
+        _n = n;
+        _radix = alphabetSize;
+        long cells = 1;
+        for (int i = 0; i < n; i += 1) {
+            cells *= alphabetSize;
+            if (cells > Integer.MAX_VALUE / 4) {
+                throw error("n-gram table too large");
+            }
+        }
+        _high = (int) (cells / alphabetSize);
+        int length = table != null ? table.length : mapped.capacity();
+        if (length != cells) {
+            throw error("n-gram table has %d entries, not %d",
+                        length, cells);
+        }
+        _table = table;
+        _mapped = mapped;
+    }
+
+    /** Return a table of the N-grams of TEXT[0 .. LENGTH-1], a text of
+     *  indices into an alphabet of size ALPHABETSIZE.  N-grams that do
+     *  not occur are given a small floor probability. */
+    static NgramTable fromText(int n, int alphabetSize, int[] text,
+                               int length) {
+        long cells = 1;
+        for (int i = 0; i < n; i += 1) {
+            cells *= alphabetSize;
+        }
+        if (cells > Integer.MAX_VALUE / 4) {
+            throw error("n-gram table too large");
+        }
+        int[] counts = new int[(int) cells];
+        int high = (int) (cells / alphabetSize);
+        int idx = 0;
+        for (int i = 0; i < length; i += 1) {
+            idx = (idx % high) * alphabetSize + text[i];
+            if (i >= n - 1) {
+                counts[idx] += 1;
+            }
+        }
+        double total = Math.max(1, length - n + 1);
+        float floor = (float) Math.log10(0.01 / total);
+        float[] table = new float[counts.length];
+        for (int i = 0; i < counts.length; i += 1) {
+            table[i] = counts[i] == 0 ? floor
+                : (float) Math.log10(counts[i] / total);
+        }
+        return new NgramTable(n, alphabetSize, table);
+    }
+
+    /** Return the table stored in FILE. */
+    static NgramTable read(Path file) {
+        try (FileChannel channel =
+                 FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER) {
+                throw error("%s is not an n-gram table", file);
+            }
+            if (length - HEADER <= MAP_THRESHOLD) {
+                try (DataInputStream in = new DataInputStream(
+                         new BufferedInputStream(
+                             Files.newInputStream(file)))) {
+                    int n = readHeader(in, file), size = in.readInt();
+                    float[] table = new float[(int) (length - HEADER) / 4];
+                    for (int i = 0; i < table.length; i += 1) {
+                        table[i] = in.readFloat();
+                    }
+                    return new NgramTable(n, size, table);
+                }
+            }
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buf.order(ByteOrder.BIG_ENDIAN);
+            if (buf.getInt() != MAGIC) {
+                throw error("%s is not an n-gram table", file);
+            }
+            int n = buf.getInt(), size = buf.getInt();
+            return new NgramTable(n, size, null, buf.asFloatBuffer());
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Read and check the magic number from IN, a stream on FILE, and
+     *  return the N that follows it. */
+    private static int readHeader(DataInputStream in, Path file)
+        throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw error("%s is not an n-gram table", file);
+        }
+        return in.readInt();
+    }
+
+    /** Save me to FILE. */
+    void write(Path file) {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(_n);
+            out.writeInt(_radix);
+            for (int i = 0; i < entries(); i += 1) {
+                out.writeFloat(get(i));
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Return N, the length of my n-grams. */
+    int n() {
+        return _n;
+    }
+
+    /** Return the size of my alphabet. */
+    int alphabetSize() {
+        return _radix;
+    }
+
+    /** Return the number of entries in my table. */
+    int entries() {
+        return _high * _radix;
+    }
+
+    /** Return the log10 probability of the n-gram packed as INDEX. */
+    float get(int index) {
+        return _table != null ? _table[index] : _mapped.get(index);
+    }
+
+    /** Return the packed index of the n-gram TEXT[START .. START+n()-1]. */
+    int index(int[] text, int start) {
+        int idx = 0;
+        for (int i = start; i < start + _n; i += 1) {
+            idx = idx * _radix + text[i];
+        }
+        return idx;
+    }
+
+    /** Return the sum of the log10 probabilities of all n-grams lying
+     *  in TEXT[FROM .. TO-1]. */
+    double score(int[] text, int from, int to) {
+        if (to - from < _n) {
+            return 0.0;
+        }
+        int idx = 0;
+        for (int i = from; i < from + _n - 1; i += 1) {
+            idx = idx * _radix + text[i];
+        }
+        double sum = 0.0;
+        if (_table != null) {
+            float[] table = _table;
+            for (int i = from + _n - 1; i < to; i += 1) {
+                idx = (idx % _high) * _radix + text[i];
+                sum += table[idx];
+            }
+        } else {
+            for (int i = from + _n - 1; i < to; i += 1) {
+                idx = (idx % _high) * _radix + text[i];
+                sum += _mapped.get(idx);
+            }
+        }
+        return sum;
+    }
+
+    /** Assuming SCORE is score(TEXT, FROM, TO), set TEXT[POS] to VALUE
+     *  and return the new score.  Only the at most n() n-grams covering
+     *  POS are re-scored. */
+    double change(int[] text, int from, int to, double score,
+                  int pos, int value) {
+        int first = Math.max(from, pos - _n + 1),
+            last = Math.min(pos, to - _n);
+        for (int s = first; s <= last; s += 1) {
+            score -= get(index(text, s));
+        }
+        text[pos] = value;
+        for (int s = first; s <= last; s += 1) {
+            score += get(index(text, s));
+        }
+        return score;
+    }
+
+    /** Length of my n-grams. */
+    private final int _n;
+    /** Alphabet size. */
+    private final int _radix;
+    /** _radix^(_n - 1), the weight of an n-gram's first index. */
+    private final int _high;
+    /** Heap table, or null if mapped. */
+    private final float[] _table;
+    /** Mapped table, or null if on the heap. */
+    private final FloatBuffer _mapped;
+}
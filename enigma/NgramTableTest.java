@@ -0,0 +1,78 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the NgramTable and Fitness classes.
+ *  @author Andrew Kaplan
+ */
+public class NgramTableTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    private int[] corpus =
+        indices("THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGTHENTHEDOGSLEPT");
+
+    @Test
+    public void checkScore() {
+        NgramTable bigrams = NgramTable.fromText(2, 26, corpus,
+                                                 corpus.length);
+        int[] text = indices("THEDOG");
+        double expected = 0;
+        for (int i = 0; i + 2 <= text.length; i += 1) {
+            expected += bigrams.get(text[i] * 26 + text[i + 1]);
+        }
+        assertEquals(expected, bigrams.score(text, 0, text.length), 1e-9);
+        assertTrue(bigrams.score(text, 0, text.length)
+                   > bigrams.score(indices("QXZJVK"), 0, 6));
+    }
+
+    @Test
+    public void checkIncrementalChange() {
+        NgramTable trigrams = NgramTable.fromText(3, 26, corpus,
+                                                  corpus.length);
+        int[] text = indices("THEQUICKDOGSLEPT");
+        double score = trigrams.score(text, 0, text.length);
+        score = trigrams.change(text, 0, text.length, score, 0, 7);
+        score = trigrams.change(text, 0, text.length, score, 9, 20);
+        score = trigrams.change(text, 0, text.length, score, 15, 1);
+        assertEquals(trigrams.score(text, 0, text.length), score, 1e-6);
+    }
+
+    @Test
+    public void checkRoundTrip() throws IOException {
+        for (int n = 1; n <= 4; n += 1) {
+            NgramTable table = NgramTable.fromText(n, 26, corpus,
+                                                   corpus.length);
+            File file = File.createTempFile("ngrams", ".bin");
+            file.deleteOnExit();
+            table.write(file.toPath());
+            NgramTable copy = NgramTable.read(file.toPath());
+            assertEquals(n, copy.n());
+            assertEquals(table.entries(), copy.entries());
+            assertEquals(table.score(corpus, 0, corpus.length),
+                         copy.score(corpus, 0, corpus.length), 1e-6);
+        }
+    }
+
+    @Test
+    public void checkFitness() {
+        int[] counts = new int[26];
+        int[] text = indices("AABB");
+        assertEquals(4.0 / 12, Fitness.indexOfCoincidence(text, 0, 4,
+                                                          counts), 1e-9);
+        float[] expected = new float[26];
+        expected[0] = 0.5f;
+        expected[1] = 0.5f;
+        assertEquals(0.0, Fitness.chiSquared(counts, 4, expected), 1e-9);
+    }
+}
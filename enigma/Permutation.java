@@ -24,6 +24,12 @@ class Permutation {
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
         _cycles = cycles;
+        _table = new int[alphabet.size()];
+        _inverseTable = new int[alphabet.size()];
+        for (int p = 0; p < _table.length; p += 1) {
+            _table[p] = p;
+            _inverseTable[p] = p;
+        }
 
         String c1 = _cycles.replaceAll("\\s", "");
         String c2 = c1.replace("(", "");
@@ -68,6 +74,12 @@ class Permutation {
             _permMap.put(keyInt, _alphabet.toInt(charAR[i + 1]));
             _invMap.put(keyInt, _alphabet.toInt(charAR[i - 1]));
         }
+
+        for (int i = 0; i < charAR.length; i += 1) {
+            int keyInt = _alphabet.toInt(charAR[i]);
+            _table[keyInt] = _permMap.getOrDefault(keyInt, keyInt);
+            _inverseTable[keyInt] = _invMap.getOrDefault(keyInt, keyInt);
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -87,21 +99,13 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        p = wrap(p);
-        if (_permMap.containsKey(p)) {
-            return (_permMap.get(p));
-        }
-        return p;
+        return _table[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        c = wrap(c);
-        if (_invMap.containsKey(c)) {
-            return _invMap.get(c);
-        }
-        return c;
+        return _inverseTable[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -123,6 +127,18 @@ class Permutation {
         return c;
     }
 
+    /** Return my mapping as a table, whose entry P is permute(P).  The
+     *  table is built with me and shared, so it must not be modified. */
+    int[] table() {
+        return _table;
+    }
+
+    /** Return the inverse of my mapping as a shared table (see
+     *  table()). */
+    int[] inverseTable() {
+        return _inverseTable;
+    }
+
     /** Return the alphabet used to initialize this Permutation. */
     Alphabet alphabet() {
         return _alphabet;
@@ -136,4 +152,8 @@ class Permutation {
 
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
+    /** My mapping as a table. */
+    private final int[] _table;
+    /** My inverse mapping as a table. */
+    private final int[] _inverseTable;
 }
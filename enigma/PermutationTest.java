@@ -90,4 +90,19 @@ public class PermutationTest {
         perm = new Permutation("(BCDEFGHIJKLMNOPQRSTUVWXYZA)", UPPER);
         assertTrue(perm.derangement());
     }
+
+    @Test
+    public void checkTables() {
+        perm = new Permutation("(CSB)(DAT)", UPPER);
+        int[] table = perm.table(), inverse = perm.inverseTable();
+        assertSame(table, perm.table());
+        assertSame(inverse, perm.inverseTable());
+        for (int i = 0; i < UPPER.size(); i += 1) {
+            assertEquals(perm.permute(i), table[i]);
+            assertEquals(i, inverse[table[i]]);
+        }
+        perm.addCycle("XY");
+        assertEquals(UPPER.toInt('Y'), perm.table()[UPPER.toInt('X')]);
+        assertEquals(UPPER.toInt('X'), perm.inverseTable()[UPPER.toInt('Y')]);
+    }
 }
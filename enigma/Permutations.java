@@ -0,0 +1,374 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Algebra on permutations given as tables: a permutation P of
+ *  0 .. n-1 is an int[] whose entry X is P's image of X, as
+ *  Permutation.table() returns.  Products are written in the order
+ *  the permutations are applied, so "P then Q" takes X to Q[P[X]], as
+ *  with the keypresses of a machine.
+ *
+ *  Nothing here allocates except where a result is returned: each
+ *  operation writes into a destination supplied by the caller or works
+ *  in place, and the cycle walks mark visited points in a per-thread
+ *  bitset.  A destination may not be one of the operands unless the
+ *  operation says so.
+ *  @author Andrew Kaplan
+ */
+final class Permutations {
+
+    /** Not instantiable. */
+    private Permutations() {
+    }
+
+    /** Set DEST to the identity. */
+    static void identity(int[] dest) {
+        for (int x = 0; x < dest.length; x += 1) {
+            dest[x] = x;
+        }
+    }
+
+    /** Return true iff P is a permutation of 0 .. P.length-1. */
+    static boolean valid(int[] p) {
+        long[] seen = scratch(p.length);
+        for (int x = 0; x < p.length; x += 1) {
+            if (p[x] < 0 || p[x] >= p.length || visited(seen, p[x])) {
+                return false;
+            }
+            visit(seen, p[x]);
+        }
+        return true;
+    }
+
+    /** Store P then Q in DEST, which may be P. */
+    static void compose(int[] p, int[] q, int[] dest) {
+        for (int x = 0; x < p.length; x += 1) {
+            dest[x] = q[p[x]];
+        }
+    }
+
+    /** Replace P with P then Q. */
+    static void then(int[] p, int[] q) {
+        compose(p, q, p);
+    }
+
+    /** Store the inverse of P in DEST. */
+    static void invert(int[] p, int[] dest) {
+        for (int x = 0; x < p.length; x += 1) {
+            dest[p[x]] = x;
+        }
+    }
+
+    /** Replace P with its inverse, by reversing each cycle. */
+    static void invert(int[] p) {
+        long[] seen = scratch(p.length);
+        for (int x = 0; x < p.length; x += 1) {
+            if (visited(seen, x)) {
+                continue;
+            }
+            int prev = x, y = p[x];
+            visit(seen, x);
+            while (y != x) {
+                int next = p[y];
+                visit(seen, y);
+                p[y] = prev;
+                prev = y;
+                y = next;
+            }
+            p[x] = prev;
+        }
+    }
+
+    /** Store in DEST the conjugate of P by Q: Q inverse, then P, then
+     *  Q.  It has P's cycles with each point X renamed Q[X]. */
+    static void conjugate(int[] p, int[] q, int[] dest) {
+        for (int x = 0; x < p.length; x += 1) {
+            dest[q[x]] = q[p[x]];
+        }
+    }
+
+    /** Store P to the power K (which may be negative) in DEST, moving
+     *  each point K places along its cycle. */
+    static void power(int[] p, long k, int[] dest) {
+        long[] seen = scratch(p.length);
+        for (int x = 0; x < p.length; x += 1) {
+            if (visited(seen, x)) {
+                continue;
+            }
+            int len = 0;
+            for (int y = x; !visited(seen, y); y = p[y]) {
+                visit(seen, y);
+                len += 1;
+            }
+            int shift = (int) Math.floorMod(k, (long) len);
+            int ahead = x;
+            for (int i = 0; i < shift; i += 1) {
+                ahead = p[ahead];
+            }
+            int y = x;
+            for (int i = 0; i < len; i += 1) {
+                dest[y] = ahead;
+                y = p[y];
+                ahead = p[ahead];
+            }
+        }
+    }
+
+    /** Store the cycles of P in POINTS and START, and return their
+     *  number, C.  Cycle I is POINTS[START[I] .. START[I+1]-1], from its
+     *  least point, and START[C] is P.length, so START needs room for
+     *  C+1 entries (P.length+1 suffice).  Cycles are in order of their
+     *  least points, so equal permutations give equal decompositions. */
+    static int cycles(int[] p, int[] points, int[] start) {
+        long[] seen = scratch(p.length);
+        int cycles = 0, n = 0;
+        for (int x = 0; x < p.length; x += 1) {
+            if (visited(seen, x)) {
+                continue;
+            }
+            start[cycles] = n;
+            cycles += 1;
+            for (int y = x; !visited(seen, y); y = p[y]) {
+                visit(seen, y);
+                points[n] = y;
+                n += 1;
+            }
+        }
+        start[cycles] = n;
+        return cycles;
+    }
+
+    /** Store the lengths of the cycles of P in DEST in decreasing order
+     *  and return their number. */
+    static int cycleType(int[] p, int[] dest) {
+        long[] seen = scratch(p.length);
+        int cycles = 0;
+        for (int x = 0; x < p.length; x += 1) {
+            if (visited(seen, x)) {
+                continue;
+            }
+            int len = 0;
+            for (int y = x; !visited(seen, y); y = p[y]) {
+                visit(seen, y);
+                len += 1;
+            }
+            dest[cycles] = len;
+            cycles += 1;
+        }
+        Arrays.sort(dest, 0, cycles);
+        for (int i = 0, j = cycles - 1; i < j; i += 1, j -= 1) {
+            int t = dest[i];
+            dest[i] = dest[j];
+            dest[j] = t;
+        }
+        return cycles;
+    }
+
+    /** Return the lengths of the cycles of P in decreasing order. */
+    static int[] cycleType(int[] p) {
+        int[] lengths = new int[p.length];
+        return Arrays.copyOf(lengths, cycleType(p, lengths));
+    }
+
+    /** Return the order of P: the least K > 0 with P to the power K the
+     *  identity. */
+    static long order(int[] p) {
+        long[] seen = scratch(p.length);
+        long result = 1;
+        for (int x = 0; x < p.length; x += 1) {
+            if (visited(seen, x)) {
+                continue;
+            }
+            int len = 0;
+            for (int y = x; !visited(seen, y); y = p[y]) {
+                visit(seen, y);
+                len += 1;
+            }
+            try {
+                result = Math.multiplyExact(result / gcd(result, len), len);
+            } catch (ArithmeticException excp) {
+                throw error("permutation order does not fit in a long");
+            }
+        }
+        return result;
+    }
+
+    /** Return 1 if P is even and -1 if it is odd. */
+    static int sign(int[] p) {
+        int cycles = 0;
+        long[] seen = scratch(p.length);
+        for (int x = 0; x < p.length; x += 1) {
+            if (!visited(seen, x)) {
+                cycles += 1;
+                for (int y = x; !visited(seen, y); y = p[y]) {
+                    visit(seen, y);
+                }
+            }
+        }
+        return (p.length - cycles) % 2 == 0 ? 1 : -1;
+    }
+
+    /** Return the number of points P fixes. */
+    static int fixedPoints(int[] p) {
+        int result = 0;
+        for (int x = 0; x < p.length; x += 1) {
+            if (p[x] == x) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the signature of P's cycle type. */
+    static Signature signature(int[] p) {
+        return new Signature(cycleType(p));
+    }
+
+    /** Return a 64-bit hash of P's cycle type that needs no allocation
+     *  (beyond the first use on a thread): equal cycle types give equal
+     *  hashes, and distinct ones collide with probability about
+     *  2^-64. */
+    static long fingerprint(int[] p) {
+        int[] lengths = lengths(p.length);
+        int cycles = cycleType(p, lengths);
+        long h = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < cycles; i += 1) {
+            h = mix(h ^ lengths[i]);
+        }
+        return h;
+    }
+
+    /** Return P as a Permutation of ALPHA, which must have P.length
+     *  characters. */
+    static Permutation permutation(int[] p, Alphabet alpha) {
+        return new Permutation(cycleString(p, alpha), alpha);
+    }
+
+    /** Return P in cycle notation over ALPHA, omitting fixed points. */
+    static String cycleString(int[] p, Alphabet alpha) {
+        StringBuilder result = new StringBuilder();
+        long[] seen = scratch(p.length);
+        for (int x = 0; x < p.length; x += 1) {
+            if (visited(seen, x) || p[x] == x) {
+                continue;
+            }
+            result.append('(');
+            for (int y = x; !visited(seen, y); y = p[y]) {
+                visit(seen, y);
+                result.append(alpha.toChar(y));
+            }
+            result.append(')');
+        }
+        return result.toString();
+    }
+
+    /** A cycle type, as the lengths of a permutation's cycles in
+     *  decreasing order.  Equal cycle types have equal signatures,
+     *  whatever the permutations, so signatures may be used as hash keys
+     *  and sorted. */
+    static final class Signature implements Comparable<Signature> {
+
+        /** The signature with cycle lengths LENGTHS, in decreasing
+         *  order. */
+        Signature(int[] lengths) {
+            _lengths = lengths;
+            _hash = Arrays.hashCode(lengths);
+        }
+
+        /** Return the number of cycles. */
+        int cycles() {
+            return _lengths.length;
+        }
+
+        /** Return the length of cycle I, the Ith longest. */
+        int length(int i) {
+            return _lengths[i];
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Signature
+                && Arrays.equals(_lengths, ((Signature) obj)._lengths);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public int compareTo(Signature other) {
+            return Arrays.compare(_lengths, other._lengths);
+        }
+
+        /** Return my lengths as, e.g., "[13, 13]". */
+        @Override
+        public String toString() {
+            return Arrays.toString(_lengths);
+        }
+
+        /** Cycle lengths, longest first. */
+        private final int[] _lengths;
+        /** Hash of _lengths. */
+        private final int _hash;
+    }
+
+    /** Return a well-mixed function of X (the SplitMix64 finalizer). */
+    static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /** Return the greatest common divisor of A and B. */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /** Return this thread's bitset for N points, cleared. */
+    private static long[] scratch(int n) {
+        long[] seen = SEEN.get();
+        int words = (n + 63) >>> 6;
+        if (seen.length < words) {
+            seen = new long[words];
+            SEEN.set(seen);
+        } else {
+            Arrays.fill(seen, 0, words, 0L);
+        }
+        return seen;
+    }
+
+    /** Return this thread's buffer of N cycle lengths. */
+    private static int[] lengths(int n) {
+        int[] buf = LENGTHS.get();
+        if (buf.length < n) {
+            buf = new int[n];
+            LENGTHS.set(buf);
+        }
+        return buf;
+    }
+
+    /** Mark X in SEEN. */
+    private static void visit(long[] seen, int x) {
+        seen[x >>> 6] |= 1L << x;
+    }
+
+    /** Return true iff X is marked in SEEN. */
+    private static boolean visited(long[] seen, int x) {
+        return (seen[x >>> 6] & (1L << x)) != 0;
+    }
+
+    /** Each thread's visited bitset. */
+    private static final ThreadLocal<long[]> SEEN =
+        ThreadLocal.withInitial(() -> new long[1]);
+    /** Each thread's cycle-length buffer. */
+    private static final ThreadLocal<int[]> LENGTHS =
+        ThreadLocal.withInitial(() -> new int[0]);
+}
@@ -0,0 +1,119 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** Tests of Permutations.
+ *  @author Andrew Kaplan
+ */
+public class PermutationsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a random permutation of N points. */
+    private int[] random(Random random, int n) {
+        int[] p = new int[n];
+        Permutations.identity(p);
+        for (int i = n - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1), t = p[i];
+            p[i] = p[j];
+            p[j] = t;
+        }
+        return p;
+    }
+
+    @Test
+    public void composeInvertTest() {
+        Random random = new Random(45);
+        for (int n : new int[] {1, 26, 64, 65, 200}) {
+            int[] p = random(random, n), q = random(random, n);
+            int[] pq = new int[n], inv = new int[n], id = new int[n];
+            Permutations.compose(p, q, pq);
+            for (int x = 0; x < n; x += 1) {
+                assertEquals(q[p[x]], pq[x]);
+            }
+            Permutations.invert(p, inv);
+            int[] copy = p.clone();
+            Permutations.invert(copy);
+            assertArrayEquals(inv, copy);
+            Permutations.then(copy, p);
+            Permutations.identity(id);
+            assertArrayEquals(id, copy);
+            assertTrue(Permutations.valid(pq));
+        }
+        assertFalse(Permutations.valid(new int[] {0, 0}));
+    }
+
+    @Test
+    public void powerOrderTest() {
+        Random random = new Random(45);
+        int[] p = random(random, 26), dest = new int[26];
+        int[] slow = new int[26];
+        Permutations.identity(slow);
+        for (int k = 0; k < 30; k += 1) {
+            Permutations.power(p, k, dest);
+            assertArrayEquals(slow, dest);
+            Permutations.then(slow, p);
+        }
+        long order = Permutations.order(p);
+        Permutations.power(p, order, dest);
+        Permutations.identity(slow);
+        assertArrayEquals(slow, dest);
+        Permutations.power(p, -1, dest);
+        Permutations.then(dest, p);
+        assertArrayEquals(slow, dest);
+        int[] cycle = {1, 2, 0, 4, 3, 5};
+        assertEquals(6, Permutations.order(cycle));
+        assertEquals(-1, Permutations.sign(cycle));
+        assertEquals(1, Permutations.fixedPoints(cycle));
+    }
+
+    @Test
+    public void cyclesTest() {
+        int[] p = {1, 2, 0, 4, 3, 5};
+        int[] points = new int[6], start = new int[7];
+        assertEquals(3, Permutations.cycles(p, points, start));
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4, 5}, points);
+        assertEquals(0, start[0]);
+        assertEquals(3, start[1]);
+        assertEquals(5, start[2]);
+        assertEquals(6, start[3]);
+        assertArrayEquals(new int[] {3, 2, 1}, Permutations.cycleType(p));
+        Permutation perm = Permutations.permutation(p, new Alphabet("ABCDEF"));
+        assertEquals('B', perm.permute('A'));
+        assertEquals('D', perm.permute('E'));
+        assertEquals("(ABC)(DE)",
+            Permutations.cycleString(p, new Alphabet("ABCDEF")));
+    }
+
+    @Test
+    public void conjugateSignatureTest() {
+        Random random = new Random(45);
+        HashSet<Permutations.Signature> seen = new HashSet<>();
+        int[] p = random(random, 26), dest = new int[26];
+        for (int k = 0; k < 20; k += 1) {
+            int[] q = random(random, 26);
+            Permutations.conjugate(p, q, dest);
+            seen.add(Permutations.signature(dest));
+            assertEquals(Permutations.fingerprint(p),
+                         Permutations.fingerprint(dest));
+            for (int x = 0; x < 26; x += 1) {
+                assertEquals(q[p[x]], dest[q[x]]);
+            }
+        }
+        assertEquals(1, seen.size());
+        assertTrue(seen.contains(Permutations.signature(p)));
+        int[] reflector = new Permutation(NAVALA.get("B"), UPPER).table();
+        assertEquals("[2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2]",
+                     Permutations.signature(reflector).toString());
+    }
+}
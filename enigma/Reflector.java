@@ -13,11 +13,24 @@ class Reflector extends FixedRotor {
         super(name, perm);
     }
 
+    @Override
+    Rotor copy() {
+        return new Reflector(name(), permutation());
+    }
+
     @Override
     boolean reflecting() {
         return true;
     }
 
+    @Override
+    void setRing(int ring) {
+        if (ring != 0) {
+            throw error("reflector has no ring setting");
+        }
+        super.setRing(ring);
+    }
+
     @Override
     void set(int posn) {
         if (posn != 0) {
@@ -13,6 +13,7 @@ class Rotor {
         _name = name;
         _permutation = perm;
         _setting = 0;
+        setRing(0);
     }
 
     /** Return my name. */
@@ -61,11 +62,44 @@ class Rotor {
         set(posn);
     }
 
+    /** Return my ring setting. */
+    int ring() {
+        return _ring;
+    }
+
+    /** Set ring() to RING, which shifts my wiring RING positions
+     *  against my setting and notches.  The shift is folded into my
+     *  conversion tables here, so converting costs the same whatever
+     *  the ring setting. */
+    void setRing(int ring) {
+        _ring = _permutation.wrap(ring);
+        if (_ring == 0) {
+            _forward = _permutation.table();
+            _backward = _permutation.inverseTable();
+            return;
+        }
+        int n = size();
+        _forward = new int[n];
+        _backward = new int[n];
+        for (int k = 0; k < n; k += 1) {
+            int shifted = _permutation.wrap(k - _ring);
+            _forward[k] = _permutation.wrap(_permutation.permute(shifted)
+                                            + _ring);
+            _backward[k] = _permutation.wrap(_permutation.invert(shifted)
+                                             + _ring);
+        }
+    }
+
+    /** Set ring() to character CRING. */
+    void setRing(char cring) {
+        setRing(_permutation.alphabet().toInt(cring));
+    }
+
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
         int postSetP = _permutation.wrap(p + _setting);
-        int permP = _permutation.permute(postSetP);
+        int permP = _forward[postSetP];
         int resetPermP = _permutation.wrap(permP - _setting);
         return resetPermP;
     }
@@ -74,7 +108,7 @@ class Rotor {
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
         int postSetE = _permutation.wrap(e + _setting);
-        int invE = _permutation.invert(postSetE);
+        int invE = _backward[postSetE];
         int resetInvE = _permutation.wrap(invE - _setting);
         return resetInvE;
     }
@@ -82,6 +116,11 @@ class Rotor {
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
+        return notchAt(_setting);
+    }
+
+    /** Returns true iff I would be at a notch in setting POSN. */
+    boolean notchAt(int posn) {
         return false;
     }
 
@@ -89,6 +128,13 @@ class Rotor {
     void advance() {
     }
 
+    /** Return a new rotor with my name and permutation, in its 0 setting
+     *  with ring setting 0.  The permutation is shared, so copies are
+     *  cheap to make. */
+    Rotor copy() {
+        return new Rotor(_name, _permutation);
+    }
+
     @Override
     public String toString() {
         return "Rotor " + _name;
@@ -102,4 +148,13 @@ class Rotor {
 
     /** Setting instance, initialized at 0. */
     private int _setting;
+
+    /** Ring setting, initially 0. */
+    private int _ring;
+
+    /** _forward[K] is where my wiring, shifted by _ring, takes K. */
+    private int[] _forward;
+
+    /** Inverse of _forward. */
+    private int[] _backward;
 }
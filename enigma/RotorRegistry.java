@@ -0,0 +1,300 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static enigma.EnigmaException.*;
+
+/** The rotors available to a Machine, indexed by name.  A registry made
+ *  by index() locates each rotor definition in the text of a
+ *  configuration in a single pass, recording its name, type and the
+ *  offsets of its cycles, and rejects duplicate names with a hash
+ *  table, so indexing is linear in the length of the text.  A rotor's
+ *  Permutation and Rotor are built only when the rotor is first asked
+ *  for (normally by Machine.insertRotors), so a library of many
+ *  thousands of rotors costs little more than its text until used.
+ *
+ *  Built rotors are shared, as templates, by every registry copied
+ *  from the same one; each registry hands out its own copy of a
+ *  template, so copies never share rotor settings.  A registry read
+ *  from a changed configuration may adopt() the built templates of the
+ *  rotors whose definitions did not change.
+ *  @author Andrew Kaplan
+ */
+class RotorRegistry {
+
+    /** A name or type token. */
+    private static final Pattern WORD = Pattern.compile("[\\w.]+");
+    /** A token of one or more cycles. */
+    private static final Pattern CYCLES =
+        Pattern.compile("(\\([\\w.]+\\))+");
+
+    /** A registry of the already built ROTORS, which are handed out
+     *  themselves rather than copies. */
+    RotorRegistry(Collection<Rotor> rotors) {
+        _index = new Index(null, null, rotors.size());
+        _rotors = new Rotor[rotors.size()];
+        for (Rotor r : rotors) {
+            int i = _index.add(r.name());
+            _index._templates[i] = r;
+            _rotors[i] = r;
+        }
+    }
+
+    /** A registry sharing INDEX, with no rotors handed out yet. */
+    private RotorRegistry(Index index) {
+        _index = index;
+        _rotors = new Rotor[index._size];
+    }
+
+    /** Return a registry of the rotor definitions in TEXT, which is the
+     *  part of a configuration following its header, over the alphabet
+     *  ALPHA.  Each definition is a name, a type (M followed by the
+     *  notches, N or R) and any number of cycle tokens, all separated
+     *  by whitespace. */
+    static RotorRegistry index(Alphabet alpha, String text) {
+        Index index = new Index(alpha, text, 16);
+        int n = text.length();
+        int def = -1;
+        boolean typed = false;
+        for (int p = 0; p < n; ) {
+            if (Character.isWhitespace(text.charAt(p))) {
+                p += 1;
+                continue;
+            }
+            int start = p;
+            while (p < n && !Character.isWhitespace(text.charAt(p))) {
+                p += 1;
+            }
+            String token = text.substring(start, p);
+            if (token.charAt(0) == '(') {
+                if (!typed || !CYCLES.matcher(token).matches()) {
+                    throw error("bad rotor description");
+                }
+                index._ends[def] = p;
+            } else if (!WORD.matcher(token).matches()) {
+                throw error("bad rotor description");
+            } else if (def >= 0 && !typed) {
+                char type = token.charAt(0);
+                if (type != 'M' && type != 'N' && type != 'R') {
+                    throw error("Cannot initialize rotor " + type);
+                } else if (type != 'M' && token.length() > 1) {
+                    throw error("Fixed Rotors cannot have notches");
+                }
+                index._types[def] = token;
+                index._starts[def] = p;
+                index._ends[def] = p;
+                typed = true;
+            } else {
+                def = index.add(token);
+                typed = false;
+            }
+        }
+        if (def >= 0 && !typed) {
+            throw error("Cannot initialize rotor 0");
+        }
+        return new RotorRegistry(index);
+    }
+
+    /** Return a registry of the same rotors that shares my index and
+     *  built templates but hands out its own rotors. */
+    RotorRegistry copy() {
+        return new RotorRegistry(_index);
+    }
+
+    /** Return the number of rotors. */
+    int size() {
+        return _index._size;
+    }
+
+    /** Return the names of the rotors, in order of definition.  The
+     *  array is shared and must not be modified. */
+    String[] names() {
+        return _index.names();
+    }
+
+    /** Return true iff there is a rotor named NAME. */
+    boolean contains(String name) {
+        return _index._slots.containsKey(name);
+    }
+
+    /** Return the rotor named NAME, building it if this is its first
+     *  use, or null if there is none. */
+    Rotor get(String name) {
+        Integer i = _index._slots.get(name);
+        if (i == null) {
+            return null;
+        } else if (_rotors[i] == null) {
+            _rotors[i] = _index.template(i).copy();
+        }
+        return _rotors[i];
+    }
+
+    /** Return the type of the rotor named NAME, without building it:
+     *  'M' if it moves, 'R' if it reflects, 'N' if it does neither, or
+     *  0 if there is no such rotor. */
+    char type(String name) {
+        Integer i = _index._slots.get(name);
+        return i == null ? 0 : _index.type(i);
+    }
+
+    /** Return the number of rotors whose tables have been built. */
+    int built() {
+        return _index.built();
+    }
+
+    /** Build every rotor not yet built, so that any error in a
+     *  definition is reported now rather than at first use. */
+    void buildAll() {
+        for (int i = 0; i < _index._size; i += 1) {
+            _index.template(i);
+        }
+    }
+
+    /** Take over the built templates of OLD, a registry over the same
+     *  alphabet, for every rotor whose definition (name, type and
+     *  cycles) is unchanged in me, and return the names of those
+     *  rotors.  Only registries indexed from text are compared. */
+    Set<String> adopt(RotorRegistry old) {
+        HashSet<String> result = new HashSet<>();
+        if (_index._text == null || old._index._text == null) {
+            return result;
+        }
+        for (int i = 0; i < _index._size; i += 1) {
+            String name = _index._names[i];
+            Integer j = old._index._slots.get(name);
+            if (j != null && _index.definition(i)
+                    .equals(old._index.definition(j))) {
+                _index.adopt(i, old._index.built(j));
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** The definitions shared by a registry and its copies. */
+    private static final class Index {
+
+        /** An index of definitions in TEXT over ALPHA, with room for
+         *  CAPACITY definitions before growing. */
+        Index(Alphabet alpha, String text, int capacity) {
+            _alpha = alpha;
+            _text = text;
+            capacity = Math.max(1, capacity);
+            _names = new String[capacity];
+            _types = new String[capacity];
+            _starts = new int[capacity];
+            _ends = new int[capacity];
+            _templates = new Rotor[capacity];
+        }
+
+        /** Add a definition of the rotor NAME and return its slot.  Its
+         *  type and cycle offsets are filled in by the caller. */
+        int add(String name) {
+            if (_slots.put(name, _size) != null) {
+                throw error("Duplicate Rotors Invalid");
+            }
+            if (_size == _names.length) {
+                int cap = 2 * _size;
+                _names = Arrays.copyOf(_names, cap);
+                _types = Arrays.copyOf(_types, cap);
+                _starts = Arrays.copyOf(_starts, cap);
+                _ends = Arrays.copyOf(_ends, cap);
+                _templates = Arrays.copyOf(_templates, cap);
+            }
+            _names[_size] = name;
+            _size += 1;
+            return _size - 1;
+        }
+
+        /** Return the names of the definitions, exactly sized. */
+        synchronized String[] names() {
+            if (_names.length != _size) {
+                _names = Arrays.copyOf(_names, _size);
+            }
+            return _names;
+        }
+
+        /** Return the template rotor of slot I, building it if
+         *  necessary. */
+        synchronized Rotor template(int i) {
+            if (_templates[i] == null) {
+                String cycles = _text.substring(_starts[i], _ends[i])
+                    .replaceAll("\\s", "");
+                Permutation perm = new Permutation(cycles, _alpha);
+                String type = _types[i];
+                if (type.charAt(0) == 'M') {
+                    _templates[i] =
+                        new MovingRotor(_names[i], perm, type.substring(1));
+                } else if (type.charAt(0) == 'N') {
+                    _templates[i] = new FixedRotor(_names[i], perm);
+                } else {
+                    _templates[i] = new Reflector(_names[i], perm);
+                }
+                _built += 1;
+            }
+            return _templates[i];
+        }
+
+        /** Return the type letter of slot I, from its definition or,
+         *  if it was given built, from its template. */
+        synchronized char type(int i) {
+            if (_types[i] != null) {
+                return _types[i].charAt(0);
+            }
+            Rotor r = _templates[i];
+            return r.reflecting() ? 'R' : r.rotates() ? 'M' : 'N';
+        }
+
+        /** Return the number of templates built from text. */
+        synchronized int built() {
+            return _built;
+        }
+
+        /** Return the template of slot I if it has been built, or
+         *  null. */
+        synchronized Rotor built(int i) {
+            return _templates[i];
+        }
+
+        /** Use TEMPLATE, if not null, as the template of slot I. */
+        synchronized void adopt(int i, Rotor template) {
+            if (template != null && _templates[i] == null) {
+                _templates[i] = template;
+            }
+        }
+
+        /** Return the type and cycles of slot I with whitespace
+         *  removed. */
+        String definition(int i) {
+            String cycles = _text.substring(_starts[i], _ends[i]);
+            return _types[i] + ' ' + cycles.replaceAll("\\s", "");
+        }
+
+        /** Alphabet of the rotors, or null if they were given built. */
+        private final Alphabet _alpha;
+        /** Text holding the definitions, or null. */
+        private final String _text;
+        /** Slot of each name. */
+        private final HashMap<String, Integer> _slots = new HashMap<>();
+        /** Names, types, and cycle offsets of the definitions. */
+        private String[] _names, _types;
+        /** Start and end offsets of each definition's cycles. */
+        private int[] _starts, _ends;
+        /** Built rotors, by slot. */
+        private Rotor[] _templates;
+        /** Number of definitions. */
+        private int _size;
+        /** Number of templates built from text. */
+        private int _built;
+    }
+
+    /** Shared definitions. */
+    private final Index _index;
+    /** Rotors handed out by me, by slot. */
+    private final Rotor[] _rotors;
+}
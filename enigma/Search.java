@@ -0,0 +1,122 @@
+package enigma;
+
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+/** An exhaustive ciphertext-only search of a KeySpace.  Every key is
+ *  applied to a copy of a machine, the ciphertext is decrypted into an
+ *  int buffer and the result is scored with an NgramTable.  The key
+ *  space is cut into equal partitions that are searched in parallel;
+ *  with a Checkpoint, partitions already searched are skipped and each
+ *  finished partition is recorded.  A KeywordSpotter may also screen
+ *  each decryption for known words, which catches keys of messages too
+ *  short for their statistics to score well.
+ *  @author Andrew Kaplan
+ */
+class Search {
+
+    /** A search of KEYS, which must describe TEMPLATE's rotors, for the
+     *  K keys whose decryptions of CIPHERTEXT (alphabet indices) score
+     *  best under SCORER. */
+    Search(KeySpace keys, Machine template, int[] ciphertext,
+           NgramTable scorer, int k) {
+        _keys = keys;
+        _ciphertext = ciphertext;
+        _scorer = scorer;
+        _k = k;
+        _machines = ThreadLocal.withInitial(template::copy);
+        _buffers = ThreadLocal.withInitial(() -> new int[_ciphertext.length]);
+    }
+
+    /** Report to HITS, from the searching threads, every key whose
+     *  decryption contains a word of SPOTTER.  Must be called before
+     *  searching. */
+    void setSpotter(KeywordSpotter spotter, LongConsumer hits) {
+        _spotter = spotter;
+        _hits = hits;
+    }
+
+    /** Return the first key of partition P when SIZE keys are cut into
+     *  PARTITIONS partitions.  Partition sizes differ by at most one
+     *  key. */
+    static long partitionStart(long size, long p, long partitions) {
+        long base = size / partitions, extra = size % partitions;
+        return p * base + Math.min(p, extra);
+    }
+
+    /** Search every partition of CHECKPOINT not yet done, recording each
+     *  as it finishes, then close CHECKPOINT (even if the search fails)
+     *  and return the best keys found overall, including those of
+     *  earlier runs. */
+    TopK run(Checkpoint checkpoint) {
+        long partitions = checkpoint.partitions();
+        try {
+            LongStream.range(0, partitions)
+                .filter(p -> !checkpoint.done(p))
+                .parallel()
+                .forEach(p -> checkpoint.complete(p, search(
+                    partitionStart(_keys.size(), p, partitions),
+                    partitionStart(_keys.size(), p + 1, partitions))));
+        } finally {
+            checkpoint.close();
+        }
+        return checkpoint.top();
+    }
+
+    /** Search the whole key space without a checkpoint and return the
+     *  best keys. */
+    TopK run() {
+        return _keys.stream().parallel().collect(
+            () -> new TopK(_k),
+            (top, key) -> top.offer(key, score(key)),
+            TopK::addAll);
+    }
+
+    /** Return the best keys among LO .. HI-1. */
+    TopK search(long lo, long hi) {
+        TopK top = new TopK(_k);
+        for (long key = lo; key < hi; key += 1) {
+            top.offer(key, score(key));
+        }
+        return top;
+    }
+
+    /** Return the best keys among LO .. HI-1, searched in parallel on
+     *  the common pool. */
+    TopK searchParallel(long lo, long hi) {
+        return LongStream.range(lo, hi).parallel().collect(
+            () -> new TopK(_k),
+            (top, key) -> top.offer(key, score(key)),
+            TopK::addAll);
+    }
+
+    /** Return the score of the decryption of the ciphertext under KEY,
+     *  using this thread's machine. */
+    double score(long key) {
+        Machine m = _machines.get();
+        int[] buf = _buffers.get();
+        _keys.apply(key, m);
+        m.convert(_ciphertext, 0, _ciphertext.length, buf);
+        if (_spotter != null && _spotter.matches(buf, 0, buf.length)) {
+            _hits.accept(key);
+        }
+        return _scorer.score(buf, 0, buf.length);
+    }
+
+    /** Keys searched. */
+    private final KeySpace _keys;
+    /** Ciphertext as alphabet indices. */
+    private final int[] _ciphertext;
+    /** Scoring table. */
+    private final NgramTable _scorer;
+    /** Number of keys kept. */
+    private final int _k;
+    /** Each worker thread's machine. */
+    private final ThreadLocal<Machine> _machines;
+    /** Each worker thread's decryption buffer. */
+    private final ThreadLocal<int[]> _buffers;
+    /** Screens decryptions for known words, or null. */
+    private KeywordSpotter _spotter;
+    /** Receives the keys whose decryptions _spotter matches. */
+    private LongConsumer _hits;
+}
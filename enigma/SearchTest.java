@@ -0,0 +1,188 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Search, TopK and Checkpoint
+ *  classes.
+ *  @author Andrew Kaplan
+ */
+public class SearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    private String plain =
+        "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGANDTHENTHEDOGSLEPTSOUNDLY";
+
+    /** A search setup whose correct key is _secret. */
+    private Search search(KeySpace keys) {
+        Machine m = smallMachine(4);
+        keys.apply(_secret, m);
+        int[] cipher = indices(m.convert(plain));
+        int[] text = indices(plain);
+        NgramTable scorer = NgramTable.fromText(3, 26, text, text.length);
+        return new Search(keys, smallMachine(4), cipher, scorer, 5);
+    }
+
+    /** The correct key. */
+    private long _secret = 3 * 26 * 26 + 17 * 26 + 4;
+
+    @Test
+    public void checkTopK() {
+        TopK top = new TopK(2);
+        top.offer(1, 1.0);
+        top.offer(2, 3.0);
+        top.offer(3, 2.0);
+        top.offer(2, 0.5);
+        assertEquals(2, top.size());
+        int[] rank = top.ranking();
+        assertEquals(2, top.key(rank[0]));
+        assertEquals(3, top.key(rank[1]));
+        assertEquals(2.0, top.threshold(), 0);
+    }
+
+    @Test
+    public void checkSearchFindsKey() {
+        KeySpace keys = new KeySpace(smallMachine(4)).fixPosition(1, 'A');
+        TopK top = search(keys).run();
+        assertEquals(_secret, top.key(top.ranking()[0]));
+    }
+
+    @Test
+    public void checkCheckpointResume() throws IOException {
+        KeySpace keys = new KeySpace(smallMachine(4)).fixPosition(1, 'A');
+        File file = File.createTempFile("search", ".ckpt");
+        file.delete();
+        file.deleteOnExit();
+        Search s = search(keys);
+        Checkpoint first = new Checkpoint(file.toPath(), keys.size(), 100, 5);
+        for (long p = 0; p < 30; p += 1) {
+            first.complete(p, s.search(
+                Search.partitionStart(keys.size(), p, 100),
+                Search.partitionStart(keys.size(), p + 1, 100)));
+        }
+        first.close();
+        Checkpoint second = new Checkpoint(file.toPath(), keys.size(),
+                                           100, 5);
+        assertEquals(30, second.completed());
+        assertTrue(second.done(29));
+        assertFalse(second.done(30));
+        TopK top = s.run(second);
+        assertEquals(_secret, top.key(top.ranking()[0]));
+        Checkpoint third = new Checkpoint(file.toPath(), keys.size(),
+                                          100, 5);
+        assertEquals(100, third.completed());
+        third.close();
+    }
+
+    @Test
+    public void checkSpotterFlagsKey() {
+        KeySpace keys = new KeySpace(smallMachine(4)).fixPosition(1, 'A');
+        Search s = search(keys);
+        ConcurrentLinkedQueue<Long> hits = new ConcurrentLinkedQueue<>();
+        s.setSpotter(new KeywordSpotter(UPPER,
+                                        Arrays.asList("LAZYDOG", "FOXJUMP")),
+                     hits::add);
+        s.run();
+        assertTrue(hits.contains(_secret));
+        assertTrue(hits.size() < 10);
+    }
+
+    @Test
+    public void checkCheckpointTornTable() throws IOException {
+        File file = File.createTempFile("search", ".ckpt");
+        file.delete();
+        file.deleteOnExit();
+        Checkpoint first = new Checkpoint(file.toPath(), 1000, 10, 2);
+        TopK found = new TopK(2);
+        found.offer(7, 1.5);
+        found.offer(9, 2.5);
+        first.complete(3, found);
+        first.close();
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.seek(Checkpoint.CURRENT);
+            int other = 1 - raw.readInt();
+            raw.seek(Checkpoint.HEADER + 8 + other * 2 * 16);
+            raw.writeLong(5);
+            raw.writeDouble(99.0);
+        }
+        Checkpoint second = new Checkpoint(file.toPath(), 1000, 10, 2);
+        assertTrue(second.done(3));
+        TopK top = second.top();
+        assertEquals(2, top.size());
+        assertEquals(9, top.key(top.ranking()[0]));
+        assertEquals(7, top.key(top.ranking()[1]));
+        second.close();
+    }
+
+    @Test
+    public void checkCheckpointWriterFailure() throws IOException {
+        File file = File.createTempFile("search", ".ckpt");
+        file.delete();
+        file.deleteOnExit();
+        Checkpoint checkpoint = new Checkpoint(file.toPath(), 1000, 10, 2);
+        checkpoint.complete(-1, new TopK(2));
+        try {
+            checkpoint.close();
+            fail("writer failure not reported");
+        } catch (IndexOutOfBoundsException excp) {
+            assertFalse(checkpoint.done(0));
+        }
+    }
+
+    /** Return the number of live checkpoint writer threads. */
+    private long writers() {
+        return Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.getName().equals("checkpoint-writer")
+                    && t.isAlive())
+            .count();
+    }
+
+    @Test
+    public void checkCheckpointClosedOnFailure() throws IOException {
+        KeySpace keys = new KeySpace(smallMachine(4)).fixPosition(1, 'A');
+        File file = File.createTempFile("search", ".ckpt");
+        file.delete();
+        file.deleteOnExit();
+        Search s = search(keys);
+        s.setSpotter(new KeywordSpotter(UPPER, Arrays.asList("E")), key -> {
+            throw new IllegalStateException("spotter failed");
+        });
+        long before = writers();
+        Checkpoint checkpoint = new Checkpoint(file.toPath(), keys.size(),
+                                               10, 5);
+        try {
+            s.run(checkpoint);
+            fail("search failure not propagated");
+        } catch (IllegalStateException excp) {
+            assertEquals(before, writers());
+        }
+    }
+
+    @Test
+    public void checkCheckpointMismatchLeavesFile() throws IOException {
+        File file = File.createTempFile("search", ".ckpt");
+        file.delete();
+        file.deleteOnExit();
+        new Checkpoint(file.toPath(), 1000, 10, 2).close();
+        long size = file.length();
+        try {
+            new Checkpoint(file.toPath(), 1000, 100000, 50);
+            fail("mismatched checkpoint opened");
+        } catch (EnigmaException excp) {
+            assertEquals(size, file.length());
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package enigma;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+
+import java.lang.reflect.Method;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static enigma.EnigmaException.*;
+
+/** A local HTTP encryption service.  The configuration is parsed once
+ *  and then reloaded in the background when its file changes (see
+ *  LiveConfig); each request borrows a machine from a pool of copies of
+ *  the current version (which share the parsed permutations but not
+ *  rotor settings) and returns it when done, so no two requests ever
+ *  share a Rotor.  A request runs to the end on the version it started
+ *  with, and machines of older versions are dropped from the pool.
+ *
+ *  POST /convert takes a body in the format Main reads, any number of
+ *  "*" setting lines each followed by message lines, and answers with
+ *  what Main would print.  The body is read and the answer written a
+ *  line at a time.  Answers up to BUFFERED bytes are held back so that
+ *  an error can still be reported as status 400; longer answers are
+ *  streamed with chunked encoding, and an error part way through ends
+ *  the stream with an "Error: ..." line.  A failure other than an
+ *  EnigmaException is answered the same way, with status 500, and the
+ *  machine that failed is not returned to the pool.  If the client
+ *  goes away while an answer is streamed, conversion stops at the
+ *  first line that cannot be sent.
+ *
+ *  The service listens on the loopback address only: it is reachable
+ *  from this host and no other.
+ *
+ *  Requests run on virtual threads when the runtime provides them
+ *  (Java 21 and later) and on a cached thread pool otherwise.
+ *  @author Andrew Kaplan
+ */
+class Service {
+
+    /** Largest answer held back before streaming starts. */
+    static final int BUFFERED = 1 << 16;
+
+    /** A service on PORT converting with copies of TEMPLATE. */
+    Service(Machine template, int port) throws IOException {
+        this(new LiveConfig(template), port);
+    }
+
+    /** A service on PORT of the loopback address converting with
+     *  copies of CONFIG's current version. */
+    Service(LiveConfig config, int port) throws IOException {
+        _config = config;
+        _server = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        _server.createContext("/convert", this::convert);
+        _executor = executor();
+        _server.setExecutor(_executor);
+    }
+
+    /** Run ARGS, which are CONFIG PORT.  Serves until the process is
+     *  killed.  Return true. */
+    static boolean main(String... args) {
+        if (args.length != 2) {
+            throw error("Usage: --serve CONFIG PORT");
+        }
+        try {
+            LiveConfig config = new LiveConfig(Paths.get(args[0]));
+            config.watch();
+            new Service(config, Integer.parseInt(args[1])).start();
+        } catch (NumberFormatException excp) {
+            throw error("bad port: %s", args[1]);
+        } catch (IOException excp) {
+            throw error("could not start service: %s", excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Start serving. */
+    void start() {
+        _server.start();
+    }
+
+    /** Stop serving, waiting at most DELAY seconds for open requests. */
+    void stop(int delay) {
+        _server.stop(delay);
+        _executor.shutdown();
+        _config.close();
+    }
+
+    /** Return the port I listen on. */
+    int port() {
+        return _server.getAddress().getPort();
+    }
+
+    /** Return the number of idle pooled machines. */
+    int idle() {
+        return _idle.size();
+    }
+
+    /** Handle the /convert request EXCHANGE. */
+    private void convert(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        Machine template = _config.template();
+        Machine m = borrow(template);
+        Answer answer = new Answer(exchange);
+        PrintStream out = new PrintStream(answer, false,
+                                          StandardCharsets.UTF_8);
+        boolean reusable = true;
+        try (Scanner in = new Scanner(new InputStreamReader(
+                 exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            new Main(m, in, out).processMessages();
+            out.flush();
+            answer.finish();
+        } catch (UncheckedIOException excp) {
+            throw excp.getCause();
+        } catch (EnigmaException excp) {
+            out.flush();
+            answer.fail(400, excp.getMessage());
+        } catch (RuntimeException excp) {
+            reusable = false;
+            out.flush();
+            answer.fail(500, "internal error: " + excp);
+        } finally {
+            if (reusable) {
+                _idle.offer(new Pooled(template, m));
+            }
+            exchange.close();
+        }
+    }
+
+    /** Return an idle copy of TEMPLATE, making one if there is none.
+     *  Idle copies of other templates are discarded. */
+    private Machine borrow(Machine template) {
+        Pooled p;
+        while ((p = _idle.poll()) != null) {
+            if (p._template == template) {
+                return p._machine;
+            }
+        }
+        return template.copy();
+    }
+
+    /** An idle machine and the template it was copied from. */
+    private static final class Pooled {
+        /** MACHINE, a copy of TEMPLATE. */
+        Pooled(Machine template, Machine machine) {
+            _template = template;
+            _machine = machine;
+        }
+
+        /** Template copied. */
+        private final Machine _template;
+        /** The copy. */
+        private final Machine _machine;
+    }
+
+    /** Return an executor running each task on a new virtual thread if
+     *  this runtime supports them, and otherwise a cached pool. */
+    private static ExecutorService executor() {
+        try {
+            Method virtual =
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** The body of one answer: buffered up to BUFFERED bytes, then
+     *  streamed.  The PrintStream writing an answer would swallow an
+     *  IOException from the stream, so a failure to send is thrown
+     *  unchecked instead, ending the conversion. */
+    private static final class Answer extends OutputStream {
+
+        /** The answer to EXCHANGE. */
+        Answer(HttpExchange exchange) {
+            _exchange = exchange;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            try {
+                if (_body == null && _held.size() + len > BUFFERED) {
+                    _exchange.getResponseHeaders()
+                        .set("Content-Type", "text/plain; charset=utf-8");
+                    _exchange.sendResponseHeaders(200, 0);
+                    _body = _exchange.getResponseBody();
+                    _held.writeTo(_body);
+                    _held.reset();
+                }
+                if (_body != null) {
+                    _body.write(b, off, len);
+                } else {
+                    _held.write(b, off, len);
+                }
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        }
+
+        /** Send whatever is held back with status 200 and end the
+         *  answer. */
+        void finish() throws IOException {
+            if (_body == null) {
+                send(200, _held.toByteArray());
+            } else {
+                _body.close();
+            }
+        }
+
+        /** End the answer with the error MSG, sent with status CODE if
+         *  streaming has not yet started. */
+        void fail(int code, String msg) throws IOException {
+            byte[] text = String.format("Error: %s%n", msg)
+                .getBytes(StandardCharsets.UTF_8);
+            if (_body == null) {
+                send(code, text);
+            } else {
+                _body.write(text);
+                _body.close();
+            }
+        }
+
+        /** Send BODY with status CODE. */
+        private void send(int code, byte[] body) throws IOException {
+            _exchange.getResponseHeaders()
+                .set("Content-Type", "text/plain; charset=utf-8");
+            _exchange.sendResponseHeaders(code, body.length == 0 ? -1
+                                          : body.length);
+            if (body.length > 0) {
+                try (OutputStream out = _exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        }
+
+        /** Exchange answered. */
+        private final HttpExchange _exchange;
+        /** Bytes held back. */
+        private final ByteArrayOutputStream _held =
+            new ByteArrayOutputStream();
+        /** Response body once streaming, else null. */
+        private OutputStream _body;
+    }
+
+    /** Configuration whose current template's copies serve
+     *  requests. */
+    private final LiveConfig _config;
+    /** Idle pooled machines. */
+    private final ConcurrentLinkedQueue<Pooled> _idle =
+        new ConcurrentLinkedQueue<>();
+    /** The HTTP server. */
+    private final HttpServer _server;
+    /** Executor running requests. */
+    private final ExecutorService _executor;
+}
@@ -0,0 +1,137 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the HTTP Service on localhost.
+ *  @author Andrew Kaplan
+ */
+public class ServiceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** POST BODY to /convert on PORT; return status and answer. */
+    private String post(int port, String body) throws IOException {
+        URL url = new URL("http",
+                          InetAddress.getLoopbackAddress().getHostAddress(),
+                          port, "/convert");
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        int code = conn.getResponseCode();
+        InputStream in = code == 200 ? conn.getInputStream()
+            : conn.getErrorStream();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        if (in != null) {
+            in.transferTo(result);
+            in.close();
+        }
+        return code + " " + result.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void checkConvert() throws IOException {
+        Service service = new Service(smallMachine(5), 0);
+        service.start();
+        try {
+            String batch = "* B Beta I II III AAAA\nHELLO WORLD\n"
+                + "* B Beta I II III AAAA\nILBDA AMTAZ\n";
+            for (int i = 0; i < 3; i += 1) {
+                assertEquals("200 ILBDA AMTAZ\nHELLO WORLD\n",
+                             post(service.port(), batch)
+                                 .replace("\r", ""));
+            }
+            assertTrue(post(service.port(), "HELLO\n").startsWith("400"));
+            assertTrue(service.idle() >= 1);
+        } finally {
+            service.stop(0);
+        }
+    }
+
+    @Test
+    public void checkStreaming() throws IOException {
+        Service service = new Service(smallMachine(5), 0);
+        service.start();
+        try {
+            StringBuilder body = new StringBuilder("* B Beta I II III AAAA\n");
+            for (int i = 0; i < 20000; i += 1) {
+                body.append("HELLOWORLD\n");
+            }
+            String answer = post(service.port(), body.toString());
+            assertTrue(answer.startsWith("200 ILBDA AMTAZ\n"));
+            assertTrue(answer.length() > Service.BUFFERED);
+        } finally {
+            service.stop(0);
+        }
+    }
+
+    @Test
+    public void checkInternalError() throws IOException {
+        Machine broken = smallMachine(5);
+        broken.setStepping((notched, linked, count) -> {
+            throw new IllegalStateException("broken stepping");
+        });
+        Service service = new Service(broken, 0);
+        service.start();
+        try {
+            String answer =
+                post(service.port(), "* B Beta I II III AAAA\nHELLO\n");
+            assertTrue(answer.startsWith("500 Error: internal error"));
+            assertTrue(answer.contains("broken stepping"));
+            assertEquals(0, service.idle());
+        } finally {
+            service.stop(0);
+        }
+    }
+
+    @Test
+    public void checkClientGone() throws IOException, InterruptedException {
+        Service service = new Service(smallMachine(5), 0);
+        service.start();
+        try {
+            StringBuilder body = new StringBuilder("* B Beta I II III AAAA\n");
+            for (int i = 0; i < 50000; i += 1) {
+                body.append("HELLOWORLD\n");
+            }
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(),
+                                            service.port())) {
+                OutputStream out = client.getOutputStream();
+                out.write(("POST /convert HTTP/1.1\r\nHost: localhost\r\n"
+                           + "Content-Length: " + bytes.length + "\r\n\r\n")
+                          .getBytes(StandardCharsets.UTF_8));
+                out.write(bytes);
+                out.flush();
+                assertTrue(client.getInputStream().read() >= 0);
+            }
+            while (service.idle() == 0) {
+                Thread.sleep(10);
+            }
+            assertEquals("200 ILBDA AMTAZ\n",
+                         post(service.port(),
+                              "* B Beta I II III AAAA\nHELLO WORLD\n")
+                             .replace("\r", ""));
+        } finally {
+            service.stop(0);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A parsed setting line: the rotors for each slot, their positions,
+ *  their ring settings and the plugboard.  A line has the form
+ *
+ *      * REFLECTOR ROTOR... POSITIONS [RINGS] [(cc) (cc) ...]
+ *
+ *  Parsing a line once and applying it many times spares the string
+ *  handling of Main.setUp, which is this parse followed by apply.
+ *  @author Andrew Kaplan
+ */
+final class Settings {
+
+    /** Settings putting ROTORS (reflector first) in the slots, at
+     *  POSITIONS and RINGS (each empty for the 0 setting) with plugboard
+     *  cycles PLUGBOARD. */
+    Settings(String[] rotors, String positions, String rings,
+             String plugboard) {
+        _rotors = rotors;
+        _positions = positions;
+        _rings = rings;
+        _plugboard = plugboard;
+    }
+
+    /** Return the settings given by the setting line LINE for machine M.
+     *  The positions are checked against M's alphabet. */
+    static Settings parse(Machine M, String line) {
+        String[] sets = line.split("\\s");
+        String[] activeRotors = new String[M.numRotors()];
+        StringBuilder permString = new StringBuilder();
+        String rotorSetting = "";
+        String ringSetting = "";
+
+        for (int i = 1; i < sets.length; i += 1) {
+            if (i < M.numRotors() + 1) {
+                activeRotors[i - 1] = sets[i];
+            } else {
+                if (sets[i].charAt(0) != '(' && i == M.numRotors() + 1) {
+                    rotorSetting = sets[M.numRotors() + 1];
+                } else if (sets[i].charAt(0) != '('
+                           && i == M.numRotors() + 2) {
+                    ringSetting = sets[i];
+                } else {
+                    permString.append(sets[i]);
+                }
+
+            }
+        }
+        for (char c: rotorSetting.toCharArray()) {
+            if (!M.alphabet().contains(c)) {
+                throw EnigmaException.error("Settings invalid");
+            }
+        }
+        return new Settings(activeRotors, rotorSetting, ringSetting,
+                            permString.toString());
+    }
+
+    /** Set M according to these settings. */
+    void apply(Machine M) {
+        M.insertRotors(_rotors);
+        M.setRotors(_positions);
+        M.setRings(_rings);
+        if (_plugboardPerm == null
+            || _plugboardPerm.alphabet() != M.alphabet()) {
+            _plugboardPerm = new Permutation(_plugboard, M.alphabet());
+        }
+        M.setPlugboard(_plugboardPerm);
+    }
+
+    /** Return the rotor names, reflector first. */
+    String[] rotors() {
+        return _rotors;
+    }
+
+    /** Return the rotor positions, or "" for the 0 setting. */
+    String positions() {
+        return _positions;
+    }
+
+    /** Return the ring settings, or "" for ring setting 0. */
+    String rings() {
+        return _rings;
+    }
+
+    /** Return the plugboard cycles. */
+    String plugboard() {
+        return _plugboard;
+    }
+
+    /** Return these settings as a setting line. */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("*");
+        for (String r : _rotors) {
+            result.append(' ').append(r);
+        }
+        if (!_positions.isEmpty()) {
+            result.append(' ').append(_positions);
+            if (!_rings.isEmpty()) {
+                result.append(' ').append(_rings);
+            }
+        }
+        if (!_plugboard.isEmpty()) {
+            result.append(' ').append(_plugboard);
+        }
+        return result.toString();
+    }
+
+    /** Rotor names, reflector first. */
+    private final String[] _rotors;
+    /** Rotor positions. */
+    private final String _positions;
+    /** Ring settings. */
+    private final String _rings;
+    /** Plugboard cycles, without whitespace. */
+    private final String _plugboard;
+    /** The plugboard as last built, or null. */
+    private Permutation _plugboardPerm;
+}
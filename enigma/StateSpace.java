@@ -0,0 +1,338 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static enigma.EnigmaException.*;
+
+/** An analyzer of the graph of rotor states under a machine's stepping.
+ *  Only the moving rotors change, so a state is the joint position of
+ *  the moving rotors (see Stepper.states), and each state has exactly
+ *  one successor.  The graph is therefore a set of cycles, the periods
+ *  of the keystream, with tails of transient states leading into them;
+ *  states with no predecessor cannot be reached at all once a message
+ *  has begun.
+ *
+ *  Graphs of at most EXHAUSTIVE_LIMIT states are walked completely,
+ *  using four bitsets of one bit per state.  Larger graphs are sampled:
+ *  from SAMPLES random states, Brent's algorithm finds the cycle and
+ *  tail reached in constant space (giving up after MAX_WALK steps), and
+ *  each sampled state is tested for a predecessor directly.  Memory is
+ *  thus bounded whatever the alphabet.
+ *  @author Andrew Kaplan
+ */
+class StateSpace {
+
+    /** Largest number of states walked exhaustively. */
+    static final long EXHAUSTIVE_LIMIT = 1L << 25;
+
+    /** Number of states sampled in larger graphs. */
+    static final int SAMPLES = 256;
+
+    /** Longest walk made from one sampled state. */
+    static final long MAX_WALK = 1L << 26;
+
+    /** Return the analysis of the stepping of the rotors inserted in M,
+     *  which are left unchanged. */
+    static Report analyze(Machine m) {
+        Stepper stepper = m.stepper();
+        String[] names = m.activeRotorNames();
+        String[] moving = new String[stepper.count()];
+        for (int i = 0; i < moving.length; i += 1) {
+            moving[i] = names[stepper.slot(moving.length - 1 - i)];
+        }
+        long states = stepper.states();
+        if (states < 0) {
+            throw error("too many rotor states to analyze");
+        } else if (states <= EXHAUSTIVE_LIMIT) {
+            return exhaustive(stepper, moving, states);
+        }
+        return sampled(stepper, moving, states);
+    }
+
+    /** Return the analyses of every distinct sequence of moving rotors in
+     *  the wheel orders of KEYS, a key space of TEMPLATE, computed in
+     *  parallel on copies of TEMPLATE.  Wheel orders differing only in
+     *  their reflector or non-moving rotors step alike and are analyzed
+     *  once. */
+    static List<Report> analyze(Machine template, KeySpace keys) {
+        long perOrder = keys.size() / keys.orders();
+        LinkedHashMap<String, Long> distinct = new LinkedHashMap<>();
+        String[] rotors = new String[template.numRotors()];
+        int firstMoving = template.numRotors() - template.numPawls();
+        for (long o = 0; o < keys.orders(); o += 1) {
+            keys.wheelOrder(o * perOrder, rotors);
+            StringBuilder id = new StringBuilder();
+            for (int s = firstMoving; s < rotors.length; s += 1) {
+                id.append(rotors[s]).append('\0');
+            }
+            distinct.putIfAbsent(id.toString(), o * perOrder);
+        }
+        return distinct.values().parallelStream().map(key -> {
+            Machine m = template.copy();
+            keys.apply(key, m);
+            return analyze(m);
+        }).collect(Collectors.toList());
+    }
+
+    /** Run ARGS, which are CONFIG followed by optional KeySpace.parse
+     *  items, printing a report for each distinct sequence of moving
+     *  rotors.  Return true. */
+    static boolean main(String... args) {
+        if (args.length < 1) {
+            throw error("Usage: --states CONFIG [ITEM...]");
+        }
+        Machine m;
+        try {
+            m = Main.readConfig(new Scanner(new File(args[0])));
+        } catch (IOException excp) {
+            throw error("could not open %s", args[0]);
+        }
+        StringBuilder spec = new StringBuilder();
+        for (int i = 1; i < args.length; i += 1) {
+            spec.append(args[i]).append(' ');
+        }
+        for (Report r : analyze(m, KeySpace.parse(m, spec.toString()))) {
+            r.print(System.out);
+        }
+        System.out.flush();
+        return true;
+    }
+
+    /** Return the complete analysis of the STATES states of STEPPER,
+     *  whose moving rotors are named MOVING. */
+    private static Report exhaustive(Stepper stepper, String[] moving,
+                                     long states) {
+        Report r = new Report(moving, states, true);
+        long[] reached = bits(states), cyclic = bits(states),
+            done = bits(states), path = bits(states);
+        for (long s = 0; s < states; s += 1) {
+            set(reached, stepper.next(s));
+        }
+        for (long s = 0; s < states; s += 1) {
+            if (get(done, s)) {
+                continue;
+            }
+            long p = s;
+            while (!get(done, p)) {
+                set(done, p);
+                set(path, p);
+                p = stepper.next(p);
+            }
+            if (get(path, p)) {
+                long length = 0, q = p;
+                do {
+                    set(cyclic, q);
+                    length += 1;
+                    q = stepper.next(q);
+                } while (q != p);
+                r._cycles.merge(length, 1L, Long::sum);
+                r._cyclic += length;
+            }
+            for (long q = s; get(path, q); q = stepper.next(q)) {
+                clear(path, q);
+            }
+        }
+        for (long s = 0; s < states; s += 1) {
+            if (!get(reached, s)) {
+                r._unreachable += 1;
+                long tail = 0;
+                for (long p = s; !get(cyclic, p); p = stepper.next(p)) {
+                    tail += 1;
+                }
+                r._maxTail = Math.max(r._maxTail, tail);
+            }
+        }
+        return r;
+    }
+
+    /** Return the analysis of STEPPER, whose moving rotors are named
+     *  MOVING and which has STATES states, from SAMPLES sampled
+     *  states. */
+    private static Report sampled(Stepper stepper, String[] moving,
+                                  long states) {
+        Report r = new Report(moving, states, false);
+        SplittableRandom random = new SplittableRandom(states);
+        int unreachable = 0;
+        for (int i = 0; i < SAMPLES; i += 1) {
+            long s = random.nextLong(states);
+            if (!reachable(stepper, s)) {
+                unreachable += 1;
+            }
+            long length = cycleLength(stepper, s);
+            if (length < 0) {
+                r._unresolved += 1;
+                continue;
+            }
+            r._cycles.merge(length, 1L, Long::sum);
+            long tortoise = s, hare = s;
+            for (long k = 0; k < length; k += 1) {
+                hare = stepper.next(hare);
+            }
+            long tail = 0;
+            while (tortoise != hare) {
+                tortoise = stepper.next(tortoise);
+                hare = stepper.next(hare);
+                tail += 1;
+            }
+            r._maxTail = Math.max(r._maxTail, tail);
+        }
+        r._unreachable = (long) ((double) unreachable / SAMPLES * states);
+        return r;
+    }
+
+    /** Return the length of the cycle that STEPPER reaches from S, or -1
+     *  if it is not found within MAX_WALK steps (Brent's algorithm). */
+    private static long cycleLength(Stepper stepper, long s) {
+        long power = 1, length = 1, steps = 0;
+        long tortoise = s, hare = stepper.next(s);
+        while (tortoise != hare) {
+            if (power == length) {
+                tortoise = hare;
+                power *= 2;
+                length = 0;
+            }
+            hare = stepper.next(hare);
+            length += 1;
+            steps += 1;
+            if (steps > MAX_WALK) {
+                return -1;
+            }
+        }
+        return length;
+    }
+
+    /** Return true iff some state of STEPPER steps to S.  A predecessor
+     *  differs from S only in the rotors that advanced, so it is one of
+     *  S with some set of moving rotors moved back. */
+    private static boolean reachable(Stepper stepper, long s) {
+        for (int mask = 0; mask < 1 << stepper.count(); mask += 1) {
+            if (stepper.next(stepper.advance(s, mask, -1)) == s) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return a bitset of N bits, all clear. */
+    private static long[] bits(long n) {
+        return new long[(int) ((n + 63) >>> 6)];
+    }
+
+    /** Return bit I of BITS. */
+    private static boolean get(long[] bits, long i) {
+        return (bits[(int) (i >>> 6)] & (1L << i)) != 0;
+    }
+
+    /** Set bit I of BITS. */
+    private static void set(long[] bits, long i) {
+        bits[(int) (i >>> 6)] |= 1L << i;
+    }
+
+    /** Clear bit I of BITS. */
+    private static void clear(long[] bits, long i) {
+        bits[(int) (i >>> 6)] &= ~(1L << i);
+    }
+
+    /** The analysis of one sequence of moving rotors. */
+    static final class Report {
+
+        /** An empty report on the moving rotors MOVING, which have
+         *  STATES joint positions, made EXHAUSTIVE-ly or by sampling. */
+        Report(String[] moving, long states, boolean exhaustive) {
+            _moving = moving;
+            _states = states;
+            _exhaustive = exhaustive;
+        }
+
+        /** Return the names of the moving rotors, leftmost first. */
+        String[] moving() {
+            return _moving;
+        }
+
+        /** Return the number of states. */
+        long states() {
+            return _states;
+        }
+
+        /** Return true iff every state was examined. */
+        boolean exhaustive() {
+            return _exhaustive;
+        }
+
+        /** Return the number of cycles of each length (when exhaustive)
+         *  or the number of samples that reached a cycle of each
+         *  length. */
+        TreeMap<Long, Long> cycles() {
+            return _cycles;
+        }
+
+        /** Return the number of states on cycles, or 0 if sampled. */
+        long cyclic() {
+            return _cyclic;
+        }
+
+        /** Return the number of states with no predecessor (estimated
+         *  if sampled). */
+        long unreachable() {
+            return _unreachable;
+        }
+
+        /** Return the length of the longest tail seen. */
+        long maxTail() {
+            return _maxTail;
+        }
+
+        /** Return the number of samples whose cycle was not found. */
+        long unresolved() {
+            return _unresolved;
+        }
+
+        /** Print me on OUT. */
+        void print(PrintStream out) {
+            out.printf("%s: %d states (%s)%n", String.join(" ", _moving),
+                       _states, _exhaustive ? "exhaustive"
+                       : SAMPLES + " samples");
+            ArrayList<String> cycles = new ArrayList<>();
+            for (long length : _cycles.keySet()) {
+                cycles.add(_cycles.get(length) + "x" + length);
+            }
+            out.printf("  cycles: %s%n", String.join(" ", cycles));
+            if (_exhaustive) {
+                out.printf("  transient: %d  unreachable: %d  "
+                           + "longest tail: %d%n", _states - _cyclic,
+                           _unreachable, _maxTail);
+            } else {
+                out.printf("  unreachable (est.): %d  longest tail: %d  "
+                           + "unresolved: %d%n", _unreachable, _maxTail,
+                           _unresolved);
+            }
+        }
+
+        /** Names of the moving rotors. */
+        private final String[] _moving;
+        /** Number of states. */
+        private final long _states;
+        /** True iff every state was examined. */
+        private final boolean _exhaustive;
+        /** Cycle counts by length. */
+        private final TreeMap<Long, Long> _cycles = new TreeMap<>();
+        /** States on cycles. */
+        private long _cyclic;
+        /** States with no predecessor. */
+        private long _unreachable;
+        /** Longest tail seen. */
+        private long _maxTail;
+        /** Samples whose cycle was not found. */
+        private long _unresolved;
+    }
+}
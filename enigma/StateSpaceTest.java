@@ -0,0 +1,58 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** Tests of StateSpace.
+ *  @author Andrew Kaplan
+ */
+public class StateSpaceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    @Test
+    public void ratchetPeriodTest() throws IOException {
+        Machine m = defaultMachine();
+        m.insertRotors(new String[] {"B", "Beta", "I", "II", "III"});
+        StateSpace.Report r = StateSpace.analyze(m);
+        assertTrue(r.exhaustive());
+        assertEquals(26 * 26 * 26, r.states());
+        assertEquals(1, r.cycles().size());
+        assertEquals(Long.valueOf(1), r.cycles().get(26L * 25 * 26));
+        assertEquals(26 * 25 * 26, r.cyclic());
+        assertTrue(r.unreachable() > 0);
+        assertEquals(2, r.maxTail());
+    }
+
+    @Test
+    public void counterPeriodTest() throws IOException {
+        Machine m = defaultMachine();
+        m.setStepping(SteppingModel.COUNTER);
+        m.insertRotors(new String[] {"B", "Beta", "I", "II", "III"});
+        StateSpace.Report r = StateSpace.analyze(m);
+        assertEquals(Long.valueOf(1), r.cycles().get(26L * 26 * 26));
+        assertEquals(0, r.unreachable());
+        assertEquals(0, r.maxTail());
+    }
+
+    @Test
+    public void wheelOrdersTest() throws IOException {
+        Machine m = defaultMachine();
+        KeySpace keys = KeySpace.parse(m, "reflector=B exclude=V,VI,VII,"
+                                       + "VIII");
+        List<StateSpace.Report> reports = StateSpace.analyze(m, keys);
+        assertEquals(4 * 3 * 2, reports.size());
+        for (StateSpace.Report r : reports) {
+            assertEquals(Long.valueOf(1), r.cycles().get(26L * 25 * 26));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package enigma;
+
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A SteppingModel compiled for one choice of rotors.  When the moving
+ *  rotors have at most TABLE_LIMIT joint positions, the mask of rotors
+ *  that advance is tabulated for every position; otherwise the notch
+ *  state of each rotor is looked up separately and the mask is taken
+ *  from a table indexed by the notch bits.  Either way a keypress costs
+ *  a few array references per moving rotor, whatever the model.
+ *  @author Andrew Kaplan
+ */
+final class Stepper {
+
+    /** Largest number of joint positions tabulated. */
+    static final int TABLE_LIMIT = 1 << 18;
+
+    /** Largest number of moving rotors supported. */
+    static final int MAX_MOVING = 16;
+
+    /** The compiled form of MODEL for ROTORS, the contents of a
+     *  machine's slots, over an alphabet of N characters. */
+    Stepper(SteppingModel model, List<Rotor> rotors, int n) {
+        int count = 0;
+        for (Rotor r : rotors) {
+            if (r.rotates()) {
+                count += 1;
+            }
+        }
+        if (count > MAX_MOVING) {
+            throw error("too many moving rotors");
+        }
+        _slots = new int[count];
+        _notched = new boolean[count][n];
+        int linked = 0;
+        for (int s = rotors.size() - 1, i = 0; s >= 0; s -= 1) {
+            Rotor r = rotors.get(s);
+            if (!r.rotates()) {
+                continue;
+            }
+            _slots[i] = s;
+            for (int p = 0; p < n; p += 1) {
+                _notched[i][p] = r.notchAt(p);
+            }
+            if (s > 0 && rotors.get(s - 1).rotates()) {
+                linked |= 1 << i;
+            }
+            i += 1;
+        }
+        _n = n;
+        _masks = new int[1 << count];
+        for (int bits = 0; count > 0 && bits < _masks.length; bits += 1) {
+            _masks[bits] = model.moves(bits, linked, count);
+        }
+        _table = positions(n, count) <= TABLE_LIMIT ? tabulate() : null;
+    }
+
+    /** Return the number of moving rotors. */
+    int count() {
+        return _slots.length;
+    }
+
+    /** Return the slot holding moving rotor I. */
+    int slot(int i) {
+        return _slots[i];
+    }
+
+    /** Return the mask of moving rotors that advance when the machine
+     *  holds ROTORS. */
+    int moves(List<Rotor> rotors) {
+        if (_table != null) {
+            int index = 0;
+            for (int i = _slots.length - 1; i >= 0; i -= 1) {
+                index = index * _n + rotors.get(_slots[i]).setting();
+            }
+            return _table[index];
+        }
+        int bits = 0;
+        for (int i = 0; i < _slots.length; i += 1) {
+            if (_notched[i][rotors.get(_slots[i]).setting()]) {
+                bits |= 1 << i;
+            }
+        }
+        return _masks[bits];
+    }
+
+    /** Return the mask of moving rotors that advance in the packed
+     *  state STATE, in which the digit of slot S has weight
+     *  WEIGHTS[S]. */
+    int moves(long state, long[] weights) {
+        int bits = 0;
+        for (int i = 0; i < _slots.length; i += 1) {
+            int d = (int) (state / weights[_slots[i]] % _n);
+            if (_notched[i][d]) {
+                bits |= 1 << i;
+            }
+        }
+        return _masks[bits];
+    }
+
+    /** Return the number of joint positions of my moving rotors, or -1
+     *  if that does not fit in a long.  A joint position packs the
+     *  positions of the moving rotors as the digits of a number in base
+     *  alphabet size, moving rotor 0 least significant. */
+    long states() {
+        long result = 1;
+        for (int i = 0; i < _slots.length; i += 1) {
+            if (result > Long.MAX_VALUE / _n) {
+                return -1;
+            }
+            result *= _n;
+        }
+        return result;
+    }
+
+    /** Return the joint position following POSN at a keypress. */
+    long next(long posn) {
+        if (_table != null) {
+            return advance(posn, _table[(int) posn], 1);
+        }
+        int bits = 0;
+        long rest = posn;
+        for (int i = 0; i < _slots.length; i += 1) {
+            if (_notched[i][(int) (rest % _n)]) {
+                bits |= 1 << i;
+            }
+            rest /= _n;
+        }
+        return advance(posn, _masks[bits], 1);
+    }
+
+    /** Return the joint position POSN with the positions of the moving
+     *  rotors in MASK moved by DELTA, which is 1 or -1. */
+    long advance(long posn, int mask, int delta) {
+        long result = 0, weight = 1, rest = posn;
+        for (int i = 0; i < _slots.length; i += 1) {
+            int d = (int) (rest % _n);
+            rest /= _n;
+            if ((mask & (1 << i)) != 0) {
+                d = Math.floorMod(d + delta, _n);
+            }
+            result += d * weight;
+            weight *= _n;
+        }
+        return result;
+    }
+
+    /** Return the number of joint positions of COUNT rotors over N
+     *  characters, or Long.MAX_VALUE if that is too large to matter. */
+    private static long positions(int n, int count) {
+        long result = 1;
+        for (int i = 0; i < count; i += 1) {
+            result *= n;
+            if (result > TABLE_LIMIT) {
+                return Long.MAX_VALUE;
+            }
+        }
+        return result;
+    }
+
+    /** Return the mask for every joint position, indexed with the
+     *  leftmost moving rotor's position as the most significant
+     *  digit. */
+    private int[] tabulate() {
+        int count = _slots.length;
+        int[] table = new int[(int) positions(_n, count)];
+        int[] digits = new int[count];
+        for (int index = 0; index < table.length; index += 1) {
+            int bits = 0;
+            for (int i = 0; i < count; i += 1) {
+                if (_notched[i][digits[i]]) {
+                    bits |= 1 << i;
+                }
+            }
+            table[index] = _masks[bits];
+            for (int i = 0; i < count; i += 1) {
+                digits[i] += 1;
+                if (digits[i] < _n) {
+                    break;
+                }
+                digits[i] = 0;
+            }
+        }
+        return table;
+    }
+
+    /** Slot of each moving rotor, rightmost first. */
+    private final int[] _slots;
+    /** _notched[I][P] is true iff moving rotor I has a notch at P. */
+    private final boolean[][] _notched;
+    /** Alphabet size. */
+    private final int _n;
+    /** Mask of advancing rotors for each set of notch bits. */
+    private final int[] _masks;
+    /** Mask of advancing rotors for each joint position, or null. */
+    private final int[] _table;
+}
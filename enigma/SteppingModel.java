@@ -0,0 +1,47 @@
+package enigma;
+
+/** A rule deciding which of a machine's moving rotors advance at a
+ *  keypress.  The rule sees only which moving rotors are at a notch, so
+ *  a Machine can compile it once per choice of rotors (see Stepper)
+ *  into a table, after which a keypress costs the same whatever the
+ *  rule.
+ *
+ *  Moving rotors are numbered from the right: rotor 0 is the rightmost.
+ *  In the masks passed and returned, bit I stands for moving rotor I.
+ *  @author Andrew Kaplan
+ */
+interface SteppingModel {
+
+    /** Return the mask of the moving rotors that advance when the COUNT
+     *  moving rotors whose bits are set in NOTCHED are at a notch.  Bit I
+     *  of LINKED is set iff the slot to the left of moving rotor I holds
+     *  moving rotor I + 1. */
+    int moves(int notched, int linked, int count);
+
+    /** The pawl-and-ratchet stepping of the service machines, with its
+     *  double step: the rightmost rotor always advances, and a rotor at
+     *  a notch advances both itself and its left neighbor, if that
+     *  neighbor has a pawl.  It also serves the four-rotor naval
+     *  machines, whose thin reflector and Greek wheel have no pawl and
+     *  so never move. */
+    SteppingModel RATCHET = (notched, linked, count) -> {
+        int carries = notched & linked;
+        return 1 | carries | (carries << 1);
+    };
+
+    /** The stepping of gear-driven machines, which turn over like a
+     *  counter: the rightmost rotor always advances, and a rotor that
+     *  advances from a notch carries its left neighbor with it.  There
+     *  is no double step. */
+    SteppingModel COUNTER = (notched, linked, count) -> {
+        int moves = 1;
+        for (int i = 0; i + 1 < count; i += 1) {
+            int bit = 1 << i;
+            if ((moves & notched & linked & bit) == 0) {
+                break;
+            }
+            moves |= bit << 1;
+        }
+        return moves;
+    };
+}
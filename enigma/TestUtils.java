@@ -1,6 +1,14 @@
 package enigma;
 
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Scanner;
 
 /** Utility definitions for use in unit tests.
  *  @author P. N. Hilfinger
@@ -11,6 +19,52 @@ class TestUtils {
     protected static final String UPPER_STRING =
         "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
 
+    /** Return the path of NAME in the project's testing directory,
+     *  whether tests are run from the project directory or from
+     *  enigma (as by make unit). */
+    static Path testing(String name) {
+        Path dir = Paths.get("testing");
+        if (!Files.isDirectory(dir)) {
+            dir = Paths.get("..", "testing");
+        }
+        return dir.resolve(name);
+    }
+
+    /** Return a machine configured by testing/correct/default.conf. */
+    static Machine defaultMachine() throws IOException {
+        return Main.readConfig(new Scanner(
+            testing("correct/default.conf").toFile()));
+    }
+
+    /** Return a SLOTS-slot, 3-pawl machine with reflector B, naval
+     *  rotors I, II, and III, and (when SLOTS is 5) the Greek wheel
+     *  Beta. */
+    static Machine smallMachine(int slots) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B",
+                new Permutation(NAVALA.get("B"), UPPER)));
+        if (slots == 5) {
+            rotors.add(new FixedRotor("Beta",
+                    new Permutation(NAVALA.get("Beta"), UPPER)));
+        }
+        rotors.add(new MovingRotor("I",
+                new Permutation(NAVALA.get("I"), UPPER), "Q"));
+        rotors.add(new MovingRotor("II",
+                new Permutation(NAVALA.get("II"), UPPER), "E"));
+        rotors.add(new MovingRotor("III",
+                new Permutation(NAVALA.get("III"), UPPER), "V"));
+        return new Machine(UPPER, slots, 3, rotors);
+    }
+
+    /** Return the alphabet indices of the upper-case string S. */
+    static int[] indices(String s) {
+        int[] result = new int[s.length()];
+        for (int i = 0; i < s.length(); i += 1) {
+            result[i] = UPPER.toInt(s.charAt(i));
+        }
+        return result;
+    }
+
     /** Return an identifying error message for failed assertions.
      *  TESTID identifies the test, MSGFORMAT and ARGS provide
      *  the details, as for String.format. */
@@ -0,0 +1,121 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** The K highest-scoring keys seen so far, kept in two parallel
+ *  primitive arrays.  Inserting is a linear scan, which for the small K
+ *  used by searches beats any heap.  A key offered twice is kept once.
+ *  Not thread-safe: searches keep one per worker and merge them.
+ *  @author Andrew Kaplan
+ */
+class TopK {
+
+    /** An empty table of at most K keys. */
+    TopK(int k) {
+        if (k < 1) {
+            throw EnigmaException.error("top-K table needs K >= 1");
+        }
+        _keys = new long[k];
+        _scores = new double[k];
+    }
+
+    /** Return my capacity. */
+    int capacity() {
+        return _keys.length;
+    }
+
+    /** Return the number of keys I hold. */
+    int size() {
+        return _size;
+    }
+
+    /** Return key number I (0 <= I < size()); keys are not sorted. */
+    long key(int i) {
+        return _keys[i];
+    }
+
+    /** Return the score of key number I. */
+    double score(int i) {
+        return _scores[i];
+    }
+
+    /** Return the lowest score a key must beat to be added once I am
+     *  full, or negative infinity while I am not full. */
+    double threshold() {
+        return _size < _keys.length ? Double.NEGATIVE_INFINITY
+            : _scores[_min];
+    }
+
+    /** Offer KEY with SCORE.  Return true iff I changed. */
+    boolean offer(long key, double score) {
+        for (int i = 0; i < _size; i += 1) {
+            if (_keys[i] == key) {
+                if (score <= _scores[i]) {
+                    return false;
+                }
+                _scores[i] = score;
+                findMin();
+                return true;
+            }
+        }
+        if (_size < _keys.length) {
+            _keys[_size] = key;
+            _scores[_size] = score;
+            _size += 1;
+            findMin();
+            return true;
+        } else if (score > _scores[_min]) {
+            _keys[_min] = key;
+            _scores[_min] = score;
+            findMin();
+            return true;
+        }
+        return false;
+    }
+
+    /** Offer every key of OTHER. */
+    void addAll(TopK other) {
+        for (int i = 0; i < other._size; i += 1) {
+            offer(other._keys[i], other._scores[i]);
+        }
+    }
+
+    /** Remove all keys. */
+    void clear() {
+        _size = 0;
+        _min = 0;
+    }
+
+    /** Return my indices 0 .. size()-1 ordered by decreasing score. */
+    int[] ranking() {
+        Integer[] order = new Integer[_size];
+        for (int i = 0; i < _size; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(_scores[b], _scores[a]));
+        int[] result = new int[_size];
+        for (int i = 0; i < _size; i += 1) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    /** Set _min to the index of my lowest score. */
+    private void findMin() {
+        _min = 0;
+        for (int i = 1; i < _size; i += 1) {
+            if (_scores[i] < _scores[_min]) {
+                _min = i;
+            }
+        }
+    }
+
+    /** Keys held. */
+    private final long[] _keys;
+    /** Scores of _keys. */
+    private final double[] _scores;
+    /** Number of keys held. */
+    private int _size;
+    /** Index of the lowest score. */
+    private int _min;
+}
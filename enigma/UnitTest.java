@@ -14,7 +14,28 @@ public class UnitTest {
                 PermutationTest.class,
                 RotorTest.class,
                 MovingRotorTest.class,
-                MachineTest.class);
+                MachineTest.class,
+                KeySpaceTest.class,
+                NgramTableTest.class,
+                SearchTest.class,
+                DistributedSearchTest.class,
+                CycleCatalogTest.class,
+                ServiceTest.class,
+                DaemonTest.class,
+                MachineProcessorTest.class,
+                StateSpaceTest.class,
+                HarnessTest.class,
+                EngineSelectorTest.class,
+                CribTesterTest.class,
+                DepthIndexTest.class,
+                ArchiveTest.class,
+                PermutationsTest.class,
+                BanburismusTest.class,
+                LiveConfigTest.class,
+                KeywordSpotterTest.class,
+                FanOutTest.class,
+                InteractiveTest.class,
+                BatchTest.class);
     }
 }
 
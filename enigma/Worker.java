@@ -0,0 +1,124 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+
+import java.net.Socket;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** A worker process of a distributed key search (see Coordinator).  The
+ *  configuration and scoring table are loaded once; the machine copies
+ *  and buffers of the worker's Search are reused for every lease, and
+ *  each lease is searched in parallel on all local cores.
+ *  @author Andrew Kaplan
+ */
+class Worker {
+
+    /** A worker searching with copies of TEMPLATE, scoring with
+     *  SCORER. */
+    Worker(Machine template, NgramTable scorer) {
+        _template = template;
+        _scorer = scorer;
+    }
+
+    /** Run ARGS, which are HOST PORT CONFIG NGRAMS.  Return true. */
+    static boolean main(String... args) {
+        if (args.length != 4) {
+            throw error("Usage: --worker HOST PORT CONFIG NGRAMS");
+        }
+        Machine m;
+        try {
+            m = Main.readConfig(new Scanner(new File(args[2])));
+        } catch (IOException excp) {
+            throw error("could not open %s", args[2]);
+        }
+        NgramTable scorer = NgramTable.read(Paths.get(args[3]));
+        try {
+            new Worker(m, scorer).run(args[0], Integer.parseInt(args[1]));
+        } catch (NumberFormatException excp) {
+            throw error("bad port: %s", args[1]);
+        }
+        return true;
+    }
+
+    /** Work for the coordinator at HOST:PORT until it has no more
+     *  leases.  Return the number of leases completed. */
+    int run(String host, int port) {
+        int leases = 0;
+        try (Socket s = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 s.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(s.getOutputStream(), true,
+                                               StandardCharsets.UTF_8)) {
+            out.println("HELLO");
+            KeySpace keys = KeySpace.parse(_template,
+                                           field(in.readLine(), "SPACE"));
+            int[] text = indices(field(in.readLine(), "TEXT"));
+            int k = Integer.parseInt(field(in.readLine(), "TOP"));
+            Search search = new Search(keys, _template, text, _scorer, k);
+            while (true) {
+                out.println("LEASE");
+                String[] reply = field(in.readLine(), "").split(" ");
+                if (reply[0].equals("DONE")) {
+                    return leases;
+                } else if (reply[0].equals("WAIT")) {
+                    Thread.sleep(Long.parseLong(reply[1]));
+                } else if (reply[0].equals("RANGE")) {
+                    TopK top = search.searchParallel(
+                        Long.parseLong(reply[2]), Long.parseLong(reply[3]));
+                    StringBuilder msg = new StringBuilder("RESULT ");
+                    msg.append(reply[1]).append(' ').append(top.size());
+                    for (int i = 0; i < top.size(); i += 1) {
+                        msg.append(' ').append(top.key(i))
+                            .append(' ').append(top.score(i));
+                    }
+                    out.println(msg);
+                    leases += 1;
+                } else {
+                    throw error("bad coordinator reply: %s", reply[0]);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("lost coordinator at %s:%d", host, port);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return leases;
+        }
+    }
+
+    /** Return the rest of LINE after the word TAG and a blank (all of
+     *  LINE if TAG is empty). */
+    private static String field(String line, String tag) {
+        if (line == null) {
+            throw error("coordinator closed the connection");
+        } else if (tag.isEmpty()) {
+            return line;
+        } else if (!line.startsWith(tag + " ") && !line.equals(tag)) {
+            throw error("expected %s from coordinator", tag);
+        }
+        return line.substring(Math.min(line.length(), tag.length() + 1));
+    }
+
+    /** Return the alphabet indices of TEXT. */
+    private int[] indices(String text) {
+        int[] result = new int[text.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _template.alphabet().toInt(text.charAt(i));
+        }
+        return result;
+    }
+
+    /** Machine whose copies do the work. */
+    private final Machine _template;
+    /** Scoring table. */
+    private final NgramTable _scorer;
+}